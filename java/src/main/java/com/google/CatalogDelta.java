@@ -0,0 +1,78 @@
+package com.google;
+
+import java.util.stream.IntStream;
+
+/**
+ * The difference between the catalog a library currently holds and a freshly
+ * parsed copy of its source file: which videos were added, removed or
+ * changed (same id, different title or tags). Videos that did not change are
+ * not mentioned, so applying a delta to a store's rows costs time in
+ * proportion to its size. Bringing the store's indexes up to date afterwards
+ * can cost more; see {@link LocalShard}.
+ */
+final class CatalogDelta {
+
+  /** The freshly parsed catalog the added and changed rows come from. */
+  private final CatalogStore source;
+  /** Rows of {@link #source} with ids the current catalog does not have. */
+  private final int[] added;
+  /** Rows of {@link #source} whose id exists but whose content differs. */
+  private final int[] changed;
+  /** Rows of the current catalog whose ids are gone from {@link #source}. */
+  private final int[] removed;
+
+  private CatalogDelta(CatalogStore source, int[] added, int[] changed, int[] removed) {
+    this.source = source;
+    this.added = added;
+    this.changed = changed;
+    this.removed = removed;
+  }
+
+  /** Compares the live rows of both stores by video id. */
+  static CatalogDelta compute(CatalogStore current, CatalogStore next) {
+    IntStream.Builder added = IntStream.builder();
+    IntStream.Builder changed = IntStream.builder();
+    IntStream.Builder removed = IntStream.builder();
+    for (int row = next.nextLiveRow(0); row >= 0; row = next.nextLiveRow(row + 1)) {
+      int existing = current.find(next, row);
+      if (existing < 0) {
+        added.add(row);
+      } else if (!current.sameVideo(existing, next, row)) {
+        changed.add(row);
+      }
+    }
+    for (int row = current.nextLiveRow(0); row >= 0; row = current.nextLiveRow(row + 1)) {
+      if (next.find(current, row) < 0) {
+        removed.add(row);
+      }
+    }
+    return new CatalogDelta(next, added.build().toArray(), changed.build().toArray(),
+        removed.build().toArray());
+  }
+
+  boolean isEmpty() {
+    return added.length == 0 && changed.length == 0 && removed.length == 0;
+  }
+
+  CatalogStore source() {
+    return source;
+  }
+
+  int[] added() {
+    return added;
+  }
+
+  int[] changed() {
+    return changed;
+  }
+
+  int[] removed() {
+    return removed;
+  }
+
+  @Override
+  public String toString() {
+    return added.length + " added, " + changed.length + " changed, "
+        + removed.length + " removed";
+  }
+}
@@ -0,0 +1,287 @@
+package com.google;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Parses the text catalog format ("title | video_id | #tag1, #tag2") straight
+ * out of a memory-mapped file. Delimiters are found with a single byte scan and
+ * fields are trimmed by moving indices and copied as raw bytes into a
+ * {@link CatalogStore}, so no strings are created at all: tags are resolved to
+ * {@link TagDictionary} ids straight from their bytes. Large files are parsed
+ * in parallel.
+ */
+final class CatalogParser {
+
+  /** Largest region mapped at once; a single MappedByteBuffer is int-indexed. */
+  static final long MAX_SEGMENT = Integer.MAX_VALUE;
+
+  /** Chunks smaller than this are not worth handing to another thread. */
+  static final long MIN_CHUNK = 1 << 20;
+
+  private static final byte FIELD_SEPARATOR = '|';
+  private static final byte TAG_SEPARATOR = ',';
+  private static final byte NEW_LINE = '\n';
+
+  private final ByteBuffer buffer;
+  private int[] lineTags = new int[8];
+
+  private byte[][] tagKeys = new byte[64][];
+  private int[] tagHashes = new int[64];
+  private int[] tagValues = new int[64];
+  private int cachedTags;
+
+  private CatalogParser(ByteBuffer buffer) {
+    this.buffer = buffer;
+  }
+
+  /**
+   * Parses the whole catalog file into the given store.
+   *
+   * <p>The file is cut into newline-aligned chunks that are mapped and parsed
+   * in parallel on the common fork-join pool into stores of their own, then
+   * merged in file order. When an id appears more than once the line nearest
+   * the end of the file wins, exactly as if the file had been read
+   * sequentially.
+   */
+  static void parse(Path file, CatalogStore store) throws IOException {
+    parse(file, new CatalogStore[] {store});
+  }
+
+  /**
+   * Parses the whole catalog file, partitioning the videos by id hash into the
+   * given shard stores as the parsed chunks are merged.
+   */
+  static void parse(Path file, CatalogStore[] shards) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long[] bounds = chunkBounds(channel, ForkJoinPool.getCommonPoolParallelism());
+      List<CatalogStore> parts;
+      try {
+        parts = IntStream.range(0, bounds.length - 1)
+            .parallel()
+            .mapToObj(i -> parseChunk(channel, bounds[i], bounds[i + 1]))
+            .collect(Collectors.toList());
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      }
+      for (CatalogStore part : parts) {
+        if (shards.length == 1) {
+          shards[0].addAll(part);
+        } else {
+          part.partitionInto(shards);
+        }
+      }
+    }
+  }
+
+  /**
+   * Splits the file into at most {@code 4 * parallelism} chunks, none smaller
+   * than {@link #MIN_CHUNK} (except the last) and none larger than
+   * {@link #MAX_SEGMENT}. Every boundary but the first and last sits just after
+   * a newline. Returns the boundaries, first element 0 and last the file size.
+   */
+  static long[] chunkBounds(FileChannel channel, int parallelism) throws IOException {
+    long size = channel.size();
+    long chunks = Math.max(
+        Math.min(4L * Math.max(parallelism, 1), (size + MIN_CHUNK - 1) / MIN_CHUNK),
+        (size + MAX_SEGMENT - 1) / MAX_SEGMENT);
+    chunks = Math.max(chunks, 1);
+
+    long[] bounds = new long[(int) chunks + 1];
+    int count = 1;
+    for (long i = 1; i < chunks; i++) {
+      long bound = nextLineStart(channel, size * i / chunks);
+      if (bound > bounds[count - 1] && bound < size) {
+        bounds[count++] = bound;
+      }
+    }
+    bounds[count++] = size;
+    long[] result = Arrays.copyOf(bounds, count);
+    for (int i = 1; i < result.length; i++) {
+      if (result[i] - result[i - 1] > MAX_SEGMENT) {
+        throw new IOException("Catalog line longer than " + MAX_SEGMENT + " bytes");
+      }
+    }
+    return result;
+  }
+
+  private static CatalogStore parseChunk(FileChannel channel, long from, long to) {
+    try {
+      MappedByteBuffer chunk =
+          channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+      CatalogStore store = new CatalogStore();
+      parse(chunk, 0, (int) (to - from), store);
+      return store;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /** Returns the offset just past the first newline at or after {@code position}. */
+  private static long nextLineStart(FileChannel channel, long position) throws IOException {
+    ByteBuffer window = ByteBuffer.allocate(8192);
+    long size = channel.size();
+    while (position < size) {
+      window.clear();
+      int read = channel.read(window, position);
+      if (read <= 0) {
+        break;
+      }
+      for (int i = 0; i < read; i++) {
+        if (window.get(i) == NEW_LINE) {
+          return position + i + 1;
+        }
+      }
+      position += read;
+    }
+    return size;
+  }
+
+  /** Parses every line in {@code [from, to)} of the buffer into the store. */
+  static void parse(ByteBuffer buffer, int from, int to, CatalogStore store) {
+    new CatalogParser(buffer).parseLines(from, to, store);
+  }
+
+  private void parseLines(int from, int to, CatalogStore store) {
+    int lineStart = from;
+    while (lineStart < to) {
+      int lineEnd = indexOf(NEW_LINE, lineStart, to);
+      parseLine(lineStart, lineEnd, store);
+      lineStart = lineEnd + 1;
+    }
+  }
+
+  private void parseLine(int start, int end, CatalogStore store) {
+    int titleEnd = indexOf(FIELD_SEPARATOR, start, end);
+    if (titleEnd == end) {
+      // Blank or malformed line, nothing to index.
+      return;
+    }
+    int idEnd = indexOf(FIELD_SEPARATOR, titleEnd + 1, end);
+
+    int titleFrom = trimStart(start, titleEnd);
+    int titleTo = trimEnd(titleFrom, titleEnd);
+    int idFrom = trimStart(titleEnd + 1, idEnd);
+    int idTo = trimEnd(idFrom, idEnd);
+    int tagCount = 0;
+    int tagStart = idEnd + 1;
+    while (tagStart < end) {
+      int tagEnd = indexOf(TAG_SEPARATOR, tagStart, end);
+      int from = trimStart(tagStart, tagEnd);
+      int to = trimEnd(from, tagEnd);
+      if (from < to) {
+        if (tagCount == lineTags.length) {
+          lineTags = Arrays.copyOf(lineTags, tagCount * 2);
+        }
+        lineTags[tagCount++] = tagId(from, to);
+      }
+      tagStart = tagEnd + 1;
+    }
+    store.add(buffer, titleFrom, titleTo - titleFrom, idFrom, idTo - idFrom, lineTags, tagCount);
+  }
+
+  /**
+   * Returns the dictionary id of the tag in {@code [from, to)}. Tags repeat
+   * across most lines, so ids are cached against the raw bytes and a tag
+   * string is only decoded the first time this parser sees it.
+   */
+  private int tagId(int from, int to) {
+    int hash = 1;
+    for (int i = from; i < to; i++) {
+      hash = 31 * hash + buffer.get(i);
+    }
+    int mask = tagKeys.length - 1;
+    int slot = hash & mask;
+    while (tagKeys[slot] != null) {
+      if (tagHashes[slot] == hash && matches(tagKeys[slot], from, to)) {
+        return tagValues[slot];
+      }
+      slot = (slot + 1) & mask;
+    }
+    byte[] key = new byte[to - from];
+    for (int i = 0; i < key.length; i++) {
+      key[i] = buffer.get(from + i);
+    }
+    int id = TagDictionary.intern(new String(key, StandardCharsets.UTF_8));
+    tagKeys[slot] = key;
+    tagHashes[slot] = hash;
+    tagValues[slot] = id;
+    if (++cachedTags * 2 > tagKeys.length) {
+      growTagCache();
+    }
+    return id;
+  }
+
+  private boolean matches(byte[] key, int from, int to) {
+    if (key.length != to - from) {
+      return false;
+    }
+    for (int i = 0; i < key.length; i++) {
+      if (key[i] != buffer.get(from + i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void growTagCache() {
+    byte[][] keys = tagKeys;
+    int[] hashes = tagHashes;
+    int[] values = tagValues;
+    tagKeys = new byte[keys.length * 2][];
+    tagHashes = new int[keys.length * 2];
+    tagValues = new int[keys.length * 2];
+    int mask = tagKeys.length - 1;
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] != null) {
+        int slot = hashes[i] & mask;
+        while (tagKeys[slot] != null) {
+          slot = (slot + 1) & mask;
+        }
+        tagKeys[slot] = keys[i];
+        tagHashes[slot] = hashes[i];
+        tagValues[slot] = values[i];
+      }
+    }
+  }
+
+  /** Returns the index of {@code b} in {@code [from, to)}, or {@code to}. */
+  private int indexOf(byte b, int from, int to) {
+    for (int i = from; i < to; i++) {
+      if (buffer.get(i) == b) {
+        return i;
+      }
+    }
+    return to;
+  }
+
+  private int trimStart(int from, int to) {
+    while (from < to && isWhitespace(buffer.get(from))) {
+      from++;
+    }
+    return from;
+  }
+
+  private int trimEnd(int from, int to) {
+    while (to > from && isWhitespace(buffer.get(to - 1))) {
+      to--;
+    }
+    return to;
+  }
+
+  private static boolean isWhitespace(byte b) {
+    // Multi-byte UTF-8 sequences are negative, so only ASCII control/space matches.
+    return b >= 0 && b <= ' ';
+  }
+}
@@ -0,0 +1,230 @@
+package com.google;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads and writes the binary catalog snapshot, a pre-parsed copy of the text
+ * catalog that loads without any delimiter scanning or tag splitting.
+ *
+ * <p>Layout, with every integer written as an unsigned LEB128 varint and every
+ * string as a varint byte length followed by its UTF-8 bytes:
+ * <pre>
+ *   magic "YTCS" (4 bytes), format version
+ *   tag count, tags...
+ *   video count, then per video: title, video id, tag count, tag indexes...
+ * </pre>
+ * Tag indexes point into the tag dictionary at the head of the file, so each
+ * distinct tag string is stored once and interned into the
+ * {@link TagDictionary} once on load. Titles and ids are bulk-copied from the
+ * mapped file into the {@link CatalogStore} of the shard owning each id, as
+ * raw bytes, without being decoded. The row columns and the id hash table are
+ * thus filled in one pass; the derived indexes (trigrams, folded titles, tag
+ * bitmaps, title order, terms and any perfect hash) are still built when the
+ * shards are created.
+ */
+final class CatalogSnapshot {
+
+  static final String EXTENSION = ".bin";
+
+  private static final int MAGIC = 0x59544353;
+  private static final int VERSION = 1;
+
+  private CatalogSnapshot() {
+  }
+
+  /**
+   * Returns where the snapshot for the given text catalog lives: next to it,
+   * with the extension swapped for {@value #EXTENSION}.
+   */
+  static Path snapshotPath(Path catalogFile) {
+    String name = catalogFile.getFileName().toString();
+    int dot = name.lastIndexOf('.');
+    String base = dot > 0 ? name.substring(0, dot) : name;
+    return catalogFile.resolveSibling(base + EXTENSION);
+  }
+
+  /**
+   * Returns true if a snapshot exists for the text catalog and is at least as
+   * new as it, so loading it gives the same videos as parsing the text.
+   */
+  static boolean isCurrent(Path catalogFile) throws IOException {
+    Path snapshot = snapshotPath(catalogFile);
+    if (!Files.isRegularFile(snapshot)) {
+      return false;
+    }
+    return !Files.exists(catalogFile) || Files.getLastModifiedTime(snapshot)
+        .compareTo(Files.getLastModifiedTime(catalogFile)) >= 0;
+  }
+
+  /** Parses a text catalog and writes it out as a snapshot. */
+  static void convert(Path catalogFile, Path snapshot) throws IOException {
+    CatalogStore store = new CatalogStore();
+    CatalogParser.parse(catalogFile, store);
+    write(store, snapshot);
+  }
+
+  /**
+   * Writes the live videos of a store to a snapshot file. The file is written
+   * beside the target and moved into place, so readers never see a partial
+   * snapshot.
+   */
+  static void write(CatalogStore store, Path snapshot) throws IOException {
+    Map<Integer, Integer> tagIndexes = new LinkedHashMap<>();
+    for (int row = store.nextLiveRow(0); row >= 0; row = store.nextLiveRow(row + 1)) {
+      for (int t = 0; t < store.tagCount(row); t++) {
+        tagIndexes.putIfAbsent(store.tagId(row, t), tagIndexes.size());
+      }
+    }
+
+    Path temp = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+      out.writeInt(MAGIC);
+      writeVarInt(out, VERSION);
+      writeVarInt(out, tagIndexes.size());
+      for (int tagId : tagIndexes.keySet()) {
+        writeString(out, TagDictionary.tag(tagId));
+      }
+      writeVarInt(out, store.size());
+      for (int row = store.nextLiveRow(0); row >= 0; row = store.nextLiveRow(row + 1)) {
+        writeString(out, store.title(row));
+        writeString(out, store.videoId(row));
+        writeVarInt(out, store.tagCount(row));
+        for (int t = 0; t < store.tagCount(row); t++) {
+          writeVarInt(out, tagIndexes.get(store.tagId(row, t)));
+        }
+      }
+    }
+    Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Memory-maps a snapshot file and loads every video into the store of the
+   * shard that owns its id (see {@link CatalogStore#shardOf(String, int)}).
+   */
+  static void read(Path snapshot, CatalogStore... stores) throws IOException {
+    try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+      if (channel.size() > CatalogParser.MAX_SEGMENT) {
+        throw new IOException("Snapshot too large to map: " + snapshot);
+      }
+      ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      new Reader(buffer).readInto(stores);
+    } catch (RuntimeException e) {
+      // Truncated or corrupt file: surface it like any other I/O failure.
+      throw new IOException("Malformed snapshot: " + snapshot, e);
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    writeVarInt(out, bytes.length);
+    out.write(bytes);
+  }
+
+  private static void writeVarInt(OutputStream out, int value) throws IOException {
+    while ((value & ~0x7F) != 0) {
+      out.write((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.write(value);
+  }
+
+  /** Sequential decoder over a mapped snapshot. */
+  private static final class Reader {
+
+    private final ByteBuffer buffer;
+    private byte[] scratch = new byte[256];
+
+    Reader(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    void readInto(CatalogStore[] stores) throws IOException {
+      if (buffer.getInt() != MAGIC) {
+        throw new IOException("Not a catalog snapshot");
+      }
+      int version = readVarInt();
+      if (version != VERSION) {
+        throw new IOException("Unsupported snapshot version " + version);
+      }
+      int[] tagIds = new int[readVarInt()];
+      for (int i = 0; i < tagIds.length; i++) {
+        tagIds[i] = TagDictionary.intern(readString());
+      }
+      int count = readVarInt();
+      int[] videoTags = new int[8];
+      for (int i = 0; i < count; i++) {
+        int titleLength = readVarInt();
+        int titleFrom = skip(titleLength);
+        int idLength = readVarInt();
+        int idFrom = skip(idLength);
+        int tagCount = readVarInt();
+        if (videoTags.length < tagCount) {
+          videoTags = new int[tagCount];
+        }
+        for (int t = 0; t < tagCount; t++) {
+          videoTags[t] = tagIds[readVarInt()];
+        }
+        CatalogStore store = stores[CatalogStore.shardOf(buffer, idFrom, idLength, stores.length)];
+        store.add(buffer, titleFrom, titleLength, idFrom, idLength, videoTags, tagCount);
+      }
+    }
+
+    private int readVarInt() {
+      int value = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = buffer.get();
+        value |= (b & 0x7F) << shift;
+        shift += 7;
+      } while (b < 0);
+      return value;
+    }
+
+    /** Steps over {@code length} bytes and returns where they started. */
+    private int skip(int length) {
+      int position = buffer.position();
+      buffer.position(position + length);
+      return position;
+    }
+
+    private String readString() {
+      int length = readVarInt();
+      if (scratch.length < length) {
+        scratch = new byte[Math.max(length, scratch.length * 2)];
+      }
+      buffer.get(scratch, 0, length);
+      return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+  }
+
+  /**
+   * Converts a text catalog to a snapshot.
+   * Usage: {@code CatalogSnapshot <videos.txt> [videos.bin]}
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1) {
+      System.out.println("Usage: CatalogSnapshot <catalog.txt> [snapshot" + EXTENSION + "]");
+      return;
+    }
+    Path catalogFile = Paths.get(args[0]);
+    Path snapshot = args.length > 1 ? Paths.get(args[1]) : snapshotPath(catalogFile);
+    convert(catalogFile, snapshot);
+    System.out.println("Wrote snapshot: " + snapshot);
+  }
+}
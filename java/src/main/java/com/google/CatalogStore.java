@@ -0,0 +1,929 @@
+package com.google;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+/**
+ * Column-oriented storage for the video catalog. Each video is an int row
+ * number; its data lives in a handful of primitive arrays rather than in
+ * objects of its own, so the garbage collector sees a few dozen arrays no
+ * matter how many videos are loaded.
+ *
+ * <ul>
+ *   <li>titles and ids are UTF-8 bytes, back to back, in fixed-size pages;
+ *   <li>tags are {@link TagDictionary} ids in one shared int arena;
+ *   <li>liveness and flags are bitsets, flag reasons a sparse map;
+ *   <li>lookup by id goes through an open-addressed table of row numbers
+ *       that compares against the stored id bytes.
+ * </ul>
+ *
+ * <p>Rows are append-only. Adding a video whose id already exists retires the
+ * old row (it stops being live) and points the id at the new one; removing a
+ * video retires its row. Retired rows keep their data.
+ *
+ * <p>A store is changed by one thread at a time. To change a store other
+ * threads are reading, {@link #fork} it, change the fork and publish that:
+ * a fork shares everything with its parent, copies only the pages it writes,
+ * and appends rows past the parent's end, where the parent never looks. Once
+ * forked, the parent must not be changed again.
+ */
+final class CatalogStore {
+
+  private static final int PAGE_BITS = 24;
+  private static final int PAGE_SIZE = 1 << PAGE_BITS;
+  private static final int PAGE_MASK = PAGE_SIZE - 1;
+  private static final int REASON_BUCKETS = 64;
+
+  /** Text pages; a row's title and id never straddle two pages. */
+  private byte[][] pages;
+  /** True while {@link #pages} is shared with a fork or parent. */
+  private boolean pagesShared;
+  private int pageCount;
+  private int pageUsed;
+
+  /** Per row: where its title starts (page index high bits, offset low bits). */
+  private long[] textOffsets;
+  /** Per row: title and id lengths in bytes; the id directly follows the title. */
+  private int[] titleLengths;
+  private int[] idLengths;
+  private int[] idHashes;
+  /** Per row: start of its tags in {@link #tags}; row + 1 holds the end. */
+  private int[] tagOffsets;
+  private int[] tags;
+
+  private LongPages live;
+  private LongPages flagged;
+  /**
+   * {@link #flagged} and the live unflagged rows as bitmaps, built on first
+   * use and dropped by the next change to either bitset. Immutable, so forks
+   * share them until they change.
+   */
+  private RowBitmap flaggedRows;
+  private RowBitmap playableRows;
+  /** Flag reasons by row, bucketed so a fork copies only the buckets it changes. */
+  private List<HashMap<Integer, String>> flagReasons;
+  /** Buckets this store may change in place; null while the bucket list is shared. */
+  private boolean[] ownedReasons;
+
+  /**
+   * Open-addressed id index. Each slot holds the id hash in its high half and
+   * row + 1 in its low half, 0 meaning empty.
+   */
+  private LongPages slots;
+  /**
+   * Minimal perfect hash over the live ids, when built by {@link #indexIds};
+   * {@link #find} uses it instead of {@link #slots}. Immutable, so forks
+   * share it, and dropped by the first change to the rows.
+   */
+  private PerfectIdIndex perfectIndex;
+  /** Trigram index of the titles, when built by {@link #indexTitles}; forks share it. */
+  private TitleIndex titleIndex;
+  /** Folded title buffer for scans, when built by {@link #indexFoldedTitles}; forks share it. */
+  private FoldedTitles foldedTitles;
+  /** Tag to rows index, when built by {@link #indexTags}; forks share it. */
+  private TagIndex tagIndex;
+  /** Title sort order, when built by {@link #indexTitleOrder}; forks share it. */
+  private TitleOrder titleOrder;
+  /** Term index of titles and tags, when built by {@link #indexTerms}; forks share it. */
+  private TermIndex termIndex;
+
+  private int rowCount;
+  private int liveCount;
+
+  CatalogStore() {
+    pages = new byte[4][];
+    textOffsets = new long[16];
+    titleLengths = new int[16];
+    idLengths = new int[16];
+    idHashes = new int[16];
+    tagOffsets = new int[17];
+    tags = new int[64];
+    live = new LongPages(1);
+    flagged = new LongPages(1);
+    flagReasons = newReasonBuckets();
+    ownedReasons = new boolean[REASON_BUCKETS];
+    Arrays.fill(ownedReasons, true);
+    slots = new LongPages(32);
+  }
+
+  private CatalogStore(CatalogStore parent) {
+    parent.pagesShared = true;
+    parent.ownedReasons = null;
+    pages = parent.pages;
+    pagesShared = true;
+    pageCount = parent.pageCount;
+    pageUsed = parent.pageUsed;
+    textOffsets = parent.textOffsets;
+    titleLengths = parent.titleLengths;
+    idLengths = parent.idLengths;
+    idHashes = parent.idHashes;
+    tagOffsets = parent.tagOffsets;
+    tags = parent.tags;
+    live = parent.live.fork();
+    flagged = parent.flagged.fork();
+    flagReasons = parent.flagReasons;
+    flaggedRows = parent.flaggedRows;
+    playableRows = parent.playableRows;
+    slots = parent.slots.fork();
+    perfectIndex = parent.perfectIndex;
+    titleIndex = parent.titleIndex;
+    foldedTitles = parent.foldedTitles;
+    tagIndex = parent.tagIndex;
+    titleOrder = parent.titleOrder;
+    termIndex = parent.termIndex;
+    rowCount = parent.rowCount;
+    liveCount = parent.liveCount;
+  }
+
+  /**
+   * Returns a store with the same contents that can be changed without this
+   * one changing. Costs time in proportion to the number of pages, not rows.
+   */
+  CatalogStore fork() {
+    return new CatalogStore(this);
+  }
+
+  /** Returns the number of live videos. */
+  int size() {
+    return liveCount;
+  }
+
+  /** Returns the number of rows ever added, live or retired. */
+  int rowCount() {
+    return rowCount;
+  }
+
+  boolean isLive(int row) {
+    return row < rowCount && live.isSet(row);
+  }
+
+  /** Returns the first live row at or after {@code row}, or -1. */
+  int nextLiveRow(int row) {
+    return live.nextSetBit(row, rowCount);
+  }
+
+  /**
+   * Appends a video whose title and id are UTF-8 bytes in {@code source}, and
+   * returns its row.
+   */
+  int add(ByteBuffer source, int titleFrom, int titleLength, int idFrom, int idLength,
+      int[] tagIds, int tagCount) {
+    long offset = reserve(titleLength + idLength);
+    byte[] page = pages[(int) (offset >>> PAGE_BITS)];
+    int position = (int) (offset & PAGE_MASK);
+    ByteBuffer bytes = source.duplicate();
+    bytes.position(titleFrom);
+    bytes.get(page, position, titleLength);
+    bytes.position(idFrom);
+    bytes.get(page, position + titleLength, idLength);
+    return addRow(offset, titleLength, idLength, tagIds, 0, tagCount);
+  }
+
+  /** Appends a video given as strings, and returns its row. */
+  int add(String title, String videoId, int[] tagIds) {
+    byte[] titleBytes = title.getBytes(StandardCharsets.UTF_8);
+    byte[] idBytes = videoId.getBytes(StandardCharsets.UTF_8);
+    ByteBuffer source = ByteBuffer.allocate(titleBytes.length + idBytes.length);
+    source.put(titleBytes).put(idBytes);
+    return add(source, 0, titleBytes.length, titleBytes.length, idBytes.length,
+        tagIds, tagIds.length);
+  }
+
+  /**
+   * Appends every live row of another store, in row order, with the same
+   * replace-on-duplicate rule as {@link #add}.
+   */
+  void addAll(CatalogStore other) {
+    ensureRows(rowCount + other.liveCount);
+    for (int row = other.nextLiveRow(0); row >= 0; row = other.nextLiveRow(row + 1)) {
+      int added = copyRow(other, row);
+      if (other.isFlagged(row)) {
+        flag(added, other.flagReason(row));
+      }
+    }
+  }
+
+  /**
+   * Copies every live row, with its flag, into the store of the shard that
+   * owns its id (see {@link #shardOf(int, int)}), keeping row order.
+   */
+  void partitionInto(CatalogStore[] shards) {
+    for (int row = nextLiveRow(0); row >= 0; row = nextLiveRow(row + 1)) {
+      CatalogStore shard = shards[shardOf(row, shards.length)];
+      int added = shard.copyRow(this, row);
+      if (isFlagged(row)) {
+        shard.flag(added, flagReason(row));
+      }
+    }
+  }
+
+  /** Returns which of {@code shardCount} shards owns the row's video id. */
+  int shardOf(int row, int shardCount) {
+    return shard(idHashes[row], shardCount);
+  }
+
+  /**
+   * Returns which of {@code shardCount} shards owns the video id held as
+   * UTF-8 bytes in {@code source}.
+   */
+  static int shardOf(ByteBuffer source, int idFrom, int idLength, int shardCount) {
+    int hash = 1;
+    for (int i = 0; i < idLength; i++) {
+      hash = 31 * hash + source.get(idFrom + i);
+    }
+    return shard(hash ^ (hash >>> 16), shardCount);
+  }
+
+  /** Returns which of {@code shardCount} shards owns the video id. */
+  static int shardOf(String videoId, int shardCount) {
+    byte[] id = videoId.getBytes(StandardCharsets.UTF_8);
+    return shard(hash(id, 0, id.length), shardCount);
+  }
+
+  /**
+   * Scrambles the id hash before scaling it to the shard count, so the low
+   * bits the id index probes with stay evenly spread within each shard.
+   */
+  private static int shard(int hash, int shardCount) {
+    return (int) (((hash * 0x9E3779B9L) & 0xFFFFFFFFL) * shardCount >>> 32);
+  }
+
+  /**
+   * Appends a copy of another store's row, without its flag, and returns the
+   * new row. A live row with the same id is retired, as with {@link #add}.
+   */
+  int copyRow(CatalogStore other, int row) {
+    int titleLength = other.titleLengths[row];
+    int length = titleLength + other.idLengths[row];
+    long from = other.textOffsets[row];
+    long offset = reserve(length);
+    System.arraycopy(other.pages[(int) (from >>> PAGE_BITS)], (int) (from & PAGE_MASK),
+        pages[(int) (offset >>> PAGE_BITS)], (int) (offset & PAGE_MASK), length);
+    return addRow(offset, titleLength, other.idLengths[row], other.tags,
+        other.tagOffsets[row], other.tagCount(row));
+  }
+
+  /**
+   * Retires a live row: it stops being live and its id can no longer be
+   * found. The row's data stays readable for views that still hold it.
+   */
+  void remove(int row) {
+    perfectIndex = null;
+    int mask = slots.length() - 1;
+    int slot = idHashes[row] & mask;
+    while ((int) slots.get(slot) != row + 1) {
+      if (slots.get(slot) == 0) {
+        return;
+      }
+      slot = (slot + 1) & mask;
+    }
+    live.clearBit(row);
+    liveCount--;
+    playableRows = null;
+    // Backward-shift deletion keeps every probe chain unbroken.
+    for (int next = (slot + 1) & mask; slots.get(next) != 0; next = (next + 1) & mask) {
+      int home = (int) (slots.get(next) >>> 32) & mask;
+      if (((next - home) & mask) >= ((next - slot) & mask)) {
+        slots.set(slot, slots.get(next));
+        slot = next;
+      }
+    }
+    slots.set(slot, 0);
+  }
+
+  /**
+   * Builds a minimal perfect hash over the live ids, which {@link #find} then
+   * uses until the next row is added or removed. Lookups no longer probe: one
+   * hash, one table read and one comparison. Does nothing if it cannot be
+   * built.
+   */
+  void indexIds() {
+    long[] hashes = new long[liveCount];
+    int[] rows = new int[liveCount];
+    int count = 0;
+    for (int row = nextLiveRow(0); row >= 0; row = nextLiveRow(row + 1)) {
+      long offset = textOffsets[row];
+      hashes[count] = hash64(pages[(int) (offset >>> PAGE_BITS)],
+          (int) (offset & PAGE_MASK) + titleLengths[row], idLengths[row]);
+      rows[count++] = row;
+    }
+    perfectIndex = PerfectIdIndex.build(hashes, rows, count);
+  }
+
+  /** Returns true if {@link #find} currently uses a perfect hash. */
+  boolean hasPerfectIndex() {
+    return perfectIndex != null;
+  }
+
+  /**
+   * Brings the title index up to date with the rows added since it was last
+   * built, building it first if there is none. The previous index is shared
+   * with other versions and must not be extended again, so only call this on
+   * the newest fork.
+   */
+  void indexTitles() {
+    titleIndex = titleIndex == null ? TitleIndex.build(this) : titleIndex.extend(this);
+  }
+
+  /**
+   * Brings the folded title buffer up to date with the rows added since it
+   * was last built, building it first if there is none. As with
+   * {@link #indexTitles}, only call this on the newest fork.
+   */
+  void indexFoldedTitles() {
+    foldedTitles = foldedTitles == null ? FoldedTitles.build(this) : foldedTitles.extend(this);
+  }
+
+  /**
+   * Calls the action, in ascending order, with every live row whose
+   * lower-cased title contains the lower-cased term. Uses the title index
+   * where it can, scans the folded title buffer for shorter terms, and scans
+   * the titles of rows neither covers.
+   */
+  void searchTitles(String searchTerm, IntConsumer action) {
+    searchTitles(searchTerm, true, action);
+  }
+
+  /**
+   * Like {@link #searchTitles(String, IntConsumer)}, but skips flagged rows
+   * unless {@code includeFlagged} is set, by subtracting {@link #flaggedRows}
+   * from the matches.
+   */
+  void searchTitles(String searchTerm, boolean includeFlagged, IntConsumer action) {
+    if (!includeFlagged && !flaggedRows().isEmpty()) {
+      RowBitmap.Builder matches = new RowBitmap.Builder();
+      searchTitles(searchTerm, true, matches::add);
+      matches.build().andNot(flaggedRows()).forEach(action);
+      return;
+    }
+    String term = searchTerm.toLowerCase();
+    int scanFrom = 0;
+    if (titleIndex != null && term.length() >= TitleIndex.GRAM) {
+      titleIndex.search(this, term, action);
+      scanFrom = titleIndex.indexedRows();
+    } else if (foldedTitles != null) {
+      foldedTitles.search(this, term, action);
+      scanFrom = foldedTitles.indexedRows();
+    }
+    for (int row = nextLiveRow(scanFrom); row >= 0; row = nextLiveRow(row + 1)) {
+      if (title(row).toLowerCase().contains(term)) {
+        action.accept(row);
+      }
+    }
+  }
+
+  /**
+   * Brings the tag index up to date with the rows added since it was last
+   * built, building it first if there is none. As with {@link #indexTitles},
+   * only call this on the newest fork.
+   */
+  void indexTags() {
+    tagIndex = tagIndex == null ? TagIndex.build(this) : tagIndex.extend(this);
+  }
+
+  /**
+   * Calls the action, in ascending order, with every live row matching the
+   * tag query.
+   */
+  void searchTags(TagQuery query, IntConsumer action) {
+    searchTags(query, true, action);
+  }
+
+  /**
+   * Like {@link #searchTags(TagQuery, IntConsumer)}, but skips flagged rows
+   * unless {@code includeFlagged} is set.
+   */
+  void searchTags(TagQuery query, boolean includeFlagged, IntConsumer action) {
+    RowBitmap rows = query.evaluate(this);
+    if (!includeFlagged) {
+      rows = rows.andNot(flaggedRows());
+    }
+    rows.forEach(row -> {
+      if (isLive(row)) {
+        action.accept(row);
+      }
+    });
+  }
+
+  /**
+   * Returns the rows carrying any of the given {@link TagDictionary} ids,
+   * possibly including retired ones. Uses the tag index where it can, and
+   * scans rows it does not cover.
+   */
+  RowBitmap tagRows(BitSet tagIds) {
+    int scanFrom = 0;
+    RowBitmap indexed = RowBitmap.EMPTY;
+    if (tagIndex != null) {
+      indexed = tagIndex.rows(tagIds);
+      scanFrom = tagIndex.indexedRows();
+    }
+    RowBitmap.Builder scanned = new RowBitmap.Builder();
+    for (int row = nextLiveRow(scanFrom); row >= 0; row = nextLiveRow(row + 1)) {
+      for (int i = 0; i < tagCount(row); i++) {
+        if (tagIds.get(tagId(row, i))) {
+          scanned.add(row);
+          break;
+        }
+      }
+    }
+    return indexed.or(scanned.build());
+  }
+
+  /** Returns an upper bound on the size of {@link #tagRows}, without building it. */
+  long tagRowsEstimate(BitSet tagIds) {
+    if (tagIndex == null) {
+      return liveCount;
+    }
+    return tagIndex.estimate(tagIds) + rowCount - tagIndex.indexedRows();
+  }
+
+  /**
+   * Brings the title order up to date with the rows added since it was last
+   * built, building it first if there is none. As with {@link #indexTitles},
+   * only call this on the newest fork.
+   */
+  void indexTitleOrder() {
+    titleOrder = titleOrder == null ? TitleOrder.build(this) : titleOrder.extend(this);
+  }
+
+  /** Returns the key rows sort by: the lower-cased title, precomputed where ordered. */
+  String titleKey(int row) {
+    String key = titleOrder == null ? null : titleOrder.key(row);
+    return key != null ? key : title(row).toLowerCase();
+  }
+
+  /**
+   * Calls the action with every live row by title, ignoring case, and by row
+   * among equal titles. Walks the title order when it covers every row.
+   */
+  void forEachByTitle(IntConsumer action) {
+    if (titleOrder != null && titleOrder.indexedRows() == rowCount) {
+      titleOrder.forEach(this, action);
+      return;
+    }
+    int[] rows = new int[liveCount];
+    int count = 0;
+    for (int row = nextLiveRow(0); row >= 0; row = nextLiveRow(row + 1)) {
+      rows[count++] = row;
+    }
+    sortByTitle(rows);
+    for (int row : rows) {
+      action.accept(row);
+    }
+  }
+
+  /**
+   * Calls the action, in title order, with the live unflagged rows whose
+   * lower-cased title starts with the lower-cased prefix, until it returns
+   * false. Walks the title order's prefix trie when it covers every row.
+   */
+  void suggestTitles(String prefix, IntPredicate action) {
+    String start = prefix.toLowerCase();
+    RowBitmap playable = playableRows();
+    IntPredicate unflagged = row -> !playable.contains(row) || action.test(row);
+    if (titleOrder != null && titleOrder.indexedRows() == rowCount) {
+      titleOrder.forEachWithPrefix(this, start, unflagged);
+      return;
+    }
+    IntStream.Builder matches = IntStream.builder();
+    for (int row = nextLiveRow(0); row >= 0; row = nextLiveRow(row + 1)) {
+      if (titleKey(row).startsWith(start)) {
+        matches.add(row);
+      }
+    }
+    int[] rows = matches.build().toArray();
+    sortByTitle(rows);
+    for (int row : rows) {
+      if (!unflagged.test(row)) {
+        return;
+      }
+    }
+  }
+
+  /** Returns whether a live unflagged row carries the tag. */
+  boolean hasPlayableTag(int tagId) {
+    BitSet tagIds = new BitSet();
+    tagIds.set(tagId);
+    return !tagRows(tagIds).and(playableRows()).isEmpty();
+  }
+
+  /**
+   * Sorts distinct rows into the order of {@link #forEachByTitle}. Rows in
+   * the title order are sorted by rank; only rows it does not cover fall back
+   * to comparing keys.
+   */
+  void sortByTitle(int[] rows) {
+    long[] ranked = new long[rows.length];
+    for (int i = 0; i < rows.length; i++) {
+      int rank = titleOrder == null ? -1 : titleOrder.rank(rows[i]);
+      if (rank < 0) {
+        int[] sorted = Arrays.stream(rows).boxed()
+            .sorted((a, b) -> {
+              int order = titleKey(a).compareTo(titleKey(b));
+              return order != 0 ? order : Integer.compare(a, b);
+            })
+            .mapToInt(Integer::intValue)
+            .toArray();
+        System.arraycopy(sorted, 0, rows, 0, rows.length);
+        return;
+      }
+      ranked[i] = (long) rank << 32 | rows[i];
+    }
+    Arrays.sort(ranked);
+    for (int i = 0; i < rows.length; i++) {
+      rows[i] = (int) ranked[i];
+    }
+  }
+
+  /**
+   * Returns, in title order, the first {@code limit} of the given distinct
+   * rows that come after {@code after} (null for no bound) in this shard.
+   * When the title order covers every row, the start is found by binary
+   * search and the rows are selected by rank with a bounded heap, in
+   * O(n log limit) time.
+   */
+  int[] firstByTitle(int[] rows, SearchPage.Position after, int shardIndex, int limit) {
+    int fromRowOnTie = after == null ? 0 : after.firstRowOnTie(shardIndex);
+    if (titleOrder == null || titleOrder.indexedRows() < rowCount || limit >= rows.length) {
+      sortByTitle(rows);
+      return Arrays.stream(rows)
+          .filter(row -> after == null || comesAfter(row, after.titleKey(), fromRowOnTie))
+          .limit(limit)
+          .toArray();
+    }
+    int fromRank = after == null ? 0 : titleOrder.rankOf(after.titleKey(), fromRowOnTie);
+    TopK first = new TopK(limit);
+    for (int row : rows) {
+      int rank = titleOrder.rank(row);
+      if (rank >= fromRank) {
+        first.offer((long) rank << 32 | row);
+      }
+    }
+    return Arrays.stream(first.sorted()).mapToInt(ranked -> (int) ranked).toArray();
+  }
+
+  private boolean comesAfter(int row, String titleKey, int fromRowOnTie) {
+    int order = titleKey(row).compareTo(titleKey);
+    return order > 0 || order == 0 && row >= fromRowOnTie;
+  }
+
+  /**
+   * Brings the term index up to date with the rows added since it was last
+   * built, building it first if there is none. As with {@link #indexTitles},
+   * only call this on the newest fork.
+   */
+  void indexTerms() {
+    termIndex = termIndex == null ? TermIndex.build(this) : termIndex.extend(this);
+  }
+
+  /**
+   * Returns the {@code limit} live rows scoring highest under BM25 for the
+   * words of the query, matched against the words of titles and tags, best
+   * first and by row among equal scores, each packed with its score by
+   * {@link TermIndex#pack}. Rows matching no word are left out, and so are
+   * flagged rows unless {@code includeFlagged}: candidates are checked against
+   * {@link #playableRows()}, or {@link #liveRows()} to keep flagged ones. Rows
+   * the term index does not cover are scored by a scan; without an index, one
+   * is built for the call.
+   */
+  long[] rankTitles(String query, boolean includeFlagged, int limit) {
+    List<String> terms = TermIndex.terms(query);
+    if (terms.isEmpty() || limit == 0) {
+      return new long[0];
+    }
+    TermIndex index = termIndex != null ? termIndex : TermIndex.build(this);
+    // No more than every live row can be returned, however large the limit.
+    TopK top = new TopK(Math.min(limit, liveCount));
+    RowBitmap accepted = includeFlagged ? liveRows() : playableRows();
+    index.search(terms, accepted::contains, top);
+    for (int row = nextLiveRow(index.indexedRows()); row >= 0; row = nextLiveRow(row + 1)) {
+      float score = accepted.contains(row) ? index.score(this, row, terms) : 0;
+      if (score > 0) {
+        top.offer(TermIndex.pack(score, row));
+      }
+    }
+    return top.sorted();
+  }
+
+  /** Returns the live rows as a bitmap. */
+  RowBitmap liveRows() {
+    return RowBitmap.of(live, rowCount);
+  }
+
+  /** Returns the flagged rows as a bitmap, possibly including retired ones. */
+  RowBitmap flaggedRows() {
+    RowBitmap rows = flaggedRows;
+    if (rows == null) {
+      rows = RowBitmap.of(flagged, rowCount);
+      flaggedRows = rows;
+    }
+    return rows;
+  }
+
+  /** Returns the live rows that are not flagged, as a bitmap. */
+  RowBitmap playableRows() {
+    RowBitmap rows = playableRows;
+    if (rows == null) {
+      rows = liveRows().andNot(flaggedRows());
+      playableRows = rows;
+    }
+    return rows;
+  }
+
+  /** Returns the live row holding the video id, or -1. */
+  int find(String videoId) {
+    byte[] id = videoId.getBytes(StandardCharsets.UTF_8);
+    return find(id, 0, id.length);
+  }
+
+  /** Returns the live row holding the same video id as another store's row, or -1. */
+  int find(CatalogStore other, int row) {
+    long offset = other.textOffsets[row];
+    return find(other.pages[(int) (offset >>> PAGE_BITS)],
+        (int) (offset & PAGE_MASK) + other.titleLengths[row], other.idLengths[row]);
+  }
+
+  /**
+   * Returns true if this store's row and another store's row hold the same
+   * title, id and tags.
+   */
+  boolean sameVideo(int row, CatalogStore other, int otherRow) {
+    if (titleLengths[row] != other.titleLengths[otherRow]
+        || idLengths[row] != other.idLengths[otherRow]
+        || tagCount(row) != other.tagCount(otherRow)) {
+      return false;
+    }
+    long offset = textOffsets[row];
+    long otherOffset = other.textOffsets[otherRow];
+    byte[] page = pages[(int) (offset >>> PAGE_BITS)];
+    byte[] otherPage = other.pages[(int) (otherOffset >>> PAGE_BITS)];
+    int start = (int) (offset & PAGE_MASK);
+    int otherStart = (int) (otherOffset & PAGE_MASK);
+    int length = titleLengths[row] + idLengths[row];
+    for (int i = 0; i < length; i++) {
+      if (page[start + i] != otherPage[otherStart + i]) {
+        return false;
+      }
+    }
+    for (int i = 0; i < tagCount(row); i++) {
+      if (tagId(row, i) != other.tagId(otherRow, i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int find(byte[] id, int from, int length) {
+    if (perfectIndex != null) {
+      int row = perfectIndex.row(hash64(id, from, length));
+      return row >= 0 && idEquals(row, id, from, length) ? row : -1;
+    }
+    int hash = hash(id, from, length);
+    int mask = slots.length() - 1;
+    for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+      long entry = slots.get(slot);
+      if (entry == 0) {
+        return -1;
+      }
+      int row = (int) entry - 1;
+      if ((int) (entry >>> 32) == hash && idEquals(row, id, from, length)) {
+        return row;
+      }
+    }
+  }
+
+  String title(int row) {
+    long offset = textOffsets[row];
+    return new String(pages[(int) (offset >>> PAGE_BITS)], (int) (offset & PAGE_MASK),
+        titleLengths[row], StandardCharsets.UTF_8);
+  }
+
+  String videoId(int row) {
+    long offset = textOffsets[row];
+    return new String(pages[(int) (offset >>> PAGE_BITS)],
+        (int) (offset & PAGE_MASK) + titleLengths[row], idLengths[row], StandardCharsets.UTF_8);
+  }
+
+  int tagCount(int row) {
+    return tagOffsets[row + 1] - tagOffsets[row];
+  }
+
+  int tagId(int row, int index) {
+    return tags[tagOffsets[row] + index];
+  }
+
+  /** Returns a read-only list view of the row's tags as strings. */
+  List<String> tags(int row) {
+    int from = tagOffsets[row];
+    int count = tagCount(row);
+    int[] tags = this.tags;
+    return new AbstractList<>() {
+      @Override
+      public String get(int index) {
+        return TagDictionary.tag(tags[from + index]);
+      }
+
+      @Override
+      public int size() {
+        return count;
+      }
+    };
+  }
+
+  boolean isFlagged(int row) {
+    return flagged.isSet(row);
+  }
+
+  String flagReason(int row) {
+    return flagReasons.get(row & (REASON_BUCKETS - 1)).get(row);
+  }
+
+  void flag(int row, String reason) {
+    flagged.setBit(row);
+    flaggedRows = null;
+    playableRows = null;
+    writableReasons(row).put(row, reason);
+  }
+
+  void clearFlag(int row) {
+    flagged.clearBit(row);
+    flaggedRows = null;
+    playableRows = null;
+    writableReasons(row).remove(row);
+  }
+
+  private HashMap<Integer, String> writableReasons(int row) {
+    int bucket = row & (REASON_BUCKETS - 1);
+    if (ownedReasons == null) {
+      flagReasons = new ArrayList<>(flagReasons);
+      ownedReasons = new boolean[REASON_BUCKETS];
+    }
+    if (!ownedReasons[bucket]) {
+      flagReasons.set(bucket, new HashMap<>(flagReasons.get(bucket)));
+      ownedReasons[bucket] = true;
+    }
+    return flagReasons.get(bucket);
+  }
+
+  private static List<HashMap<Integer, String>> newReasonBuckets() {
+    List<HashMap<Integer, String>> buckets = new ArrayList<>(REASON_BUCKETS);
+    for (int i = 0; i < REASON_BUCKETS; i++) {
+      buckets.add(new HashMap<>());
+    }
+    return buckets;
+  }
+
+  private int addRow(long offset, int titleLength, int idLength, int[] tagIds, int tagFrom,
+      int tagCount) {
+    ensureRows(rowCount + 1);
+    perfectIndex = null;
+    int row = rowCount;
+    textOffsets[row] = offset;
+    titleLengths[row] = titleLength;
+    idLengths[row] = idLength;
+
+    int tagStart = tagOffsets[row];
+    if (tags.length < tagStart + tagCount) {
+      tags = Arrays.copyOf(tags, Math.max(tagStart + tagCount, tags.length * 2));
+    }
+    System.arraycopy(tagIds, tagFrom, tags, tagStart, tagCount);
+    tagOffsets[row + 1] = tagStart + tagCount;
+
+    byte[] page = pages[(int) (offset >>> PAGE_BITS)];
+    int hash = hash(page, (int) (offset & PAGE_MASK) + titleLength, idLength);
+    idHashes[row] = hash;
+    rowCount++;
+
+    int mask = slots.length() - 1;
+    int slot = hash & mask;
+    for (long entry = slots.get(slot); entry != 0; entry = slots.get(slot)) {
+      int other = (int) entry - 1;
+      if ((int) (entry >>> 32) == hash && sameId(other, row)) {
+        // Later rows win: retire the old one and reuse its slot.
+        live.clearBit(other);
+        liveCount--;
+        break;
+      }
+      slot = (slot + 1) & mask;
+    }
+    boolean newSlot = slots.get(slot) == 0;
+    slots.set(slot, ((long) hash << 32) | (row + 1));
+    live.setBit(row);
+    liveCount++;
+    playableRows = null;
+    if (newSlot && liveCount * 2 > slots.length()) {
+      rehash();
+    }
+    return row;
+  }
+
+  /** Reserves room for {@code length} contiguous text bytes and returns their offset. */
+  private long reserve(int length) {
+    byte[] page = pageCount == 0 ? null : pages[pageCount - 1];
+    if (page != null && pageUsed + length > page.length && pageUsed + length <= PAGE_SIZE) {
+      // The last page is still small; grow it, offsets stay valid.
+      page = Arrays.copyOf(page, Math.min(PAGE_SIZE, Math.max(pageUsed + length, page.length * 2)));
+      writablePages()[pageCount - 1] = page;
+    }
+    if (page == null || pageUsed + length > page.length) {
+      if (pageCount == pages.length) {
+        pages = Arrays.copyOf(pages, pageCount * 2);
+        pagesShared = false;
+      }
+      page = new byte[Math.max(length, pageCount == 0 ? 4096 : PAGE_SIZE)];
+      writablePages();
+      pages[pageCount++] = page;
+      pageUsed = 0;
+    }
+    long offset = ((long) (pageCount - 1) << PAGE_BITS) | pageUsed;
+    pageUsed += length;
+    return offset;
+  }
+
+  private byte[][] writablePages() {
+    if (pagesShared) {
+      pages = pages.clone();
+      pagesShared = false;
+    }
+    return pages;
+  }
+
+  private void ensureRows(int rows) {
+    if (textOffsets.length < rows) {
+      int capacity = Math.max(rows, textOffsets.length * 2);
+      textOffsets = Arrays.copyOf(textOffsets, capacity);
+      titleLengths = Arrays.copyOf(titleLengths, capacity);
+      idLengths = Arrays.copyOf(idLengths, capacity);
+      idHashes = Arrays.copyOf(idHashes, capacity);
+      tagOffsets = Arrays.copyOf(tagOffsets, capacity + 1);
+    }
+    int words = (rows + 63) >>> 6;
+    live.ensureLength(words);
+    flagged.ensureLength(words);
+  }
+
+  private void rehash() {
+    LongPages grown = new LongPages(slots.length() * 2);
+    int mask = grown.length() - 1;
+    for (int i = 0; i < slots.length(); i++) {
+      long entry = slots.get(i);
+      if (entry != 0) {
+        int slot = (int) (entry >>> 32) & mask;
+        while (grown.get(slot) != 0) {
+          slot = (slot + 1) & mask;
+        }
+        grown.set(slot, entry);
+      }
+    }
+    slots = grown;
+  }
+
+  private boolean idEquals(int row, byte[] id, int from, int length) {
+    if (idLengths[row] != length) {
+      return false;
+    }
+    long offset = textOffsets[row];
+    byte[] page = pages[(int) (offset >>> PAGE_BITS)];
+    int start = (int) (offset & PAGE_MASK) + titleLengths[row];
+    for (int i = 0; i < length; i++) {
+      if (page[start + i] != id[from + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean sameId(int row, int other) {
+    long offset = textOffsets[other];
+    return idEquals(row, pages[(int) (offset >>> PAGE_BITS)],
+        (int) (offset & PAGE_MASK) + titleLengths[other], idLengths[other]);
+  }
+
+  /** 64-bit FNV-1a, finalized so every bit of the result depends on every byte. */
+  private static long hash64(byte[] bytes, int from, int length) {
+    long hash = 0xCBF29CE484222325L;
+    for (int i = 0; i < length; i++) {
+      hash = (hash ^ (bytes[from + i] & 0xFF)) * 0x100000001B3L;
+    }
+    return PerfectIdIndex.mix(hash);
+  }
+
+  private static int hash(byte[] bytes, int from, int length) {
+    int hash = 1;
+    for (int i = 0; i < length; i++) {
+      hash = 31 * hash + bytes[from + i];
+    }
+    // Spread the high bits down, the table is indexed by the low ones. Keep in
+    // step with shardOf(ByteBuffer, ...).
+    return hash ^ (hash >>> 16);
+  }
+}
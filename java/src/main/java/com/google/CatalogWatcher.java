@@ -0,0 +1,78 @@
+package com.google;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches a catalog file and runs a callback on a background thread whenever
+ * it is created or modified. Bursts of events (editors often write a file in
+ * several steps) are collapsed into one callback.
+ */
+final class CatalogWatcher implements AutoCloseable {
+
+  /** How long the file must stay quiet before a change is reported. */
+  private static final long SETTLE_MILLIS = 200;
+
+  private final Path catalogFile;
+  private final Runnable onChange;
+  private final WatchService watchService;
+  private final Thread thread;
+
+  CatalogWatcher(Path catalogFile, Runnable onChange) throws IOException {
+    this.catalogFile = catalogFile.toAbsolutePath();
+    this.onChange = onChange;
+    this.watchService = FileSystems.getDefault().newWatchService();
+    this.catalogFile.getParent().register(watchService,
+        StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+    this.thread = new Thread(this::run, "catalog-watcher");
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  private void run() {
+    try {
+      while (true) {
+        WatchKey key = watchService.take();
+        boolean changed = drain(key);
+        // Keep draining until the file has been quiet for a moment.
+        while ((key = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+          changed |= drain(key);
+        }
+        if (changed) {
+          try {
+            onChange.run();
+          } catch (RuntimeException e) {
+            System.out.println("Couldn't reload " + catalogFile.getFileName());
+            e.printStackTrace();
+          }
+        }
+      }
+    } catch (InterruptedException | ClosedWatchServiceException e) {
+      // Closed, stop watching.
+    }
+  }
+
+  private boolean drain(WatchKey key) {
+    boolean changed = false;
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (catalogFile.getFileName().equals(event.context())) {
+        changed = true;
+      }
+    }
+    key.reset();
+    return changed;
+  }
+
+  @Override
+  public void close() throws IOException {
+    watchService.close();
+    thread.interrupt();
+  }
+}
@@ -107,11 +107,17 @@ class CommandParser {
         }
         break;
       case "SHOW_ALL_PLAYLISTS":
-        this.videoPlayer.showAllPlaylists();
+        SearchPage playlistPage = parsePage(command, 1, SearchPage.Kind.PLAYLISTS);
+        if (playlistPage != null) {
+          this.videoPlayer.showAllPlaylists(playlistPage);
+        }
         break;
       case "SEARCH_VIDEOS":
         try {
-          this.videoPlayer.searchVideos(command.get(1));
+          SearchPage page = parsePage(command, 2);
+          if (page != null) {
+            this.videoPlayer.searchVideos(command.get(1), page);
+          }
         } catch (ArrayIndexOutOfBoundsException e) {
           System.out.println("Please enter SEARCH_VIDEOS command followed by a " +
               "search term.");
@@ -119,13 +125,52 @@ class CommandParser {
         break;
       case "SEARCH_VIDEOS_WITH_TAG":
         try {
-          this.videoPlayer.searchVideosWithTag(command.get(1));
+          SearchPage page = parsePage(command, 2);
+          if (page != null) {
+            this.videoPlayer.searchVideosWithTag(command.get(1), page);
+          }
         } catch (ArrayIndexOutOfBoundsException e) {
           System.out.println(
               "Please enter SEARCH_VIDEOS_WITH_TAG command followed by a " +
                   "video tag.");
         }
         break;
+      case "SEARCH_VIDEOS_WITH_TAGS":
+        int end = argumentsEnd(command);
+        if (end < 2) {
+          System.out.println(
+              "Please enter SEARCH_VIDEOS_WITH_TAGS command followed by a " +
+                  "tag expression.");
+        } else {
+          SearchPage page = parsePage(command, end);
+          if (page != null) {
+            this.videoPlayer.searchVideosWithTags(
+                String.join(" ", command.subList(1, end)), page);
+          }
+        }
+        break;
+      case "SEARCH_VIDEOS_RANKED":
+        int queryEnd = argumentsEnd(command);
+        if (queryEnd < 2) {
+          System.out.println(
+              "Please enter SEARCH_VIDEOS_RANKED command followed by one or " +
+                  "more search words.");
+        } else {
+          SearchPage page = parsePage(command, queryEnd);
+          if (page != null) {
+            this.videoPlayer.searchVideosRanked(
+                String.join(" ", command.subList(1, queryEnd)), page);
+          }
+        }
+        break;
+      case "SUGGEST":
+        if (command.size() < 2) {
+          System.out.println("Please enter SUGGEST command followed by the " +
+              "start of a title or tag.");
+        } else {
+          this.videoPlayer.suggest(String.join(" ", command.subList(1, command.size())));
+        }
+        break;
       case "FLAG_VIDEO":
         try {
           this.videoPlayer.flagVideo(command.get(1), command.get(2));
@@ -146,6 +191,9 @@ class CommandParser {
               "video_id.");
         }
         break;
+      case "CACHE_STATS":
+        this.videoPlayer.showCacheStats();
+        break;
       case "HELP":
         this.getHelp();
         break;
@@ -157,6 +205,38 @@ class CommandParser {
     }
   }
 
+  /**
+   * Returns where a command's free-text arguments, which start after the
+   * command name, end: at the first paging option, or at the end.
+   */
+  private static int argumentsEnd(List<String> command) {
+    int end = 1;
+    while (end < command.size() && !SearchPage.isOption(command.get(end))) {
+      end++;
+    }
+    return end;
+  }
+
+  /** Parses the paging options of a video search, as for {@link #parsePage(List, int, SearchPage.Kind)}. */
+  private SearchPage parsePage(List<String> command, int from) {
+    return parsePage(command, from, SearchPage.Kind.VIDEOS);
+  }
+
+  /**
+   * Parses the paging options (LIMIT, OFFSET, AFTER) that follow a search or
+   * listing command's arguments, starting at {@code from}, for a listing of the
+   * given kind. Displays why and returns null if they are malformed.
+   */
+  private SearchPage parsePage(List<String> command, int from, SearchPage.Kind kind) {
+    try {
+      return SearchPage.parse(command.subList(Math.min(from, command.size()), command.size()),
+          kind);
+    } catch (IllegalArgumentException e) {
+      System.out.println("Invalid search options: " + e.getMessage());
+      return null;
+    }
+  }
+
   /**
    * Displays all available commands to the user.
    */
@@ -177,11 +257,16 @@ class CommandParser {
             + "    CLEAR_PLAYLIST <playlist_name> - Removes all the videos from the playlist.\n"
             + "    DELETE_PLAYLIST <playlist_name> - Deletes the playlist.\n"
             + "    SHOW_PLAYLIST <playlist_name> - List all the videos in this playlist.\n"
-            + "    SHOW_ALL_PLAYLISTS - Display all the available playlists.\n"
-            + "    SEARCH_VIDEOS <search_term> - Display all the videos whose titles contain the search_term.\n"
-            + "    SEARCH_VIDEOS_WITH_TAG <tag_name> -Display all videos whose tags contains the provided tag.\n"
+            + "    SHOW_ALL_PLAYLISTS [LIMIT <n>] [OFFSET <n>] [AFTER <cursor>] - Display all the available playlists.\n"
+            + "    SEARCH_VIDEOS <search_term> [LIMIT <n>] [OFFSET <n>] [AFTER <cursor>] - Display all the videos whose titles contain the search_term.\n"
+            + "    SEARCH_VIDEOS_WITH_TAG <tag_name> [LIMIT <n>] [OFFSET <n>] [AFTER <cursor>] -Display all videos whose tags contains the provided tag.\n"
+            + "    SEARCH_VIDEOS_WITH_TAGS <tag_expression> [LIMIT <n>] [OFFSET <n>] [AFTER <cursor>] - Display all videos matching a tag expression, e.g. #cat AND (#animal OR #pet) AND NOT #google.\n"
+            + "    SEARCH_VIDEOS_RANKED <search_words> [LIMIT <n>] [OFFSET <n>] - Display the videos most relevant to the search words, best first.\n"
+            + "        LIMIT shows at most n results, OFFSET skips the first n, and AFTER continues from the cursor shown under a full page.\n"
+            + "    SUGGEST <prefix> - Suggest titles and tags starting with the prefix.\n"
             + "    FLAG_VIDEO <video_id> <flag_reason> - Mark a video as flagged.\n"
             + "    ALLOW_VIDEO <video_id> - Removes a flag from a video.\n"
+            + "    CACHE_STATS - Displays the search result cache's hit rate and eviction counts.\n"
             + "    HELP - Displays help.\n"
             + "    EXIT - Terminates the program execution.\n";
     System.out.println(helpText);
@@ -0,0 +1,168 @@
+package com.google;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * The titles of a {@link CatalogStore} lower-cased into one contiguous byte
+ * buffer, one byte per char, each followed by a zero byte, for substring
+ * scans that {@link TitleIndex} cannot answer, such as terms shorter than a
+ * trigram. A scan runs {@link SubstringScan#ENGINE} over the buffer, touching
+ * no strings and decoding nothing, and maps each hit to its row by binary
+ * search.
+ *
+ * <p>Only titles made entirely of ASCII chars are folded: elsewhere
+ * lower-casing can change lengths or even produce ASCII from non-ASCII (the
+ * Kelvin sign becomes {@code k}). The remaining rows are listed apart and
+ * checked as strings, as are all rows for a term that is not plain ASCII.
+ *
+ * <p>Like {@link TitleIndex}, a buffer covers the rows below
+ * {@link #indexedRows()}, keeps retired rows until it is rebuilt, and is
+ * immutable once built; {@link #extend} shares the arrays and only writes
+ * past what this version reads, so a version must be extended at most once.
+ */
+final class FoldedTitles {
+
+  private final byte[] bytes;
+  /** Per row, and one past the last: where its title starts in {@link #bytes}. */
+  private final int[] starts;
+  /** Rows with a non-ASCII title, ascending. */
+  private final int[] unfolded;
+  private final int unfoldedCount;
+  private final int indexedRows;
+
+  private FoldedTitles(byte[] bytes, int[] starts, int[] unfolded, int unfoldedCount,
+      int indexedRows) {
+    this.bytes = bytes;
+    this.starts = starts;
+    this.unfolded = unfolded;
+    this.unfoldedCount = unfoldedCount;
+    this.indexedRows = indexedRows;
+  }
+
+  /** Folds every live row of the store. */
+  static FoldedTitles build(CatalogStore store) {
+    return new FoldedTitles(new byte[1024], new int[1], new int[16], 0, 0).add(store, 0);
+  }
+
+  /**
+   * Returns a buffer of the same store, or a fork of it, that also covers the
+   * rows added since this one was built. Rebuilds from scratch instead once
+   * retired rows outnumber live ones.
+   */
+  FoldedTitles extend(CatalogStore store) {
+    if (store.rowCount() - store.size() > store.size()) {
+      return build(store);
+    }
+    return add(store, indexedRows);
+  }
+
+  private FoldedTitles add(CatalogStore store, int fromRow) {
+    int rowCount = store.rowCount();
+    byte[] bytes = this.bytes;
+    int length = starts[fromRow];
+    int[] starts = this.starts.length > rowCount
+        ? this.starts
+        : Arrays.copyOf(this.starts, Math.max(rowCount + 1, this.starts.length * 2));
+    int[] unfolded = this.unfolded;
+    int unfoldedCount = this.unfoldedCount;
+    for (int row = fromRow; row < rowCount; row++) {
+      starts[row] = length;
+      if (!store.isLive(row)) {
+        continue;
+      }
+      String title = store.title(row);
+      if (!isAscii(title)) {
+        if (unfoldedCount == unfolded.length) {
+          unfolded = Arrays.copyOf(unfolded, unfoldedCount * 2);
+        }
+        unfolded[unfoldedCount++] = row;
+        continue;
+      }
+      if (length + title.length() + 1 > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + title.length() + 1));
+      }
+      for (int i = 0; i < title.length(); i++) {
+        char c = title.charAt(i);
+        bytes[length++] = (byte) (c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c);
+      }
+      bytes[length++] = 0;
+    }
+    starts[rowCount] = length;
+    return new FoldedTitles(bytes, starts, unfolded, unfoldedCount, rowCount);
+  }
+
+  /** Rows below this have been folded. */
+  int indexedRows() {
+    return indexedRows;
+  }
+
+  /** Returns whether the text is ASCII without zero chars, so it can be folded. */
+  private static boolean isAscii(String text) {
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c == 0 || c >= 0x80) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Calls the action, in ascending order, with every live covered row of the
+   * store whose lower-cased title contains the lower-cased term.
+   */
+  void search(CatalogStore store, String term, IntConsumer action) {
+    String needle = term.toLowerCase();
+    if (needle.isEmpty() || !isAscii(needle)) {
+      for (int row = store.nextLiveRow(0); row >= 0 && row < indexedRows;
+          row = store.nextLiveRow(row + 1)) {
+        if (store.title(row).toLowerCase().contains(needle)) {
+          action.accept(row);
+        }
+      }
+      return;
+    }
+    byte[] pattern = new byte[needle.length()];
+    for (int i = 0; i < pattern.length; i++) {
+      pattern[i] = (byte) needle.charAt(i);
+    }
+    // Merge the hits in the buffer with the rows kept out of it.
+    int next = 0;
+    int end = starts[indexedRows];
+    int at = 0;
+    while (true) {
+      int hit = at < end ? SubstringScan.ENGINE.indexOf(bytes, at, end, pattern) : -1;
+      int row = hit < 0 ? indexedRows : rowAt(hit);
+      for (; next < unfoldedCount && unfolded[next] < row; next++) {
+        int other = unfolded[next];
+        if (store.isLive(other) && store.title(other).toLowerCase().contains(needle)) {
+          action.accept(other);
+        }
+      }
+      if (hit < 0) {
+        return;
+      }
+      if (store.isLive(row)) {
+        action.accept(row);
+      }
+      at = starts[row + 1];
+    }
+  }
+
+  /** Returns the row whose title holds the byte at the position. */
+  private int rowAt(int position) {
+    int low = 0;
+    int high = indexedRows - 1;
+    // The last row starting at or before the position; rows without bytes are skipped.
+    while (low < high) {
+      int mid = (low + high + 1) >>> 1;
+      if (starts[mid] <= position) {
+        low = mid;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return low;
+  }
+}
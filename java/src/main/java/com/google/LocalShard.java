@@ -0,0 +1,422 @@
+package com.google;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+/**
+ * A shard held in this process.
+ *
+ * <p>Its videos are held as a series of immutable {@link CatalogStore}
+ * versions. Readers take the current one with a single volatile read and
+ * never lock; writers (flag changes, reloads) fork it, change the fork and
+ * publish it as the new current version. A reader therefore sees each change
+ * entirely or not at all.
+ *
+ * <p>Applying a reload's delta to the rows costs time in proportion to the
+ * delta, but bringing the indexes up to date does not: the perfect hash and
+ * the title order are rebuilt whole, and the trigram and term indexes copy
+ * their tables. A reload therefore builds them outside the write lock, and
+ * flag changes made meanwhile are carried over to the new version as it is
+ * published.
+ */
+final class LocalShard implements VideoShard {
+
+  private volatile CatalogStore current;
+  /** Serializes writers; readers never take it. */
+  private final Object writeLock = new Object();
+  /** Whether each version's ids get a minimal perfect hash, see {@link CatalogStore#indexIds}. */
+  private final boolean perfectHash;
+  private final List<FlagListener> flagListeners = new CopyOnWriteArrayList<>();
+  /** Flag changes made while a reload builds its indexes, or null if none is. Guarded by writeLock. */
+  private List<FlagChange> flagsDuringReload;
+
+  /** A flag set, or cleared if the reason is null, on a row. */
+  private static final class FlagChange {
+
+    final int row;
+    final String reason;
+
+    FlagChange(int row, String reason) {
+      this.row = row;
+      this.reason = reason;
+    }
+
+    void applyTo(CatalogStore store) {
+      if (reason == null) {
+        store.clearFlag(row);
+      } else {
+        store.flag(row, reason);
+      }
+    }
+  }
+
+  /**
+   * Takes ownership of the store, which must not be changed by the caller
+   * again. With {@code perfectHash}, id lookups go through a minimal perfect
+   * hash that is rebuilt whenever a reload changes the shard's ids.
+   */
+  LocalShard(CatalogStore store, boolean perfectHash) {
+    this.perfectHash = perfectHash;
+    index(store);
+    this.current = store;
+  }
+
+  /**
+   * Returns the current version of the shard. It never changes, so a reader
+   * that needs several calls to agree should work from one snapshot.
+   */
+  CatalogStore snapshot() {
+    return current;
+  }
+
+  /** Flags the video in the given row, publishing a new version. */
+  @Override
+  public void flag(int row, String reason) {
+    synchronized (writeLock) {
+      row = liveRow(row);
+      CatalogStore store = current.fork();
+      store.flag(row, reason);
+      current = store;
+      if (flagsDuringReload != null) {
+        flagsDuringReload.add(new FlagChange(row, reason));
+      }
+    }
+    flagChanged(row);
+  }
+
+  /** Clears the flag of the video in the given row, publishing a new version. */
+  @Override
+  public void clearFlag(int row) {
+    synchronized (writeLock) {
+      row = liveRow(row);
+      CatalogStore store = current.fork();
+      store.clearFlag(row);
+      current = store;
+      if (flagsDuringReload != null) {
+        flagsDuringReload.add(new FlagChange(row, null));
+      }
+    }
+    flagChanged(row);
+  }
+
+  /**
+   * Follows a row to the one now holding its video, which differs when the
+   * view was taken before a reload moved the video. Rows of removed videos
+   * are kept as they are. Called under writeLock.
+   */
+  private int liveRow(int row) {
+    if (current.isLive(row)) {
+      return row;
+    }
+    int live = current.find(current, row);
+    return live < 0 ? row : live;
+  }
+
+  private void flagChanged(int row) {
+    for (FlagListener listener : flagListeners) {
+      listener.flagChanged(new Video(this, row));
+    }
+  }
+
+  @Override
+  public void addFlagListener(FlagListener listener) {
+    flagListeners.add(listener);
+  }
+
+  @Override
+  public int size() {
+    return current.size();
+  }
+
+  @Override
+  public Video getVideo(String videoId) {
+    int row = current.find(videoId);
+    return row < 0 ? null : new Video(this, row);
+  }
+
+  @Override
+  public String title(int row) {
+    return current.title(row);
+  }
+
+  @Override
+  public String titleKey(int row) {
+    return current.titleKey(row);
+  }
+
+  @Override
+  public String videoId(int row) {
+    return current.videoId(row);
+  }
+
+  @Override
+  public List<String> tags(int row) {
+    return current.tags(row);
+  }
+
+  @Override
+  public int tagCount(int row) {
+    return current.tagCount(row);
+  }
+
+  @Override
+  public int tagId(int row, int index) {
+    return current.tagId(row, index);
+  }
+
+  @Override
+  public boolean isFlagged(int row) {
+    return current.isFlagged(row);
+  }
+
+  @Override
+  public String flagReason(int row) {
+    return current.flagReason(row);
+  }
+
+  @Override
+  public boolean matchesTags(TagQuery query, int row) {
+    return query.matches(current, row);
+  }
+
+  @Override
+  public List<Video> searchTitles(String searchTerm, boolean includeFlagged,
+      SearchPage.Position after, int shardIndex, int limit) {
+    CatalogStore store = current;
+    IntStream.Builder rows = IntStream.builder();
+    store.searchTitles(searchTerm, includeFlagged, rows);
+    return videos(store.firstByTitle(rows.build().toArray(), after, shardIndex, limit));
+  }
+
+  @Override
+  public List<Video> searchTags(TagQuery query, boolean includeFlagged,
+      SearchPage.Position after, int shardIndex, int limit) {
+    CatalogStore store = current;
+    IntStream.Builder rows = IntStream.builder();
+    store.searchTags(query, includeFlagged, rows);
+    return videos(store.firstByTitle(rows.build().toArray(), after, shardIndex, limit));
+  }
+
+  @Override
+  public List<ScoredVideo> rankTitles(String query, boolean includeFlagged, int limit) {
+    long[] ranked = current.rankTitles(query, includeFlagged, limit);
+    List<ScoredVideo> videos = new ArrayList<>(ranked.length);
+    for (long packed : ranked) {
+      videos.add(new ScoredVideo(new Video(this, TermIndex.row(packed)), TermIndex.score(packed)));
+    }
+    return videos;
+  }
+
+  private List<Video> videos(int[] rows) {
+    List<Video> videos = new ArrayList<>(rows.length);
+    for (int row : rows) {
+      videos.add(new Video(this, row));
+    }
+    return videos;
+  }
+
+  @Override
+  public List<Video> videosByTitle() {
+    CatalogStore store = current;
+    List<Video> videos = new ArrayList<>(store.size());
+    store.forEachByTitle(row -> videos.add(new Video(this, row)));
+    return videos;
+  }
+
+  @Override
+  public List<Video> suggestTitles(String prefix, int limit) {
+    CatalogStore store = current;
+    List<Video> videos = new ArrayList<>();
+    String[] previous = {null};
+    store.suggestTitles(prefix, row -> {
+      String key = store.titleKey(row);
+      if (!key.equals(previous[0])) {
+        previous[0] = key;
+        videos.add(new Video(this, row));
+      }
+      return videos.size() < limit;
+    });
+    return videos;
+  }
+
+  @Override
+  public List<Video> flaggedVideos() {
+    CatalogStore store = current;
+    List<Video> videos = new ArrayList<>();
+    store.flaggedRows().and(store.liveRows()).forEach(row -> videos.add(new Video(this, row)));
+    return videos;
+  }
+
+  @Override
+  public boolean hasPlayableTag(int tagId) {
+    return current.hasPlayableTag(tagId);
+  }
+
+  @Override
+  public int playableCount() {
+    return current.playableRows().cardinality();
+  }
+
+  @Override
+  public Video playableVideo(int index) {
+    RowBitmap rows = current.playableRows();
+    return index < rows.cardinality() ? new Video(this, rows.select(index)) : null;
+  }
+
+  @Override
+  public Collection<Video> videos() {
+    CatalogStore store = current;
+    return new AbstractCollection<>() {
+      @Override
+      public Iterator<Video> iterator() {
+        return Spliterators.iterator(spliterator());
+      }
+
+      @Override
+      public Spliterator<Video> spliterator() {
+        return new RowSpliterator(store, 0, store.rowCount());
+      }
+
+      @Override
+      public void forEach(Consumer<? super Video> action) {
+        for (int row = store.nextLiveRow(0); row >= 0; row = store.nextLiveRow(row + 1)) {
+          action.accept(new Video(LocalShard.this, row));
+        }
+      }
+
+      @Override
+      public int size() {
+        return store.size();
+      }
+    };
+  }
+
+  @Override
+  public void reload(CatalogStore catalog, List<Video> removed, Map<Video, Video> changed,
+      List<Video> added) {
+    // The library runs one reload at a time. Flag changes may land meanwhile,
+    // but only reloads touch rows and ids.
+    CatalogDelta delta = CatalogDelta.compute(current, catalog);
+    if (delta.isEmpty()) {
+      return;
+    }
+    CatalogStore store;
+    Map<Integer, Integer> moved = new HashMap<>();
+    synchronized (writeLock) {
+      store = current.fork();
+      apply(delta, store, removed, changed, added, moved);
+      flagsDuringReload = new ArrayList<>();
+    }
+    try {
+      index(store);
+    } catch (RuntimeException | Error e) {
+      synchronized (writeLock) {
+        flagsDuringReload = null;
+      }
+      throw e;
+    }
+    synchronized (writeLock) {
+      // Replay flag changes made since the fork, following changed videos to their new rows.
+      for (FlagChange change : flagsDuringReload) {
+        change.applyTo(store);
+        Integer updated = moved.get(change.row);
+        if (updated != null) {
+          new FlagChange(updated, change.reason).applyTo(store);
+        }
+      }
+      flagsDuringReload = null;
+      current = store;
+    }
+  }
+
+  /** Builds or extends the store's indexes before it is published. */
+  private void index(CatalogStore store) {
+    if (perfectHash) {
+      store.indexIds();
+    }
+    store.indexTitles();
+    store.indexFoldedTitles();
+    store.indexTags();
+    store.indexTitleOrder();
+    store.indexTerms();
+  }
+
+  /** Applies the delta to the rows, noting in {@code moved} each changed video's new row. */
+  private void apply(CatalogDelta delta, CatalogStore store, List<Video> removed,
+      Map<Video, Video> changed, List<Video> added, Map<Integer, Integer> moved) {
+    CatalogStore source = delta.source();
+    for (int row : delta.removed()) {
+      store.remove(row);
+      removed.add(new Video(this, row));
+    }
+    for (int row : delta.changed()) {
+      int previous = store.find(source, row);
+      int updated = store.copyRow(source, row);
+      if (store.isFlagged(previous)) {
+        store.flag(updated, store.flagReason(previous));
+      }
+      changed.put(new Video(this, previous), new Video(this, updated));
+      moved.put(previous, updated);
+    }
+    for (int row : delta.added()) {
+      added.add(new Video(this, store.copyRow(source, row)));
+    }
+  }
+
+  /** Walks the live rows in {@code [row, end)}, halving the range to split. */
+  private final class RowSpliterator implements Spliterator<Video> {
+
+    private final CatalogStore store;
+    private int row;
+    private final int end;
+
+    RowSpliterator(CatalogStore store, int row, int end) {
+      this.store = store;
+      this.row = row;
+      this.end = end;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Video> action) {
+      int next = row < end ? store.nextLiveRow(row) : -1;
+      if (next < 0 || next >= end) {
+        row = end;
+        return false;
+      }
+      row = next + 1;
+      action.accept(new Video(LocalShard.this, next));
+      return true;
+    }
+
+    @Override
+    public Spliterator<Video> trySplit() {
+      int middle = (row + end) >>> 1;
+      if (middle - row < 1024) {
+        return null;
+      }
+      Spliterator<Video> prefix = new RowSpliterator(store, row, middle);
+      row = middle;
+      return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+      return end - row;
+    }
+
+    @Override
+    public int characteristics() {
+      return ORDERED | DISTINCT | NONNULL | IMMUTABLE;
+    }
+  }
+}
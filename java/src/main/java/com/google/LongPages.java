@@ -0,0 +1,137 @@
+package com.google;
+
+import java.util.Arrays;
+
+/**
+ * A long array split into fixed-size pages, which can be forked in time
+ * proportional to the number of pages: the fork shares every page with its
+ * parent and each side copies a page the first time it writes to it. Pages
+ * never written hold zeros and are not allocated.
+ *
+ * <p>Also provides bitset operations over the same storage, bit {@code i}
+ * living in long {@code i / 64}.
+ */
+final class LongPages {
+
+  private static final int PAGE_BITS = 12;
+  private static final int PAGE_SIZE = 1 << PAGE_BITS;
+  private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+  private long[][] pages;
+  /** Pages this instance may write in place; null when it owns none. */
+  private boolean[] owned;
+  private boolean ownsPageTable;
+  private int length;
+
+  LongPages(int length) {
+    this.pages = new long[pageCount(length)][];
+    this.owned = new boolean[pages.length];
+    this.ownsPageTable = true;
+    this.length = length;
+  }
+
+  private LongPages(long[][] pages, int length) {
+    this.pages = pages;
+    this.length = length;
+  }
+
+  /**
+   * Returns a copy that shares all pages with this one. Neither side writes
+   * a shared page in place afterwards, so each can be changed independently.
+   */
+  LongPages fork() {
+    owned = null;
+    ownsPageTable = false;
+    return new LongPages(pages, length);
+  }
+
+  int length() {
+    return length;
+  }
+
+  long get(int index) {
+    long[] page = pages[index >>> PAGE_BITS];
+    return page == null ? 0 : page[index & PAGE_MASK];
+  }
+
+  void set(int index, long value) {
+    writablePage(index >>> PAGE_BITS)[index & PAGE_MASK] = value;
+  }
+
+  /** Grows to at least {@code length} longs; new longs are zero. */
+  void ensureLength(int length) {
+    if (length <= this.length) {
+      return;
+    }
+    int count = pageCount(length);
+    if (count > pages.length) {
+      pages = Arrays.copyOf(pages, Math.max(count, pages.length * 2));
+      owned = owned == null ? new boolean[pages.length] : Arrays.copyOf(owned, pages.length);
+      ownsPageTable = true;
+    }
+    this.length = length;
+  }
+
+  boolean isSet(int bit) {
+    return (get(bit >>> 6) & (1L << bit)) != 0;
+  }
+
+  void setBit(int bit) {
+    set(bit >>> 6, get(bit >>> 6) | (1L << bit));
+  }
+
+  void clearBit(int bit) {
+    long word = get(bit >>> 6);
+    if ((word & (1L << bit)) != 0) {
+      set(bit >>> 6, word & ~(1L << bit));
+    }
+  }
+
+  /** Returns the first set bit in {@code [from, limit)}, or -1. */
+  int nextSetBit(int from, int limit) {
+    if (from >= limit) {
+      return -1;
+    }
+    int lastWord = (limit - 1) >>> 6;
+    int word = from >>> 6;
+    long current = get(word) & (-1L << from);
+    while (true) {
+      if (current != 0) {
+        int index = (word << 6) + Long.numberOfTrailingZeros(current);
+        return index < limit ? index : -1;
+      }
+      if (++word > lastWord) {
+        return -1;
+      }
+      if ((word & PAGE_MASK) == 0) {
+        // Skip whole pages that were never written.
+        while (word <= lastWord && pages[word >>> PAGE_BITS] == null) {
+          word += PAGE_SIZE;
+        }
+        if (word > lastWord) {
+          return -1;
+        }
+      }
+      current = get(word);
+    }
+  }
+
+  private long[] writablePage(int index) {
+    if (owned == null || !ownsPageTable) {
+      pages = pages.clone();
+      owned = new boolean[pages.length];
+      ownsPageTable = true;
+    }
+    long[] page = pages[index];
+    if (!owned[index]) {
+      page = page == null ? new long[PAGE_SIZE] : page.clone();
+      pages[index] = page;
+      owned[index] = true;
+    }
+    return page;
+  }
+
+  private static int pageCount(int length) {
+    return Math.max(1, (length + PAGE_SIZE - 1) >>> PAGE_BITS);
+  }
+}
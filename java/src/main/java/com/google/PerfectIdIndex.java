@@ -0,0 +1,194 @@
+package com.google;
+
+/**
+ * A minimal perfect hash over a fixed set of 64-bit key hashes, built with
+ * the BDZ method: every key maps to its own slot in {@code [0, n)} with no
+ * collisions and no probing, and each slot holds the row of its key.
+ *
+ * <p>Each key is an edge joining three vertices, one in each third of a graph
+ * with about 1.23 vertices per key. Such a random graph can almost always be
+ * peeled: repeatedly remove an edge that is the only one left on one of its
+ * vertices. Replaying the removals backwards gives each vertex a 2-bit value
+ * so that the three values of a key's vertices, summed mod 3, pick a vertex
+ * no other key picks. The slot is that vertex's rank among picked vertices.
+ * The hash itself costs under 4 bits per key, on top of the row table.
+ *
+ * <p>A key outside the set also maps to some slot, so callers must check that
+ * the row they get back really holds the key.
+ */
+final class PerfectIdIndex {
+
+  /** Seeds tried before giving up, which takes equal 64-bit hashes in practice. */
+  private static final int MAX_SEEDS = 16;
+
+  private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+
+  private final long seed;
+  /** Vertices in each third of the graph. */
+  private final int third;
+  /** The 2-bit value of every vertex, 32 per long. */
+  private final long[] values;
+  /** One bit per vertex, set if some key picks it. */
+  private final long[] picked;
+  /** Picked vertices before each block of 8 longs of {@link #picked}. */
+  private final int[] blockRanks;
+  private final int[] rows;
+
+  private PerfectIdIndex(long seed, int third, long[] values, long[] picked, int count) {
+    this.seed = seed;
+    this.third = third;
+    this.values = values;
+    this.picked = picked;
+    this.blockRanks = new int[(picked.length + 7) >>> 3];
+    int rank = 0;
+    for (int i = 0; i < picked.length; i++) {
+      if ((i & 7) == 0) {
+        blockRanks[i >>> 3] = rank;
+      }
+      rank += Long.bitCount(picked[i]);
+    }
+    this.rows = new int[count];
+  }
+
+  /**
+   * Builds the index over {@code count} keys, key {@code i} having hash
+   * {@code hashes[i]} and row {@code rows[i]}. Returns null if it could not
+   * be built, which only happens when two keys share a hash.
+   */
+  static PerfectIdIndex build(long[] hashes, int[] rows, int count) {
+    // Tiny graphs peel less reliably at the asymptotic ratio, so pad them.
+    int third = (int) Math.ceil(count * 1.23 / 3) + 2;
+    for (int attempt = 0; attempt < MAX_SEEDS; attempt++) {
+      long seed = attempt * GOLDEN;
+      PerfectIdIndex index = build(hashes, count, seed, third);
+      if (index != null) {
+        for (int i = 0; i < count; i++) {
+          index.rows[index.slot(hashes[i])] = rows[i];
+        }
+        return index;
+      }
+    }
+    return null;
+  }
+
+  private static PerfectIdIndex build(long[] hashes, int count, long seed, int third) {
+    int vertexCount = 3 * third;
+    int[] degrees = new int[vertexCount];
+    // XOR of the keys still on each vertex: the last one left is the XOR.
+    int[] edges = new int[vertexCount];
+    int[] vertices = new int[3];
+    for (int key = 0; key < count; key++) {
+      vertices(hashes[key], seed, third, vertices);
+      for (int vertex : vertices) {
+        degrees[vertex]++;
+        edges[vertex] ^= key;
+      }
+    }
+
+    // Peel: stack up each removed key with the vertex it was alone on.
+    int[] peeledKeys = new int[count];
+    int[] peeledVertices = new int[count];
+    int peeled = 0;
+    int[] queue = new int[vertexCount];
+    int tail = 0;
+    for (int vertex = 0; vertex < vertexCount; vertex++) {
+      if (degrees[vertex] == 1) {
+        queue[tail++] = vertex;
+      }
+    }
+    for (int head = 0; head < tail; head++) {
+      int vertex = queue[head];
+      if (degrees[vertex] != 1) {
+        continue;
+      }
+      int key = edges[vertex];
+      peeledKeys[peeled] = key;
+      peeledVertices[peeled++] = vertex;
+      vertices(hashes[key], seed, third, vertices);
+      for (int other : vertices) {
+        degrees[other]--;
+        edges[other] ^= key;
+        if (degrees[other] == 1) {
+          queue[tail++] = other;
+        }
+      }
+    }
+    if (peeled < count) {
+      return null;
+    }
+
+    // Backwards, each key's lone vertex is not yet used by any later key.
+    long[] values = new long[(vertexCount + 31) >>> 5];
+    long[] picked = new long[(vertexCount + 63) >>> 6];
+    for (int i = count - 1; i >= 0; i--) {
+      vertices(hashes[peeledKeys[i]], seed, third, vertices);
+      int lone = peeledVertices[i];
+      int position = lone == vertices[0] ? 0 : lone == vertices[1] ? 1 : 2;
+      int sum = value(values, vertices[0]) + value(values, vertices[1])
+          + value(values, vertices[2]);
+      int value = ((position - sum) % 3 + 3) % 3;
+      values[lone >>> 5] |= (long) value << ((lone & 31) << 1);
+      picked[lone >>> 6] |= 1L << lone;
+    }
+    return new PerfectIdIndex(seed, third, values, picked, count);
+  }
+
+  /** Returns the number of keys in the index. */
+  int size() {
+    return rows.length;
+  }
+
+  /**
+   * Returns the row stored for the key with this hash. Returns -1 if the
+   * hash lands on a vertex no key picked, which proves the key is absent.
+   */
+  int row(long hash) {
+    int slot = slot(hash);
+    return slot < 0 ? -1 : rows[slot];
+  }
+
+  /** Returns the key's slot, or -1 if it is not one of the keys. */
+  private int slot(long hash) {
+    long key = mix(hash + seed);
+    int first = reduce(key, third);
+    int second = third + reduce(key >>> 32, third);
+    int last = 2 * third + reduce(mix(key), third);
+    int pick = (value(values, first) + value(values, second) + value(values, last)) % 3;
+    int vertex = pick == 0 ? first : pick == 1 ? second : last;
+    int word = vertex >>> 6;
+    if ((picked[word] & (1L << vertex)) == 0) {
+      return -1;
+    }
+    int rank = blockRanks[word >>> 3];
+    for (int i = word & ~7; i < word; i++) {
+      rank += Long.bitCount(picked[i]);
+    }
+    return rank + Long.bitCount(picked[word] & ((1L << vertex) - 1));
+  }
+
+  private static int value(long[] values, int vertex) {
+    return (int) (values[vertex >>> 5] >>> ((vertex & 31) << 1)) & 3;
+  }
+
+  /** The three vertices of a key, computed the same way as in {@link #slot}. */
+  private static void vertices(long hash, long seed, int third, int[] vertices) {
+    long key = mix(hash + seed);
+    vertices[0] = reduce(key, third);
+    vertices[1] = third + reduce(key >>> 32, third);
+    vertices[2] = 2 * third + reduce(mix(key), third);
+  }
+
+  /** Maps the low 32 bits of {@code bits} evenly onto {@code [0, range)}. */
+  private static int reduce(long bits, int range) {
+    return (int) (((bits & 0xFFFFFFFFL) * range) >>> 32);
+  }
+
+  /** The 64-bit finalizer of MurmurHash3. */
+  static long mix(long hash) {
+    hash ^= hash >>> 33;
+    hash *= 0xFF51AFD7ED558CCDL;
+    hash ^= hash >>> 33;
+    hash *= 0xC4CEB9FE1A85EC53L;
+    return hash ^ (hash >>> 33);
+  }
+}
@@ -1,23 +1,96 @@
 package com.google;
 
-import java.util.ArrayList;
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.IntConsumer;
 
+/**
+ * A named list of videos, each at most once, kept in the order they were added.
+ *
+ * Entries are the dense numbers {@link VideoIds} gives each video, held in a growable int array in insertion
+ * order; Video objects are only looked up when the playlist is read. A removed entry leaves a hole that is
+ * skipped, and the array is compacted once holes outnumber entries. Small playlists find a video by scanning
+ * the array; past {@link #SCAN_LIMIT} entries an open-addressing table from number to position keeps adding,
+ * finding and removing a video at O(1). A playlist thus costs a few bytes per entry and no object per entry.
+ *
+ * A playlist created by a {@link PlaylistManager} shares its numbering and tells it about every video added
+ * and removed, so the manager always knows which playlists hold a video.
+ */
 public class Playlist {
 
+    /** Largest playlist found by scanning its entries rather than through {@link #table}. */
+    static final int SCAN_LIMIT = 8;
+
+    private static final int REMOVED = -1;
+    private static final int[] NO_ENTRIES = new int[0];
+
     private final String name;
-    private ArrayList<Video> videos;
+    private final VideoIds ids;
+    private final PlaylistManager manager;
+    /** Video numbers in insertion order, with {@link #REMOVED} holes, up to {@link #end}. */
+    private int[] entries;
+    private int end;
+    private int size;
+    /** Per bucket, one plus the position of an entry in {@link #entries}, or 0; null while small. */
+    private int[] table;
 
     public Playlist(String name) {
+        this(name, new VideoIds(), null);
+    }
+
+    Playlist(String name, VideoIds ids, PlaylistManager manager) {
         this.name = name;
-        videos = new ArrayList<>();
+        this.ids = ids;
+        this.manager = manager;
+        entries = NO_ENTRIES;
     }
 
     public String getName() {
         return name;
     }
 
-    public ArrayList<Video> getVideos() {
-        return videos;
+    /**
+     * @return a read-only view of the videos in the order they were added
+     */
+    public Collection<Video> getVideos() {
+        return new AbstractCollection<Video>() {
+            @Override
+            public Iterator<Video> iterator() {
+                return new Iterator<Video>() {
+                    private int next = skipRemoved(0);
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < end;
+                    }
+
+                    @Override
+                    public Video next() {
+                        if (next >= end) {
+                            throw new NoSuchElementException();
+                        }
+                        Video video = ids.video(entries[next]);
+                        next = skipRemoved(next + 1);
+                        return video;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * @return the number of videos in the playlist
+     */
+    public int size() {
+        return size;
     }
 
     /**
@@ -27,10 +100,15 @@ public class Playlist {
      * false otherwise (video already exists)
      */
     public Boolean addVideo(Video video) {
-        if(playlistContainsVideo(video)){
+        int known = ids.find(video.getVideoId());
+        if(known >= 0 && positionOf(known) >= 0){
             return false;
         }
-        videos.add(video);
+        int number = ids.intern(video);
+        append(number);
+        if (manager != null) {
+            manager.videoAdded(this, number);
+        }
         return true;
     }
 
@@ -39,7 +117,67 @@ public class Playlist {
      * @param video
      */
     public void removeVideo(Video video) {
-        videos.remove(video);
+        int number = ids.find(video.getVideoId());
+        int position = number < 0 ? -1 : positionOf(number);
+        if(position < 0 || !video.equals(ids.video(number))){
+            return;
+        }
+        remove(position);
+        compactIfSparse();
+        if (manager != null) {
+            manager.videoRemoved(this, number);
+        }
+    }
+
+    /**
+     * Removes every video from the playlist
+     */
+    public void clear() {
+        if (manager != null) {
+            forEachVideoNumber(number -> manager.videoRemoved(this, number));
+        }
+        entries = NO_ENTRIES;
+        end = 0;
+        size = 0;
+        table = null;
+    }
+
+    /**
+     * Swaps a video for another in the same position, used when a catalog
+     * reload changes a video that is in the playlist. A replacement with the
+     * same id is seen at once by every playlist sharing this one's numbering.
+     * @param video
+     * @param replacement
+     */
+    public void replaceVideo(Video video, Video replacement) {
+        int number = ids.find(video.getVideoId());
+        int position = number < 0 ? -1 : positionOf(number);
+        if(position < 0 || !video.equals(ids.video(number))){
+            return;
+        }
+        int replacementNumber = ids.intern(replacement);
+        if(replacementNumber == number){
+            return;
+        }
+        // A replacement already present keeps whichever of the two positions comes first.
+        int present = positionOf(replacementNumber);
+        if(present >= 0 && present < position){
+            remove(position);
+        } else {
+            if(present >= 0){
+                remove(present);
+            }
+            unindex(position);
+            entries[position] = replacementNumber;
+            index(position);
+        }
+        compactIfSparse();
+        if (manager != null) {
+            manager.videoRemoved(this, number);
+            if(present < 0){
+                manager.videoAdded(this, replacementNumber);
+            }
+        }
     }
 
     /**
@@ -48,13 +186,9 @@ public class Playlist {
      * @return true if the playlist already contains specified video,
      * false otherwise
      */
-    private Boolean playlistContainsVideo(Video video){
-        for(Video v: videos){
-            if(v.equals(video)){
-                return true;
-            }
-        }
-        return false;
+    public boolean containsVideo(Video video) {
+        int number = ids.find(video.getVideoId());
+        return number >= 0 && positionOf(number) >= 0 && video.equals(ids.video(number));
     }
 
     /**
@@ -63,11 +197,147 @@ public class Playlist {
      * null if video is not in the playlist
      */
     public Video getVideo(String videoId) {
-        for(Video video: videos){
-            if(video.getVideoId().equalsIgnoreCase(videoId)){
-                return video;
+        int number = ids.find(videoId);
+        return number >= 0 && positionOf(number) >= 0 ? ids.video(number) : null;
+    }
+
+    /**
+     * Calls the action with the number of every video in the playlist, in order
+     * @param action
+     */
+    void forEachVideoNumber(IntConsumer action) {
+        for (int position = 0; position < end; position++) {
+            if(entries[position] != REMOVED){
+                action.accept(entries[position]);
+            }
+        }
+    }
+
+    private int skipRemoved(int position) {
+        while (position < end && entries[position] == REMOVED) {
+            position++;
+        }
+        return position;
+    }
+
+    /**
+     * @param number
+     * @return the position of the video number in {@link #entries}, -1 if absent
+     */
+    private int positionOf(int number) {
+        if(table == null){
+            for (int position = 0; position < end; position++) {
+                if(entries[position] == number){
+                    return position;
+                }
+            }
+            return -1;
+        }
+        int mask = table.length - 1;
+        for (int bucket = bucket(number, mask); table[bucket] != 0; bucket = (bucket + 1) & mask) {
+            if(entries[table[bucket] - 1] == number){
+                return table[bucket] - 1;
+            }
+        }
+        return -1;
+    }
+
+    private void append(int number) {
+        if(end == entries.length){
+            if(end - size > size){
+                compact();
+            } else {
+                entries = Arrays.copyOf(entries, Math.max(4, end * 2));
+            }
+        }
+        entries[end] = number;
+        size++;
+        if(table != null && size * 2 > table.length){
+            end++;
+            rebuildTable();
+        } else {
+            index(end++);
+        }
+    }
+
+    /** Leaves a hole at the position; positions stay valid until {@link #compactIfSparse()}. */
+    private void remove(int position) {
+        unindex(position);
+        entries[position] = REMOVED;
+        size--;
+    }
+
+    private void compactIfSparse() {
+        if(end - size > size){
+            compact();
+        }
+    }
+
+    /** Closes the holes left by removed entries and rebuilds the table to fit. */
+    private void compact() {
+        int live = 0;
+        for (int position = 0; position < end; position++) {
+            if(entries[position] != REMOVED){
+                entries[live++] = entries[position];
             }
         }
-        return null;
+        end = live;
+        if(entries.length > 4 * Math.max(4, live)){
+            entries = Arrays.copyOf(entries, 2 * Math.max(4, live));
+        }
+        rebuildTable();
+    }
+
+    private void rebuildTable() {
+        if(size <= SCAN_LIMIT){
+            table = null;
+            return;
+        }
+        table = new int[Integer.highestOneBit(size * 4 - 1)];
+        for (int position = 0; position < end; position++) {
+            if(entries[position] != REMOVED){
+                index(position);
+            }
+        }
+    }
+
+    private void index(int position) {
+        if(table == null){
+            if(size > SCAN_LIMIT){
+                rebuildTable();
+            }
+            return;
+        }
+        int mask = table.length - 1;
+        int bucket = bucket(entries[position], mask);
+        while (table[bucket] != 0) {
+            bucket = (bucket + 1) & mask;
+        }
+        table[bucket] = position + 1;
+    }
+
+    /** Takes an entry out of the table, shifting later entries of its probe run back into the gap. */
+    private void unindex(int position) {
+        if(table == null){
+            return;
+        }
+        int mask = table.length - 1;
+        int gap = bucket(entries[position], mask);
+        while (table[gap] != position + 1) {
+            gap = (gap + 1) & mask;
+        }
+        for (int bucket = (gap + 1) & mask; table[bucket] != 0; bucket = (bucket + 1) & mask) {
+            int home = bucket(entries[table[bucket] - 1], mask);
+            if(((bucket - home) & mask) >= ((bucket - gap) & mask)){
+                table[gap] = table[bucket];
+                gap = bucket;
+            }
+        }
+        table[gap] = 0;
+    }
+
+    private static int bucket(int number, int mask) {
+        int hash = number * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
     }
 }
@@ -1,12 +1,39 @@
 package com.google;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
 
+/**
+ * The user's playlists, with names unique ignoring case.
+ *
+ * Playlists are found through a hash map keyed by their lower-cased name, so lookups cost O(1), and are also
+ * kept in a tree by that key, so listing them in name order is a walk with no sorting. Both are updated on
+ * every create and delete.
+ *
+ * All playlists share one {@link VideoIds} numbering, and a reverse index maps each video number to the
+ * playlists holding it. Playlists report every
+ * video added and removed, so the index stays current, and finding, removing or replacing a video in every
+ * playlist costs time in proportion to the playlists holding it rather than to all their entries.
+ */
 public class PlaylistManager {
-    private ArrayList<Playlist> playlists;
+    private final HashMap<String, Playlist> playlists;
+    private final TreeMap<String, Playlist> playlistsByName;
+    private final VideoIds videoIds;
+    /** Per video number, the playlists holding it, or null if none do. */
+    private final ArrayList<Set<Playlist>> playlistsByVideo;
 
     public PlaylistManager() {
-        playlists = new ArrayList<>();
+        playlists = new HashMap<>();
+        playlistsByName = new TreeMap<>();
+        videoIds = new VideoIds();
+        playlistsByVideo = new ArrayList<>();
     }
 
     /**
@@ -15,24 +42,13 @@ public class PlaylistManager {
      * @return true if playlist successfully added, false otherwise
      */
     public Boolean addPlaylist(String playlistName){
-        if(playlistNameAvailable(playlistName)){
-            playlists.add(new Playlist(playlistName));
-            return true;
-        }
-        return false;
-    }
-
-    /**
-     * @param playlistName
-     * @return true if playlist name is available (not in use),
-     * false otherwise
-     */
-    private Boolean playlistNameAvailable(String playlistName) {
-        for(Playlist playlist: playlists){
-            if(playlist.getName().equalsIgnoreCase(playlistName)){
-                return false;
-            }
+        String key = key(playlistName);
+        if(playlists.containsKey(key)){
+            return false;
         }
+        Playlist playlist = new Playlist(playlistName, videoIds, this);
+        playlists.put(key, playlist);
+        playlistsByName.put(key, playlist);
         return true;
     }
 
@@ -42,12 +58,7 @@ public class PlaylistManager {
      * @return the specified Playlist object if found, null otherwise
      */
     public Playlist getPlaylist(String playlistName) {
-        for (Playlist playlist : playlists) {
-            if (playlist.getName().equalsIgnoreCase(playlistName)) {
-                return playlist;
-            }
-        }
-        return null;
+        return playlists.get(key(playlistName));
     }
 
     /**
@@ -55,10 +66,108 @@ public class PlaylistManager {
      * @param playlist
      */
     public void deletePlaylist(Playlist playlist) {
-        playlists.remove(playlist);
+        String key = key(playlist.getName());
+        if(playlists.remove(key, playlist)){
+            playlistsByName.remove(key);
+            playlist.forEachVideoNumber(number -> videoRemoved(playlist, number));
+        }
+    }
+
+    /**
+     * Removes a video from every playlist that contains it
+     * @param video
+     */
+    public void removeVideoFromAll(Video video) {
+        for (Playlist playlist : playlistsContaining(video.getVideoId())) {
+            playlist.removeVideo(video);
+        }
+    }
+
+    /**
+     * Swaps a video for another in every playlist that contains it
+     * @param video
+     * @param replacement
+     */
+    public void replaceVideoInAll(Video video, Video replacement) {
+        for (Playlist playlist : playlistsContaining(video.getVideoId())) {
+            playlist.replaceVideo(video, replacement);
+        }
+    }
+
+    /**
+     * @param videoId
+     * @return the playlists holding a video with the given id, ignoring case, in no particular order
+     */
+    public List<Playlist> playlistsContaining(String videoId) {
+        int number = videoIds.find(videoId);
+        Set<Playlist> holding = number < 0 || number >= playlistsByVideo.size() ? null : playlistsByVideo.get(number);
+        return holding == null ? List.of() : new ArrayList<>(holding);
+    }
+
+    /**
+     * Called by a playlist of this manager after it gained a video
+     * @param playlist
+     * @param videoNumber
+     */
+    void videoAdded(Playlist playlist, int videoNumber) {
+        while (playlistsByVideo.size() <= videoNumber) {
+            playlistsByVideo.add(null);
+        }
+        Set<Playlist> holding = playlistsByVideo.get(videoNumber);
+        if (holding == null) {
+            holding = new HashSet<>();
+            playlistsByVideo.set(videoNumber, holding);
+        }
+        holding.add(playlist);
     }
 
-    public ArrayList<Playlist> getPlaylists() {
-        return playlists;
+    /**
+     * Called by a playlist of this manager after it lost a video
+     * @param playlist
+     * @param videoNumber
+     */
+    void videoRemoved(Playlist playlist, int videoNumber) {
+        Set<Playlist> holding = playlistsByVideo.get(videoNumber);
+        if (holding != null && holding.remove(playlist) && holding.isEmpty()) {
+            playlistsByVideo.set(videoNumber, null);
+        }
+    }
+
+    /**
+     * @return a read-only view of all playlists, in lexicographical order of their lower-cased names
+     */
+    public Collection<Playlist> getPlaylists() {
+        return Collections.unmodifiableCollection(playlistsByName.values());
+    }
+
+    /**
+     * Returns one page of {@link #getPlaylists()}: the playlists after the one whose lower-cased name is
+     * {@code afterKey} (null to start at the first), skipping {@code offset} more and returning at most
+     * {@code limit}. Seeking to {@code afterKey} costs O(log n), so each page costs only its own length.
+     * @param afterKey
+     * @param offset
+     * @param limit
+     */
+    public List<Playlist> getPlaylists(String afterKey, int offset, int limit) {
+        Collection<Playlist> rest = afterKey == null
+                ? playlistsByName.values()
+                : playlistsByName.tailMap(afterKey, false).values();
+        return rest.stream().skip(offset).limit(limit).collect(Collectors.toList());
+    }
+
+    /**
+     * @return the number of playlists
+     */
+    public int size() {
+        return playlists.size();
+    }
+
+    /**
+     * Playlist names are matched ignoring case
+     * @param playlistName
+     * @return the key the playlist is stored under
+     */
+    static String key(String playlistName) {
+        return playlistName.toLowerCase();
     }
 }
@@ -0,0 +1,212 @@
+package com.google;
+
+import java.util.Arrays;
+import java.util.function.IntFunction;
+
+/**
+ * Compressed (radix) trie over a sorted list of keys, answering which
+ * positions of the list start with a prefix. In a sorted list those
+ * positions are one contiguous range, so each node only records its range
+ * and the trie never stores values of its own.
+ *
+ * <p>Every chain of single-child nodes is collapsed into one edge, and edge
+ * labels are slices of one shared char array, so a prefix shared by many
+ * keys is stored once. Nodes live in flat int arrays, children of a node
+ * side by side and sorted by their first char. A lookup costs one binary
+ * search per edge on the path, independent of the number of keys.
+ */
+final class PrefixTrie {
+
+  static final PrefixTrie EMPTY = new PrefixTrie(new char[0], new int[0], new int[0],
+      new int[0], new int[0], new int[0], new int[0], 0);
+
+  private final char[] labels;
+  /** Per node: where its edge label starts in {@link #labels}, and its length. */
+  private final int[] labelStarts;
+  private final int[] labelLengths;
+  /** Per node: its first child, and how many it has. */
+  private final int[] firstChildren;
+  private final int[] childCounts;
+  /** Per node: the range of list positions under it. */
+  private final int[] froms;
+  private final int[] tos;
+  private final int nodeCount;
+
+  private PrefixTrie(char[] labels, int[] labelStarts, int[] labelLengths, int[] firstChildren,
+      int[] childCounts, int[] froms, int[] tos, int nodeCount) {
+    this.labels = labels;
+    this.labelStarts = labelStarts;
+    this.labelLengths = labelLengths;
+    this.firstChildren = firstChildren;
+    this.childCounts = childCounts;
+    this.froms = froms;
+    this.tos = tos;
+    this.nodeCount = nodeCount;
+  }
+
+  /**
+   * Builds a trie over {@code count} keys, given by position, which must be
+   * in ascending order. Equal keys are allowed.
+   */
+  static PrefixTrie build(IntFunction<String> keys, int count) {
+    if (count == 0) {
+      return EMPTY;
+    }
+    return new Builder(keys, count).build();
+  }
+
+  /**
+   * Returns the positions of the keys starting with the prefix as
+   * {@code {from, to}}, to exclusive; empty if there are none.
+   */
+  int[] range(String prefix) {
+    if (nodeCount == 0) {
+      return new int[2];
+    }
+    int node = 0;
+    int matched = 0;
+    while (true) {
+      int start = labelStarts[node];
+      int length = labelLengths[node];
+      for (int i = 0; i < length && matched < prefix.length(); i++, matched++) {
+        if (labels[start + i] != prefix.charAt(matched)) {
+          return new int[2];
+        }
+      }
+      if (matched == prefix.length()) {
+        return new int[] {froms[node], tos[node]};
+      }
+      node = child(node, prefix.charAt(matched));
+      if (node < 0) {
+        return new int[2];
+      }
+    }
+  }
+
+  /** Returns the child of the node whose label starts with the char, or -1. */
+  private int child(int node, char c) {
+    int low = firstChildren[node];
+    int high = low + childCounts[node] - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      char first = labels[labelStarts[mid]];
+      if (first < c) {
+        low = mid + 1;
+      } else if (first > c) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  /** Returns the number of nodes, for sizing. */
+  int nodeCount() {
+    return nodeCount;
+  }
+
+  /** Returns the number of label chars stored, for sizing. */
+  int labelLength() {
+    return labels.length;
+  }
+
+  private static final class Builder {
+
+    private final IntFunction<String> keys;
+    private final int count;
+    private char[] labels = new char[256];
+    private int labelLength;
+    private int[] labelStarts = new int[64];
+    private int[] labelLengths = new int[64];
+    private int[] firstChildren = new int[64];
+    private int[] childCounts = new int[64];
+    private int[] froms = new int[64];
+    private int[] tos = new int[64];
+    private int nodeCount;
+
+    Builder(IntFunction<String> keys, int count) {
+      this.keys = keys;
+      this.count = count;
+    }
+
+    PrefixTrie build() {
+      allocate(1);
+      fill(0, 0, count, 0);
+      return new PrefixTrie(Arrays.copyOf(labels, labelLength),
+          Arrays.copyOf(labelStarts, nodeCount), Arrays.copyOf(labelLengths, nodeCount),
+          Arrays.copyOf(firstChildren, nodeCount), Arrays.copyOf(childCounts, nodeCount),
+          Arrays.copyOf(froms, nodeCount), Arrays.copyOf(tos, nodeCount), nodeCount);
+    }
+
+    /**
+     * Fills in the node for keys {@code [from, to)}, which share their first
+     * {@code depth} chars, and then its subtree.
+     */
+    private void fill(int node, int from, int to, int depth) {
+      // Sorted keys share a prefix exactly when the first and last do.
+      String first = keys.apply(from);
+      String last = keys.apply(to - 1);
+      int end = depth;
+      while (end < first.length() && end < last.length()
+          && first.charAt(end) == last.charAt(end)) {
+        end++;
+      }
+      labelStarts[node] = append(first, depth, end);
+      labelLengths[node] = end - depth;
+      froms[node] = from;
+      tos[node] = to;
+
+      // Keys ending here sort first; group the rest by their next char.
+      int groupStart = from;
+      while (groupStart < to && keys.apply(groupStart).length() == end) {
+        groupStart++;
+      }
+      int children = 0;
+      for (int i = groupStart; i < to; i++) {
+        if (i == groupStart || keys.apply(i).charAt(end) != keys.apply(i - 1).charAt(end)) {
+          children++;
+        }
+      }
+      int firstChild = allocate(children);
+      firstChildren[node] = firstChild;
+      childCounts[node] = children;
+      int child = firstChild;
+      for (int i = groupStart; i < to; ) {
+        char c = keys.apply(i).charAt(end);
+        int j = i + 1;
+        while (j < to && keys.apply(j).charAt(end) == c) {
+          j++;
+        }
+        fill(child++, i, j, end);
+        i = j;
+      }
+    }
+
+    private int append(String key, int from, int to) {
+      if (labelLength + (to - from) > labels.length) {
+        labels = Arrays.copyOf(labels, Math.max(labels.length * 2, labelLength + to - from));
+      }
+      key.getChars(from, to, labels, labelLength);
+      int start = labelLength;
+      labelLength += to - from;
+      return start;
+    }
+
+    /** Reserves {@code n} consecutive nodes and returns the first. */
+    private int allocate(int n) {
+      if (nodeCount + n > labelStarts.length) {
+        int capacity = Math.max(labelStarts.length * 2, nodeCount + n);
+        labelStarts = Arrays.copyOf(labelStarts, capacity);
+        labelLengths = Arrays.copyOf(labelLengths, capacity);
+        firstChildren = Arrays.copyOf(firstChildren, capacity);
+        childCounts = Arrays.copyOf(childCounts, capacity);
+        froms = Arrays.copyOf(froms, capacity);
+        tos = Arrays.copyOf(tos, capacity);
+      }
+      int first = nodeCount;
+      nodeCount += n;
+      return first;
+    }
+  }
+}
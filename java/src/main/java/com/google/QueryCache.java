@@ -0,0 +1,199 @@
+package com.google;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Bounded least-recently-used cache of search results, keyed by normalized
+ * query. The bound is on the total number of videos held, so one broad query
+ * cannot pin the heap.
+ *
+ * <p>Each entry keeps a predicate saying whether a video matches its query,
+ * which makes invalidation exact: a flag change or reload drops the entries
+ * whose query matches a video it touched, and only those. A result computed
+ * while an invalidation ran may be stale, so {@link #put} refuses results
+ * computed before the latest {@link #generation()}. A reload tests each entry
+ * once against all the videos it touched, and does so without holding the
+ * cache, so searches are not blocked meanwhile.
+ */
+final class QueryCache {
+
+  static final int DEFAULT_CAPACITY = 1 << 20;
+
+  /** Counters since the cache was created. */
+  static final class Stats {
+
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final long invalidations;
+    private final int entries;
+
+    Stats(long hits, long misses, long evictions, long invalidations, int entries) {
+      this.hits = hits;
+      this.misses = misses;
+      this.evictions = evictions;
+      this.invalidations = invalidations;
+      this.entries = entries;
+    }
+
+    long hits() {
+      return hits;
+    }
+
+    long misses() {
+      return misses;
+    }
+
+    /** Entries dropped to stay within capacity. */
+    long evictions() {
+      return evictions;
+    }
+
+    /** Entries dropped because a video they matched changed. */
+    long invalidations() {
+      return invalidations;
+    }
+
+    int entries() {
+      return entries;
+    }
+
+    /** Returns the fraction of lookups that hit, or 0 before the first. */
+    double hitRate() {
+      long lookups = hits + misses;
+      return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%d entries, %d hits, %d misses (%.1f%% hit rate), "
+              + "%d evictions, %d invalidations",
+          entries, hits, misses, 100 * hitRate(), evictions, invalidations);
+    }
+  }
+
+  private static final class Entry {
+
+    final Predicate<Video> matches;
+    final boolean includesFlagged;
+    final List<Video> videos;
+
+    Entry(Predicate<Video> matches, boolean includesFlagged, List<Video> videos) {
+      this.matches = matches;
+      this.includesFlagged = includesFlagged;
+      this.videos = videos;
+    }
+  }
+
+  private final int capacity;
+  /** In access order, so iteration starts at the least recently used entry. */
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private int size;
+  private long generation;
+  private long hits;
+  private long misses;
+  private long evictions;
+  private long invalidations;
+
+  /** Creates a cache holding results of at most {@code capacity} videos in total. */
+  QueryCache(int capacity) {
+    this.capacity = capacity;
+  }
+
+  /** Returns the cached result for the key, or null. */
+  synchronized List<Video> get(String key) {
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      misses++;
+      return null;
+    }
+    hits++;
+    return entry.videos;
+  }
+
+  /** Returns a token to pass to {@link #put} for a result computed after this call. */
+  synchronized long generation() {
+    return generation;
+  }
+
+  /**
+   * Caches an unmodifiable result for the key, unless something was
+   * invalidated since {@code generation} was read or the result alone
+   * exceeds the capacity. {@code matches} must accept every video the query
+   * matches, flagged or not; {@code includesFlagged} says whether the
+   * result lists flagged videos, in which case flag changes leave it alone.
+   */
+  synchronized void put(String key, long generation, Predicate<Video> matches,
+      boolean includesFlagged, List<Video> videos) {
+    if (generation != this.generation || videos.size() + 1 > capacity) {
+      return;
+    }
+    Entry previous = entries.put(key, new Entry(matches, includesFlagged, List.copyOf(videos)));
+    if (previous != null) {
+      size -= previous.videos.size() + 1;
+    }
+    size += videos.size() + 1;
+    Iterator<Entry> eldest = entries.values().iterator();
+    while (size > capacity) {
+      size -= eldest.next().videos.size() + 1;
+      eldest.remove();
+      evictions++;
+    }
+  }
+
+  /** Drops the entries whose result a flag change of the video affects. */
+  synchronized void flagChanged(Video video) {
+    generation++;
+    Iterator<Entry> iterator = entries.values().iterator();
+    while (iterator.hasNext()) {
+      Entry entry = iterator.next();
+      if (!entry.includesFlagged && entry.matches.test(video)) {
+        size -= entry.videos.size() + 1;
+        iterator.remove();
+        invalidations++;
+      }
+    }
+  }
+
+  /**
+   * Drops the entries whose result a reload affects: those matching a video
+   * it removed, changed (as before or after) or added. Entries cached after
+   * the call starts were computed after the reload and are kept.
+   */
+  void catalogChanged(List<Video> videos) {
+    List<String> keys;
+    List<Entry> cached;
+    synchronized (this) {
+      generation++;
+      keys = new ArrayList<>(entries.keySet());
+      cached = new ArrayList<>(entries.values());
+    }
+    List<Integer> stale = new ArrayList<>();
+    for (int i = 0; i < cached.size(); i++) {
+      Predicate<Video> matches = cached.get(i).matches;
+      for (Video video : videos) {
+        if (matches.test(video)) {
+          stale.add(i);
+          break;
+        }
+      }
+    }
+    synchronized (this) {
+      for (int i : stale) {
+        // Replaced entries were computed after the reload.
+        if (entries.remove(keys.get(i), cached.get(i))) {
+          size -= cached.get(i).videos.size() + 1;
+          invalidations++;
+        }
+      }
+    }
+  }
+
+  synchronized Stats stats() {
+    return new Stats(hits, misses, evictions, invalidations, entries.size());
+  }
+}
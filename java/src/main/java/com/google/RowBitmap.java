@@ -0,0 +1,406 @@
+package com.google;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.function.IntConsumer;
+
+/**
+ * An immutable compressed set of rows, laid out like a Roaring bitmap: rows
+ * are grouped by their high 16 bits into containers of up to 65536 rows, and
+ * each container is either a sorted array of the low 16 bits (while it holds
+ * at most {@link #ARRAY_LIMIT} rows) or a plain 65536-bit bitmap. Sparse sets
+ * therefore take two bytes per row and dense ones one bit, and set operations
+ * work a container at a time.
+ */
+final class RowBitmap {
+
+  /** Largest container kept as a sorted array; beyond it a bitmap is smaller. */
+  static final int ARRAY_LIMIT = 4096;
+
+  private static final int WORDS = 1 << 10;
+
+  static final RowBitmap EMPTY = new RowBitmap(new char[0], new Object[0], 0);
+
+  /** High 16 bits of each container's rows, ascending. */
+  private final char[] keys;
+  /** Per key: a {@code char[]} of sorted low bits, or a {@code long[]} bitmap. */
+  private final Object[] containers;
+  private final int cardinality;
+
+  private RowBitmap(char[] keys, Object[] containers, int cardinality) {
+    this.keys = keys;
+    this.containers = containers;
+    this.cardinality = cardinality;
+  }
+
+  /** Returns a bitmap of the given rows, which must be ascending. */
+  static RowBitmap of(int... rows) {
+    Builder builder = new Builder();
+    for (int row : rows) {
+      builder.add(row);
+    }
+    return builder.build();
+  }
+
+  /**
+   * Returns a bitmap of the set bits in {@code [0, limit)} of a paged bitset,
+   * copying it a word at a time.
+   */
+  static RowBitmap of(LongPages bits, int limit) {
+    Builder builder = new Builder();
+    int wordLimit = (limit + 63) >>> 6;
+    for (int key = 0; key << 10 < wordLimit; key++) {
+      long[] words = new long[WORDS];
+      int from = key << 10;
+      for (int w = 0; w < WORDS && from + w < wordLimit; w++) {
+        words[w] = bits.get(from + w);
+      }
+      if (from + WORDS >= wordLimit && (limit & 63) != 0) {
+        words[wordLimit - 1 - from] &= (1L << limit) - 1;
+      }
+      builder.addContainer((char) key, words);
+    }
+    return builder.build();
+  }
+
+  int cardinality() {
+    return cardinality;
+  }
+
+  boolean isEmpty() {
+    return cardinality == 0;
+  }
+
+  boolean contains(int row) {
+    int index = Arrays.binarySearch(keys, (char) (row >>> 16));
+    return index >= 0 && contains(containers[index], (char) row);
+  }
+
+  /** Calls the action with every row, ascending. */
+  void forEach(IntConsumer action) {
+    for (int i = 0; i < keys.length; i++) {
+      int high = keys[i] << 16;
+      if (containers[i] instanceof char[]) {
+        for (char low : (char[]) containers[i]) {
+          action.accept(high | low);
+        }
+      } else {
+        long[] words = (long[]) containers[i];
+        for (int w = 0; w < WORDS; w++) {
+          for (long word = words[w]; word != 0; word &= word - 1) {
+            action.accept(high | w << 6 | Long.numberOfTrailingZeros(word));
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the row at the given position in ascending order, skipping whole
+   * containers by their size.
+   *
+   * @throws IndexOutOfBoundsException unless 0 <= index < cardinality
+   */
+  int select(int index) {
+    if (index < 0 || index >= cardinality) {
+      throw new IndexOutOfBoundsException(index);
+    }
+    for (int i = 0; ; i++) {
+      int high = keys[i] << 16;
+      if (containers[i] instanceof char[]) {
+        char[] array = (char[]) containers[i];
+        if (index < array.length) {
+          return high | array[index];
+        }
+        index -= array.length;
+      } else {
+        long[] words = (long[]) containers[i];
+        for (int w = 0; w < WORDS; w++) {
+          int count = Long.bitCount(words[w]);
+          if (index < count) {
+            long word = words[w];
+            for (int k = 0; k < index; k++) {
+              word &= word - 1;
+            }
+            return high | w << 6 | Long.numberOfTrailingZeros(word);
+          }
+          index -= count;
+        }
+      }
+    }
+  }
+
+  /** Returns the rows in both bitmaps. */
+  RowBitmap and(RowBitmap other) {
+    Builder result = new Builder();
+    for (int i = 0, j = 0; i < keys.length && j < other.keys.length; ) {
+      if (keys[i] < other.keys[j]) {
+        i++;
+      } else if (keys[i] > other.keys[j]) {
+        j++;
+      } else {
+        Object a = containers[i];
+        Object b = other.containers[j];
+        if (a instanceof char[] && b instanceof char[]) {
+          result.addContainer(keys[i], intersect((char[]) a, (char[]) b));
+        } else if (a instanceof char[] || b instanceof char[]) {
+          char[] array = (char[]) (a instanceof char[] ? a : b);
+          result.addContainer(keys[i], filter(array, a instanceof char[] ? b : a, true));
+        } else {
+          long[] words = ((long[]) a).clone();
+          long[] bWords = (long[]) b;
+          for (int w = 0; w < WORDS; w++) {
+            words[w] &= bWords[w];
+          }
+          result.addContainer(keys[i], words);
+        }
+        i++;
+        j++;
+      }
+    }
+    return result.build();
+  }
+
+  /** Returns the rows in this bitmap but not in the other. */
+  RowBitmap andNot(RowBitmap other) {
+    if (isEmpty() || other.isEmpty()) {
+      return this;
+    }
+    Builder result = new Builder();
+    for (int i = 0, j = 0; i < keys.length; ) {
+      if (j == other.keys.length || keys[i] < other.keys[j]) {
+        result.addContainer(keys[i], containers[i]);
+        i++;
+      } else if (keys[i] > other.keys[j]) {
+        j++;
+      } else {
+        Object a = containers[i];
+        Object b = other.containers[j];
+        if (a instanceof char[]) {
+          result.addContainer(keys[i], filter((char[]) a, b, false));
+        } else {
+          long[] words = ((long[]) a).clone();
+          if (b instanceof char[]) {
+            for (char low : (char[]) b) {
+              words[low >>> 6] &= ~(1L << low);
+            }
+          } else {
+            long[] bWords = (long[]) b;
+            for (int w = 0; w < WORDS; w++) {
+              words[w] &= ~bWords[w];
+            }
+          }
+          result.addContainer(keys[i], words);
+        }
+        i++;
+        j++;
+      }
+    }
+    return result.build();
+  }
+
+  /** Returns the rows in either bitmap. */
+  RowBitmap or(RowBitmap other) {
+    if (other.isEmpty()) {
+      return this;
+    }
+    return isEmpty() ? other : union(Arrays.asList(this, other));
+  }
+
+  /**
+   * Returns the rows in any of the bitmaps. Containers with the same key are
+   * merged in one pass, so this costs the same however many bitmaps there are.
+   */
+  static RowBitmap union(Collection<RowBitmap> bitmaps) {
+    if (bitmaps.size() == 1) {
+      return bitmaps.iterator().next();
+    }
+    int keyLimit = 0;
+    for (RowBitmap bitmap : bitmaps) {
+      if (bitmap.keys.length > 0) {
+        keyLimit = Math.max(keyLimit, bitmap.keys[bitmap.keys.length - 1] + 1);
+      }
+    }
+    Object[] merged = new Object[keyLimit];
+    int[] counts = new int[keyLimit];
+    for (RowBitmap bitmap : bitmaps) {
+      for (int i = 0; i < bitmap.keys.length; i++) {
+        int key = bitmap.keys[i];
+        counts[key]++;
+        merged[key] = merged[key] == null ? bitmap.containers[i]
+            : merge(merged[key], bitmap.containers[i], counts[key] == 2);
+      }
+    }
+    Builder result = new Builder();
+    for (int key = 0; key < merged.length; key++) {
+      if (merged[key] != null) {
+        result.addContainer((char) key, merged[key]);
+      }
+    }
+    return result.build();
+  }
+
+  /**
+   * ORs container {@code b} into {@code a} as a bitmap. {@code a} is copied
+   * first when it still belongs to an input bitmap.
+   */
+  private static long[] merge(Object a, Object b, boolean copy) {
+    long[] words;
+    if (a instanceof char[]) {
+      words = toWords((char[]) a);
+    } else {
+      words = copy ? ((long[]) a).clone() : (long[]) a;
+    }
+    if (b instanceof char[]) {
+      for (char low : (char[]) b) {
+        words[low >>> 6] |= 1L << low;
+      }
+    } else {
+      long[] bWords = (long[]) b;
+      for (int w = 0; w < WORDS; w++) {
+        words[w] |= bWords[w];
+      }
+    }
+    return words;
+  }
+
+  private static boolean contains(Object container, char low) {
+    if (container instanceof char[]) {
+      return Arrays.binarySearch((char[]) container, low) >= 0;
+    }
+    return (((long[]) container)[low >>> 6] & (1L << low)) != 0;
+  }
+
+  private static char[] intersect(char[] a, char[] b) {
+    char[] result = new char[Math.min(a.length, b.length)];
+    int count = 0;
+    for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+      if (a[i] < b[j]) {
+        i++;
+      } else if (a[i] > b[j]) {
+        j++;
+      } else {
+        result[count++] = a[i];
+        i++;
+        j++;
+      }
+    }
+    return Arrays.copyOf(result, count);
+  }
+
+  /** Keeps the values of {@code array} that are (or are not) in {@code other}. */
+  private static char[] filter(char[] array, Object other, boolean keepContained) {
+    char[] result = new char[array.length];
+    int count = 0;
+    for (char low : array) {
+      if (contains(other, low) == keepContained) {
+        result[count++] = low;
+      }
+    }
+    return Arrays.copyOf(result, count);
+  }
+
+  private static long[] toWords(char[] array) {
+    long[] words = new long[WORDS];
+    for (char low : array) {
+      words[low >>> 6] |= 1L << low;
+    }
+    return words;
+  }
+
+  /** Collects rows in ascending order, or whole containers in ascending key order. */
+  static final class Builder {
+
+    private char[] keys = new char[4];
+    private Object[] containers = new Object[4];
+    private int count;
+    private int cardinality;
+
+    private int currentKey = -1;
+    private char[] array = new char[16];
+    private long[] words;
+    private int size;
+    private int lastRow = -1;
+
+    /** Adds a row no less than every row added so far; adding the last one again does nothing. */
+    void add(int row) {
+      if (row == lastRow) {
+        return;
+      }
+      lastRow = row;
+      int key = row >>> 16;
+      if (key != currentKey) {
+        flush();
+        currentKey = key;
+      }
+      char low = (char) row;
+      if (words != null) {
+        words[low >>> 6] |= 1L << low;
+      } else if (size == ARRAY_LIMIT) {
+        words = toWords(array);
+        words[low >>> 6] |= 1L << low;
+      } else {
+        if (size == array.length) {
+          array = Arrays.copyOf(array, size * 2);
+        }
+        array[size] = low;
+      }
+      size++;
+    }
+
+    /** Adds a container, picking its smaller form; the container is not copied. */
+    private void addContainer(char key, Object container) {
+      flush();
+      int containerSize;
+      if (container instanceof char[]) {
+        containerSize = ((char[]) container).length;
+      } else {
+        long[] bits = (long[]) container;
+        containerSize = 0;
+        for (long word : bits) {
+          containerSize += Long.bitCount(word);
+        }
+        if (containerSize <= ARRAY_LIMIT) {
+          char[] lows = new char[containerSize];
+          int i = 0;
+          for (int w = 0; w < WORDS; w++) {
+            for (long word = bits[w]; word != 0; word &= word - 1) {
+              lows[i++] = (char) (w << 6 | Long.numberOfTrailingZeros(word));
+            }
+          }
+          container = lows;
+        }
+      }
+      append(key, container, containerSize);
+    }
+
+    private void flush() {
+      if (currentKey >= 0 && size > 0) {
+        append((char) currentKey, words != null ? words : Arrays.copyOf(array, size), size);
+      }
+      currentKey = -1;
+      words = null;
+      size = 0;
+    }
+
+    private void append(char key, Object container, int containerSize) {
+      if (containerSize == 0) {
+        return;
+      }
+      if (count == keys.length) {
+        keys = Arrays.copyOf(keys, count * 2);
+        containers = Arrays.copyOf(containers, count * 2);
+      }
+      keys[count] = key;
+      containers[count++] = container;
+      cardinality += containerSize;
+    }
+
+    RowBitmap build() {
+      flush();
+      return count == 0 ? EMPTY
+          : new RowBitmap(Arrays.copyOf(keys, count), Arrays.copyOf(containers, count),
+              cardinality);
+    }
+  }
+}
@@ -1,6 +1,9 @@
 package com.google;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.Locale;
 import java.util.Scanner;
 
 public class Run {
@@ -8,6 +11,19 @@ public class Run {
     System.out.println("Hello and welcome to YouTube, what would you like to do? "
         + "Enter HELP for list of available commands or EXIT to terminate.");
     var videoPlayer = new VideoPlayer();
+    try {
+      videoPlayer.watchCatalog();
+    } catch (IOException e) {
+      System.out.println("Couldn't watch videos.txt, changes need a restart.");
+    }
+    try {
+      videoPlayer.keepState(Path.of(System.getProperty("videoplayer.state", "videoplayer-state")),
+          StateJournal.FsyncPolicy.valueOf(
+              System.getProperty("videoplayer.fsync", "interval").toUpperCase(Locale.ROOT)));
+    } catch (IOException | IllegalArgumentException e) {
+      System.out.println("Couldn't open saved playlists and flags, changes won't be kept: "
+          + e.getMessage());
+    }
     var parser = new CommandParser(videoPlayer);
     var scanner = new Scanner(System.in);
     while (true) {
@@ -16,6 +32,11 @@ public class Run {
       if (input.equalsIgnoreCase("exit")) {
         System.out.println("YouTube has now terminated its execution. " +
             "Thank you and goodbye!");
+        try {
+          videoPlayer.close();
+        } catch (IOException e) {
+          System.out.println("Couldn't save the last changes: " + e.getMessage());
+        }
         return;
       }
       parser.executeCommand(Arrays.asList(input.split("\\s+")));
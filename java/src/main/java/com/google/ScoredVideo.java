@@ -0,0 +1,22 @@
+package com.google;
+
+/** A video found by a ranked search, with its relevance score. */
+final class ScoredVideo {
+
+  private final Video video;
+  private final float score;
+
+  ScoredVideo(Video video, float score) {
+    this.video = video;
+    this.score = score;
+  }
+
+  Video video() {
+    return video;
+  }
+
+  /** Higher is more relevant. */
+  float score() {
+    return score;
+  }
+}
@@ -0,0 +1,268 @@
+package com.google;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Which part of a search's title-ordered results to return: at most
+ * {@link #limit()} of them, starting after the video an earlier page's
+ * cursor points at, if any, and then skipping {@link #offset()} more.
+ *
+ * <p>A cursor is an opaque token naming a position in title order (the
+ * video's collation key, shard and row), so the next page seeks straight to
+ * it instead of selecting and skipping every earlier result again. Playlist
+ * listings page the same way by playlist key, with cursors of their own
+ * {@link Kind}; a page only accepts cursors of its kind.
+ */
+final class SearchPage {
+
+  /** What a page lists, and so which cursors it continues from. */
+  enum Kind {
+    VIDEOS('v', "a video search"),
+    PLAYLISTS('p', "a playlist listing");
+
+    private final char tag;
+    private final String description;
+
+    Kind(char tag, String description) {
+      this.tag = tag;
+      this.description = description;
+    }
+  }
+
+  /** Every result. */
+  static final SearchPage ALL = new SearchPage(0, Integer.MAX_VALUE, null);
+
+  private final int offset;
+  private final int limit;
+  private final String cursor;
+  private final Kind kind;
+
+  SearchPage(int offset, int limit, String cursor) {
+    this(offset, limit, cursor, Kind.VIDEOS);
+  }
+
+  /**
+   * @throws IllegalArgumentException if a count is negative, or the cursor is
+   *     invalid or continues a different kind of listing
+   */
+  SearchPage(int offset, int limit, String cursor, Kind kind) {
+    if (offset < 0 || limit < 0) {
+      throw new IllegalArgumentException("LIMIT and OFFSET must not be negative");
+    }
+    if (cursor != null && kindOf(cursor) != kind) {
+      throw new IllegalArgumentException("AFTER needs a cursor from " + kind.description
+          + ", not from " + kindOf(cursor).description);
+    }
+    this.offset = offset;
+    this.limit = limit;
+    this.cursor = cursor;
+    this.kind = kind;
+  }
+
+  /** Parses the options of a video search, as for {@link #parse(List, Kind)}. */
+  static SearchPage parse(List<String> options) {
+    return parse(options, Kind.VIDEOS);
+  }
+
+  /**
+   * Parses options such as {@code LIMIT 20 OFFSET 40} or
+   * {@code LIMIT 20 AFTER <cursor>}, in any order, keywords ignoring case.
+   *
+   * @throws IllegalArgumentException if an option is unknown, repeated or
+   *     lacks a valid value, or the cursor is of another kind
+   */
+  static SearchPage parse(List<String> options, Kind kind) {
+    Integer offset = null;
+    Integer limit = null;
+    String cursor = null;
+    for (int i = 0; i < options.size(); i += 2) {
+      String option = options.get(i).toUpperCase(Locale.ROOT);
+      if (i + 1 == options.size()) {
+        throw new IllegalArgumentException("Missing a value after " + option);
+      }
+      String value = options.get(i + 1);
+      if (option.equals("LIMIT") && limit == null) {
+        limit = parseCount(option, value);
+      } else if (option.equals("OFFSET") && offset == null) {
+        offset = parseCount(option, value);
+      } else if (option.equals("AFTER") && cursor == null) {
+        cursor = value;
+      } else {
+        throw new IllegalArgumentException("Unexpected " + options.get(i));
+      }
+    }
+    return new SearchPage(offset == null ? 0 : offset,
+        limit == null ? Integer.MAX_VALUE : limit, cursor, kind);
+  }
+
+  private static int parseCount(String option, String value) {
+    try {
+      int count = Integer.parseInt(value);
+      if (count >= 0) {
+        return count;
+      }
+    } catch (NumberFormatException e) {
+      // Reported below.
+    }
+    throw new IllegalArgumentException(option + " needs a number, not " + value);
+  }
+
+  /** Returns whether the token is a paging keyword. */
+  static boolean isOption(String token) {
+    String option = token.toUpperCase(Locale.ROOT);
+    return option.equals("LIMIT") || option.equals("OFFSET") || option.equals("AFTER");
+  }
+
+  int offset() {
+    return offset;
+  }
+
+  int limit() {
+    return limit;
+  }
+
+  /** Returns how many results the page needs selected: its offset plus its limit. */
+  int end() {
+    return (int) Math.min(Integer.MAX_VALUE, (long) offset + limit);
+  }
+
+  /** Returns whether the page may stop short of the last result. */
+  boolean isLimited() {
+    return limit != Integer.MAX_VALUE;
+  }
+
+  /** Returns this page, or if it has no LIMIT, the same page limited to {@code limit}. */
+  SearchPage limitedTo(int limit) {
+    return isLimited() ? this : new SearchPage(offset, limit, cursor, kind);
+  }
+
+  /**
+   * Returns the position a video search page starts after, or null to start
+   * at the beginning.
+   *
+   * @throws IllegalStateException if the page lists playlists
+   */
+  Position after() {
+    if (cursor == null) {
+      return null;
+    }
+    checkKind(Kind.VIDEOS);
+    String[] parts = decode(cursor).split(":", 3);
+    return new Position(parts[2], Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+  }
+
+  /**
+   * Returns the key of the playlist a playlist page starts after, or null to
+   * start at the beginning.
+   *
+   * @throws IllegalStateException if the page lists videos
+   */
+  String afterPlaylist() {
+    if (cursor == null) {
+      return null;
+    }
+    checkKind(Kind.PLAYLISTS);
+    return decode(cursor);
+  }
+
+  private void checkKind(Kind expected) {
+    if (kind != expected) {
+      throw new IllegalStateException("Not " + expected.description + " page");
+    }
+  }
+
+  /** Returns a cursor for the position just after the video with this key, shard and row. */
+  static String cursor(String titleKey, int shard, int row) {
+    return encode(Kind.VIDEOS, shard + ":" + row + ":" + titleKey);
+  }
+
+  /** Returns a cursor for the position just after the playlist with this key. */
+  static String playlistCursor(String playlistKey) {
+    return encode(Kind.PLAYLISTS, playlistKey);
+  }
+
+  private static String encode(Kind kind, String position) {
+    return Base64.getUrlEncoder().withoutPadding()
+        .encodeToString((kind.tag + position).getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Returns the kind of listing a cursor continues, checking that its
+   * position is well formed.
+   *
+   * @throws IllegalArgumentException if the cursor is not one this class made
+   */
+  private static Kind kindOf(String cursor) {
+    String token = decodeToken(cursor);
+    if (!token.isEmpty() && token.charAt(0) == Kind.PLAYLISTS.tag) {
+      return Kind.PLAYLISTS;
+    }
+    if (!token.isEmpty() && token.charAt(0) == Kind.VIDEOS.tag) {
+      String[] parts = token.substring(1).split(":", 3);
+      try {
+        if (parts.length == 3) {
+          Integer.parseInt(parts[0]);
+          Integer.parseInt(parts[1]);
+          return Kind.VIDEOS;
+        }
+      } catch (NumberFormatException e) {
+        // Reported below.
+      }
+    }
+    throw new IllegalArgumentException("Invalid cursor " + cursor);
+  }
+
+  /** Returns the position a valid cursor names, without its kind. */
+  private static String decode(String cursor) {
+    return decodeToken(cursor).substring(1);
+  }
+
+  private static String decodeToken(String cursor) {
+    try {
+      return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Invalid cursor " + cursor);
+    }
+  }
+
+  /** A video's place in title order, decoded from a cursor. */
+  static final class Position {
+
+    private final String titleKey;
+    private final int shard;
+    private final int row;
+
+    Position(String titleKey, int shard, int row) {
+      this.titleKey = titleKey;
+      this.shard = shard;
+      this.row = row;
+    }
+
+    String titleKey() {
+      return titleKey;
+    }
+
+    /**
+     * Returns whether a video with the given key, shard and row comes after
+     * this position in title order.
+     */
+    boolean isFollowedBy(String titleKey, int shardIndex, int row) {
+      int order = titleKey.compareTo(this.titleKey);
+      return order > 0 || order == 0 && row >= firstRowOnTie(shardIndex);
+    }
+
+    /**
+     * Returns the first row of the given shard that comes after this position
+     * among videos with the same key: ties order by shard, then row.
+     */
+    int firstRowOnTie(int shardIndex) {
+      if (shardIndex < shard) {
+        return Integer.MAX_VALUE;
+      }
+      return shardIndex == shard ? row + 1 : 0;
+    }
+  }
+}
@@ -0,0 +1,468 @@
+package com.google;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+
+/**
+ * Makes the player's own state (playlists and flags) survive restarts, as an
+ * append-only journal of the commands that changed it plus periodic
+ * snapshots of the whole state.
+ *
+ * <p>Each record is a command and its arguments, numbered in sequence and
+ * framed with its length and a CRC32. A background thread writes whatever has
+ * been appended since its last write in one batch, so appends that arrive
+ * while a write or fsync is running share the next one (group commit). How
+ * much may be lost in a crash is set by the {@link FsyncPolicy}; only
+ * {@link FsyncPolicy#INTERVAL} and {@link FsyncPolicy#NEVER} leave appends
+ * free to gather, since appends come from one thread.
+ *
+ * <p>Every {@code snapshotEvery} records, or every as many records as the
+ * last snapshot held if that is more, the state is captured on the appending
+ * thread and written to a snapshot file in the background, through a
+ * temporary file that is renamed over the old snapshot once it is on disk.
+ * The journal is split into segments named by their first record number; the
+ * writer starts a new one when a snapshot is taken, and segments the snapshot
+ * covers are then deleted, or at the next recovery if the snapshot was written
+ * first. Recovery loads the snapshot and replays only the records after it.
+ * A torn record at the end of the journal, left by a crash mid-write, is cut
+ * off.
+ *
+ * <p>Appends, and the state the snapshots capture, must come from one thread.
+ */
+final class StateJournal implements AutoCloseable {
+
+  /** When appended records are forced to disk. */
+  enum FsyncPolicy {
+    /**
+     * Before {@link #append} returns. Appends come from one thread, so each
+     * waits for an fsync of its own: safest, and slowest.
+     */
+    ALWAYS,
+    /** At most every {@link #INTERVAL_MILLIS} in the background; a crash loses that long. */
+    INTERVAL,
+    /** Only on snapshots and {@link #close}; a crash loses whatever the OS had not written. */
+    NEVER
+  }
+
+  static final long INTERVAL_MILLIS = 100;
+  static final int SNAPSHOT_EVERY = 10_000;
+
+  private static final String SNAPSHOT = "snapshot";
+  private static final int SNAPSHOT_MAGIC = 0x56505331;
+  private static final Pattern SEGMENT = Pattern.compile("journal-(\\d{20})\\.log");
+
+  private final Path dir;
+  private final FsyncPolicy policy;
+  private final int snapshotEvery;
+  private final Supplier<List<List<String>>> state;
+  private final Thread writer;
+  private final ExecutorService snapshots = Executors.newSingleThreadExecutor(task -> {
+    Thread thread = new Thread(task, "journal-snapshot");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  // Guarded by this.
+  private List<byte[]> pending = new ArrayList<>();
+  private long pendingFirst;
+  private long nextNumber;
+  private long written;
+  private boolean rotate;
+  private long sinceSnapshot;
+  private long snapshotThreshold;
+  private boolean snapshotting;
+  private boolean closed;
+  private IOException failure;
+
+  /** Only used by the writer thread, and by close once it has stopped. */
+  private FileChannel segment;
+
+  private StateJournal(Path dir, FsyncPolicy policy, int snapshotEvery,
+      Supplier<List<List<String>>> state, long nextNumber) {
+    this.dir = dir;
+    this.policy = policy;
+    this.snapshotEvery = snapshotEvery;
+    this.state = state;
+    this.nextNumber = nextNumber;
+    this.written = nextNumber - 1;
+    this.snapshotThreshold = snapshotEvery;
+    this.writer = new Thread(this::run, "journal-writer");
+    this.writer.setDaemon(true);
+    this.writer.start();
+  }
+
+  /**
+   * Opens the journal in the directory, creating it if needed, and first
+   * calls {@code replay} with every record of the last snapshot and of the
+   * journal after it, in order. {@code state} is later asked for records
+   * that rebuild the whole current state, for snapshots.
+   */
+  static StateJournal open(Path dir, FsyncPolicy policy, int snapshotEvery,
+      Consumer<List<String>> replay, Supplier<List<List<String>>> state) throws IOException {
+    Files.createDirectories(dir);
+    long snapshotNumber = readSnapshot(dir.resolve(SNAPSHOT), replay);
+    long last = snapshotNumber;
+    List<Long> starts = segmentStarts(dir);
+    for (int i = 0; i < starts.size(); i++) {
+      if (i + 1 < starts.size() && starts.get(i + 1) - 1 <= snapshotNumber) {
+        // Covered by the snapshot, but left behind when a snapshot raced its segment's rotation.
+        Files.deleteIfExists(segmentPath(dir, starts.get(i)));
+        continue;
+      }
+      long[] lastRead = {last};
+      if (!replaySegment(segmentPath(dir, starts.get(i)), snapshotNumber, lastRead, replay)) {
+        // Records after a torn one cannot be trusted to follow on from it.
+        for (int j = i + 1; j < starts.size(); j++) {
+          Files.deleteIfExists(segmentPath(dir, starts.get(j)));
+        }
+        last = lastRead[0];
+        break;
+      }
+      last = lastRead[0];
+    }
+    return new StateJournal(dir, policy, snapshotEvery, state, last + 1);
+  }
+
+  /**
+   * Appends a record of a command and its arguments, after its change has
+   * been made, and starts a snapshot if one is due. Under
+   * {@link FsyncPolicy#ALWAYS}, returns once the record is on disk.
+   *
+   * @throws UncheckedIOException if the journal can no longer be written
+   */
+  void append(String... fields) {
+    long number;
+    boolean snapshot = false;
+    synchronized (this) {
+      if (failure != null) {
+        throw new UncheckedIOException("Journal is not writable", failure);
+      }
+      if (closed) {
+        throw new IllegalStateException("Journal is closed");
+      }
+      number = nextNumber++;
+      if (pending.isEmpty()) {
+        pendingFirst = number;
+      }
+      pending.add(frame(number, Arrays.asList(fields)));
+      if (++sinceSnapshot >= snapshotThreshold && !snapshotting) {
+        snapshotting = true;
+        sinceSnapshot = 0;
+        rotate = true;
+        snapshot = true;
+      }
+      notifyAll();
+      if (policy == FsyncPolicy.ALWAYS) {
+        awaitWritten(number);
+      }
+    }
+    if (snapshot) {
+      List<List<String>> records = state.get();
+      snapshots.execute(() -> writeSnapshot(records, number));
+    }
+  }
+
+  private void awaitWritten(long number) {
+    boolean interrupted = false;
+    while (written < number && failure == null) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    if (failure != null) {
+      throw new UncheckedIOException("Journal is not writable", failure);
+    }
+  }
+
+  private void run() {
+    try {
+      while (true) {
+        List<byte[]> batch;
+        long first;
+        long last;
+        boolean rotateNow;
+        synchronized (this) {
+          while (pending.isEmpty() && !closed) {
+            wait();
+          }
+          if (pending.isEmpty()) {
+            return;
+          }
+          batch = pending;
+          pending = new ArrayList<>();
+          first = pendingFirst;
+          last = nextNumber - 1;
+          rotateNow = rotate;
+          rotate = false;
+        }
+        if (segment == null || rotateNow) {
+          openSegment(first);
+        }
+        ByteBuffer[] buffers = batch.stream().map(ByteBuffer::wrap).toArray(ByteBuffer[]::new);
+        while (buffers[buffers.length - 1].hasRemaining()) {
+          segment.write(buffers);
+        }
+        if (policy != FsyncPolicy.NEVER) {
+          segment.force(false);
+        }
+        synchronized (this) {
+          written = last;
+          notifyAll();
+          if (policy == FsyncPolicy.INTERVAL) {
+            // Let appends gather for the next batch.
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(INTERVAL_MILLIS);
+            long left;
+            while (!closed && (left = deadline - System.nanoTime()) > 0) {
+              TimeUnit.NANOSECONDS.timedWait(this, left);
+            }
+          }
+        }
+      }
+    } catch (IOException e) {
+      System.out.println("Couldn't write the state journal: " + e.getMessage());
+      synchronized (this) {
+        failure = e;
+        notifyAll();
+      }
+    } catch (InterruptedException e) {
+      // Only close stops the writer, and it waits for the writer to drain instead.
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void openSegment(long first) throws IOException {
+    if (segment != null) {
+      segment.force(false);
+      segment.close();
+    }
+    segment = FileChannel.open(segmentPath(dir, first), StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    syncDirectory(dir);
+  }
+
+  private void writeSnapshot(List<List<String>> records, long number) {
+    try {
+      Path temporary = dir.resolve(SNAPSHOT + ".tmp");
+      try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+          StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+        OutputStream stream = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16);
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(SNAPSHOT_MAGIC);
+        out.writeLong(number);
+        out.writeInt(records.size());
+        for (List<String> record : records) {
+          out.write(frame(number, record));
+        }
+        out.flush();
+        channel.force(true);
+      }
+      Files.move(temporary, dir.resolve(SNAPSHOT), StandardCopyOption.ATOMIC_MOVE,
+          StandardCopyOption.REPLACE_EXISTING);
+      syncDirectory(dir);
+
+      // The newest segment is still being written; older ones go once covered.
+      List<Long> starts = segmentStarts(dir);
+      for (int i = 0; i + 1 < starts.size(); i++) {
+        if (starts.get(i + 1) - 1 <= number) {
+          Files.deleteIfExists(segmentPath(dir, starts.get(i)));
+        }
+      }
+    } catch (IOException e) {
+      System.out.println("Couldn't write a state snapshot: " + e.getMessage());
+    } finally {
+      synchronized (this) {
+        snapshotting = false;
+        snapshotThreshold = Math.max(snapshotEvery, records.size());
+      }
+    }
+  }
+
+  /**
+   * Writes out every record appended so far, waits for a running snapshot,
+   * and forces the journal to disk.
+   */
+  @Override
+  public void close() throws IOException {
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      notifyAll();
+    }
+    try {
+      writer.join();
+      snapshots.shutdown();
+      snapshots.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (segment != null) {
+      segment.force(true);
+      segment.close();
+    }
+    synchronized (this) {
+      if (failure != null) {
+        throw failure;
+      }
+    }
+  }
+
+  private static byte[] frame(long number, List<String> fields) {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(body)) {
+      out.writeLong(number);
+      out.writeShort(fields.size());
+      for (String field : fields) {
+        out.writeUTF(field);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    byte[] bytes = body.toByteArray();
+    CRC32 crc = new CRC32();
+    crc.update(bytes);
+    return ByteBuffer.allocate(2 * Integer.BYTES + bytes.length)
+        .putInt(bytes.length)
+        .putInt((int) crc.getValue())
+        .put(bytes)
+        .array();
+  }
+
+  /** Returns the next intact frame's body at the buffer's position and moves past it, or null. */
+  private static byte[] nextFrame(ByteBuffer buffer) {
+    if (buffer.remaining() < 2 * Integer.BYTES) {
+      return null;
+    }
+    int length = buffer.getInt();
+    int checksum = buffer.getInt();
+    if (length < 0 || length > buffer.remaining()) {
+      return null;
+    }
+    byte[] body = new byte[length];
+    buffer.get(body);
+    CRC32 crc = new CRC32();
+    crc.update(body);
+    return (int) crc.getValue() == checksum ? body : null;
+  }
+
+  /** Returns a frame body's record number, and adds its fields to the list. */
+  private static long decode(byte[] body, List<String> fields) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+    long number = in.readLong();
+    int count = in.readUnsignedShort();
+    for (int i = 0; i < count; i++) {
+      fields.add(in.readUTF());
+    }
+    return number;
+  }
+
+  /** Replays a snapshot if there is one, and returns the last record number it covers, or 0. */
+  private static long readSnapshot(Path file, Consumer<List<String>> replay) throws IOException {
+    if (!Files.exists(file)) {
+      return 0;
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+    if (buffer.remaining() < Integer.BYTES + Long.BYTES + Integer.BYTES
+        || buffer.getInt() != SNAPSHOT_MAGIC) {
+      throw new IOException("Not a state snapshot: " + file);
+    }
+    long number = buffer.getLong();
+    int count = buffer.getInt();
+    List<List<String>> records = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      byte[] body = nextFrame(buffer);
+      if (body == null) {
+        throw new IOException("Damaged state snapshot: " + file);
+      }
+      List<String> fields = new ArrayList<>();
+      decode(body, fields);
+      records.add(fields);
+    }
+    records.forEach(replay);
+    return number;
+  }
+
+  /**
+   * Replays the segment's records numbered after {@code after}, tracking the
+   * last replayed in {@code last}. Returns false, after cutting the segment
+   * short, if it ends in a torn or damaged record.
+   */
+  private static boolean replaySegment(Path file, long after, long[] last,
+      Consumer<List<String>> replay) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+    int intact = 0;
+    byte[] body;
+    while ((body = nextFrame(buffer)) != null) {
+      List<String> fields = new ArrayList<>();
+      long number = decode(body, fields);
+      if (number > after) {
+        replay.accept(fields);
+        last[0] = number;
+      }
+      intact = buffer.position();
+    }
+    if (intact == buffer.limit()) {
+      return true;
+    }
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+      channel.truncate(intact);
+      channel.force(true);
+    }
+    return false;
+  }
+
+  private static List<Long> segmentStarts(Path dir) throws IOException {
+    try (var files = Files.list(dir)) {
+      return files
+          .map(file -> SEGMENT.matcher(file.getFileName().toString()))
+          .filter(Matcher::matches)
+          .map(matcher -> Long.parseLong(matcher.group(1)))
+          .sorted()
+          .collect(Collectors.toList());
+    }
+  }
+
+  private static Path segmentPath(Path dir, long first) {
+    return dir.resolve(String.format("journal-%020d.log", first));
+  }
+
+  /** Makes a created, renamed or deleted entry durable, where the platform allows it. */
+  private static void syncDirectory(Path dir) {
+    try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+      channel.force(true);
+    } catch (IOException e) {
+      // Some platforms cannot open directories; their renames are durable anyway or not at all.
+    }
+  }
+}
@@ -0,0 +1,132 @@
+package com.google;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Finds a byte string in a byte array: the inner loop of brute-force title
+ * scans over {@link FoldedTitles}. Two engines give the same answers:
+ * {@link Scalar} compares byte by byte, and {@link Swar} tests eight
+ * positions at a time with word-wide bit tricks.
+ *
+ * <p>The engine is chosen once, at startup, from the {@code videoplayer.scan}
+ * system property ({@code scalar} or {@code swar}), defaulting to
+ * {@code swar}, which is also used after a warning if the property names
+ * neither.
+ */
+abstract class SubstringScan {
+
+  /** The engine selected at startup. */
+  static final SubstringScan ENGINE = fromProperty(System.getProperty("videoplayer.scan", "swar"));
+
+  /** Returns the named engine, or warns and returns {@link Swar} if there is none by that name. */
+  static SubstringScan fromProperty(String name) {
+    try {
+      return select(name);
+    } catch (IllegalArgumentException e) {
+      System.out.println("Unknown videoplayer.scan engine " + name + ", scanning with swar.");
+      return new Swar();
+    }
+  }
+
+  static SubstringScan select(String name) {
+    switch (name) {
+      case "scalar":
+        return new Scalar();
+      case "swar":
+        return new Swar();
+      default:
+        throw new IllegalArgumentException("Unknown scan engine " + name);
+    }
+  }
+
+  /**
+   * Returns the first position in {@code [from, to)} where the needle starts
+   * and fits before {@code to}, or -1. The needle must not be empty.
+   */
+  abstract int indexOf(byte[] haystack, int from, int to, byte[] needle);
+
+  /** Returns the engine's name, as given to {@link #select}. */
+  abstract String name();
+
+  static boolean matchesAt(byte[] haystack, int at, byte[] needle) {
+    for (int i = 1; i < needle.length; i++) {
+      if (haystack[at + i] != needle[i]) {
+        return false;
+      }
+    }
+    return haystack[at] == needle[0];
+  }
+
+  /** Checks every position whose first byte matches. */
+  static final class Scalar extends SubstringScan {
+
+    @Override
+    int indexOf(byte[] haystack, int from, int to, byte[] needle) {
+      byte first = needle[0];
+      for (int at = from, last = to - needle.length; at <= last; at++) {
+        if (haystack[at] == first && matchesAt(haystack, at, needle)) {
+          return at;
+        }
+      }
+      return -1;
+    }
+
+    @Override
+    String name() {
+      return "scalar";
+    }
+  }
+
+  /**
+   * Reads the haystack a long at a time, once at each candidate start and
+   * once at each candidate end, and marks the positions where both the
+   * needle's first and last byte match with the exact zero-byte test
+   * {@code ~(((x & 0x7f..) + 0x7f..) | x | 0x7f..)}. Only those positions are
+   * compared in full, so common first bytes alone do not slow it down.
+   */
+  static final class Swar extends SubstringScan {
+
+    private static final VarHandle LONGS =
+        MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long ONES = 0x0101010101010101L;
+    private static final long LOW_SEVEN = 0x7f7f7f7f7f7f7f7fL;
+
+    @Override
+    int indexOf(byte[] haystack, int from, int to, byte[] needle) {
+      int span = needle.length - 1;
+      long firsts = (needle[0] & 0xffL) * ONES;
+      long lasts = (needle[span] & 0xffL) * ONES;
+      int at = from;
+      for (; at + span + Long.BYTES <= to; at += Long.BYTES) {
+        long starts = (long) LONGS.get(haystack, at);
+        long ends = (long) LONGS.get(haystack, at + span);
+        long candidates = zeroBytes(starts ^ firsts) & zeroBytes(ends ^ lasts);
+        while (candidates != 0) {
+          int candidate = at + (Long.numberOfTrailingZeros(candidates) >>> 3);
+          if (matchesAt(haystack, candidate, needle)) {
+            return candidate;
+          }
+          candidates &= candidates - 1;
+        }
+      }
+      for (int last = to - needle.length; at <= last; at++) {
+        if (matchesAt(haystack, at, needle)) {
+          return at;
+        }
+      }
+      return -1;
+    }
+
+    /** Sets the high bit of exactly the bytes of {@code x} that are zero. */
+    private static long zeroBytes(long x) {
+      return ~(((x & LOW_SEVEN) + LOW_SEVEN) | x | LOW_SEVEN);
+    }
+
+    @Override
+    String name() {
+      return "swar";
+    }
+  }
+}
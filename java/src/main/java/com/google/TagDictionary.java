@@ -0,0 +1,145 @@
+package com.google;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Process-wide dictionary of video tags. Every distinct tag string is stored
+ * once and given a dense int id, so videos only need to hold an int[] of ids.
+ *
+ * <p>Ids are never reused or removed. Interning is safe from any thread, which
+ * the parallel catalog parser relies on.
+ */
+final class TagDictionary {
+
+  private static final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+  private static volatile String[] tags = new String[64];
+  private static int size;
+  /** Prefix index over the tags, rebuilt on the first lookup after tags are added. */
+  private static volatile Prefixes prefixes = new Prefixes(new String[0], new int[0]);
+
+  /** The lower-cased tags in order, their ids, and a trie over them. */
+  private static final class Prefixes {
+
+    final String[] sorted;
+    final int[] ids;
+    final PrefixTrie trie;
+
+    Prefixes(String[] sorted, int[] ids) {
+      this.sorted = sorted;
+      this.ids = ids;
+      this.trie = PrefixTrie.build(i -> sorted[i], sorted.length);
+    }
+  }
+
+  private TagDictionary() {
+  }
+
+  /** Returns the id of the tag, assigning the next free one if it is new. */
+  static int intern(String tag) {
+    Integer id = ids.get(tag);
+    if (id != null) {
+      return id;
+    }
+    synchronized (TagDictionary.class) {
+      id = ids.get(tag);
+      if (id != null) {
+        return id;
+      }
+      String[] current = tags;
+      if (size == current.length) {
+        String[] grown = new String[current.length * 2];
+        System.arraycopy(current, 0, grown, 0, size);
+        tags = current = grown;
+      }
+      current[size] = tag;
+      ids.put(tag, size);
+      return size++;
+    }
+  }
+
+  /** Returns the id of the tag, or -1 if no video has ever used it. */
+  static int lookup(String tag) {
+    Integer id = ids.get(tag);
+    return id == null ? -1 : id;
+  }
+
+  /** Returns the tag string for an id handed out by {@link #intern}. */
+  static String tag(int id) {
+    return tags[id];
+  }
+
+  /** Returns the number of ids handed out so far. */
+  static int size() {
+    synchronized (TagDictionary.class) {
+      return size;
+    }
+  }
+
+  /**
+   * Returns the ids of every tag whose lower-cased form contains the
+   * lower-cased search term.
+   */
+  static BitSet matching(String searchTerm) {
+    String term = searchTerm.toLowerCase();
+    return matching(tag -> tag.toLowerCase().contains(term));
+  }
+
+  /**
+   * Returns the ids of the tags whose lower-cased form starts with the
+   * lower-cased prefix, ordered by lower-cased tag.
+   */
+  static int[] withPrefix(String prefix) {
+    Prefixes current = prefixes;
+    if (current.ids.length != size()) {
+      current = buildPrefixes();
+    }
+    int[] range = current.trie.range(prefix.toLowerCase());
+    return Arrays.copyOfRange(current.ids, range[0], range[1]);
+  }
+
+  private static synchronized Prefixes buildPrefixes() {
+    int count = size;
+    if (prefixes.ids.length == count) {
+      return prefixes;
+    }
+    Integer[] order = new Integer[count];
+    String[] lowered = new String[count];
+    for (int id = 0; id < count; id++) {
+      order[id] = id;
+      lowered[id] = tags[id].toLowerCase();
+    }
+    Arrays.sort(order, (a, b) -> lowered[a].compareTo(lowered[b]));
+    String[] sorted = new String[count];
+    int[] ids = new int[count];
+    for (int i = 0; i < count; i++) {
+      ids[i] = order[i];
+      sorted[i] = lowered[order[i]];
+    }
+    prefixes = new Prefixes(sorted, ids);
+    return prefixes;
+  }
+
+  /** Returns the ids of every tag equal to the given one, ignoring case. */
+  static BitSet matchingIgnoreCase(String tag) {
+    return matching(tag::equalsIgnoreCase);
+  }
+
+  private static BitSet matching(Predicate<String> filter) {
+    BitSet matches = new BitSet();
+    String[] current;
+    int count;
+    synchronized (TagDictionary.class) {
+      current = tags;
+      count = size;
+    }
+    for (int id = 0; id < count; id++) {
+      if (filter.test(current[id])) {
+        matches.set(id);
+      }
+    }
+    return matches;
+  }
+}
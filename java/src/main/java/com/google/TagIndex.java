@@ -0,0 +1,105 @@
+package com.google;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Inverted index from {@link TagDictionary} ids to a {@link RowBitmap} of the
+ * rows of a {@link CatalogStore} carrying that tag. A tag search resolves the
+ * term to tag ids through the dictionary, then ORs their bitmaps; it never
+ * looks at a row that does not match.
+ *
+ * <p>Like {@link TitleIndex}, an index covers the rows below
+ * {@link #indexedRows()}, keeps retired rows until it is rebuilt, and is
+ * immutable once built: {@link #extend} derives the next version, sharing
+ * every bitmap it does not touch.
+ */
+final class TagIndex {
+
+  /** Per tag id: the rows carrying it, or null if none do. */
+  private final RowBitmap[] rowsByTag;
+  private final int indexedRows;
+
+  private TagIndex(RowBitmap[] rowsByTag, int indexedRows) {
+    this.rowsByTag = rowsByTag;
+    this.indexedRows = indexedRows;
+  }
+
+  /** Indexes every live row of the store. */
+  static TagIndex build(CatalogStore store) {
+    return new TagIndex(new RowBitmap[0], 0).add(store, 0);
+  }
+
+  /**
+   * Returns an index of the same store, or a fork of it, that also covers the
+   * rows added since this one was built. Rebuilds from scratch instead once
+   * retired rows outnumber live ones.
+   */
+  TagIndex extend(CatalogStore store) {
+    if (store.rowCount() - store.size() > store.size()) {
+      return build(store);
+    }
+    return add(store, indexedRows);
+  }
+
+  private TagIndex add(CatalogStore store, int fromRow) {
+    RowBitmap.Builder[] builders = new RowBitmap.Builder[TagDictionary.size()];
+    for (int row = store.nextLiveRow(fromRow); row >= 0; row = store.nextLiveRow(row + 1)) {
+      for (int i = 0; i < store.tagCount(row); i++) {
+        int tag = store.tagId(row, i);
+        if (tag >= builders.length) {
+          builders = Arrays.copyOf(builders, Math.max(tag + 1, builders.length * 2));
+        }
+        if (builders[tag] == null) {
+          builders[tag] = new RowBitmap.Builder();
+        }
+        builders[tag].add(row);
+      }
+    }
+    RowBitmap[] rows = Arrays.copyOf(rowsByTag, Math.max(rowsByTag.length, builders.length));
+    for (int tag = 0; tag < builders.length; tag++) {
+      if (builders[tag] != null) {
+        RowBitmap added = builders[tag].build();
+        rows[tag] = rows[tag] == null ? added : rows[tag].or(added);
+      }
+    }
+    return new TagIndex(rows, store.rowCount());
+  }
+
+  /** Rows below this have been indexed. */
+  int indexedRows() {
+    return indexedRows;
+  }
+
+  /** Returns the indexed rows carrying the tag, including retired ones. */
+  RowBitmap rows(int tagId) {
+    RowBitmap rows = tagId < rowsByTag.length ? rowsByTag[tagId] : null;
+    return rows == null ? RowBitmap.EMPTY : rows;
+  }
+
+  /** Returns the total size of the tags' bitmaps, at least the size of their union. */
+  long estimate(BitSet tagIds) {
+    long estimate = 0;
+    for (int tag = tagIds.nextSetBit(0); tag >= 0 && tag < rowsByTag.length;
+        tag = tagIds.nextSetBit(tag + 1)) {
+      if (rowsByTag[tag] != null) {
+        estimate += rowsByTag[tag].cardinality();
+      }
+    }
+    return estimate;
+  }
+
+  /** Returns the indexed rows carrying any of the tags, including retired ones. */
+  RowBitmap rows(BitSet tagIds) {
+    List<RowBitmap> bitmaps = new ArrayList<>();
+    for (int tag = tagIds.nextSetBit(0); tag >= 0 && tag < rowsByTag.length;
+        tag = tagIds.nextSetBit(tag + 1)) {
+      if (rowsByTag[tag] != null) {
+        bitmaps.add(rowsByTag[tag]);
+      }
+    }
+    return RowBitmap.union(bitmaps);
+  }
+}
@@ -0,0 +1,365 @@
+package com.google;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A boolean expression over video tags, such as
+ * {@code #cat AND (#animal OR #pet) AND NOT #google}.
+ *
+ * <p>{@code NOT} binds tighter than {@code AND}, which binds tighter than
+ * {@code OR}; keywords are case-insensitive and a tag matches ignoring case.
+ * Tags are resolved to {@link TagDictionary} ids when the query is parsed,
+ * and the query then runs as {@link RowBitmap} operations over a store's
+ * {@link TagIndex}. The operands of an {@code AND} are evaluated from the
+ * fewest rows to the most, so the most selective tag narrows the result
+ * first, and evaluation stops as soon as it is empty.
+ */
+final class TagQuery {
+
+  private final Node root;
+  private final String text;
+
+  private TagQuery(Node root, String text) {
+    this.root = root;
+    this.text = text;
+  }
+
+  /**
+   * Parses a tag expression.
+   *
+   * @throws IllegalArgumentException if the expression is malformed, with a
+   *     message saying why
+   */
+  static TagQuery parse(String expression) {
+    Parser parser = new Parser(tokenize(expression));
+    Node root = parser.parseOr();
+    if (parser.position < parser.tokens.size()) {
+      throw new IllegalArgumentException("Unexpected " + parser.tokens.get(parser.position));
+    }
+    return new TagQuery(root, expression.trim());
+  }
+
+  /** Returns a query matching videos with any of the given tag ids. */
+  static TagQuery anyOf(BitSet tagIds) {
+    return new TagQuery(new Tag(tagIds), tagIds.toString());
+  }
+
+  /**
+   * Returns the rows of the store matching the query. The result may include
+   * retired rows, which callers must skip.
+   */
+  RowBitmap evaluate(CatalogStore store) {
+    return root.evaluate(store);
+  }
+
+  /** Returns whether the row matches the query, without consulting any index. */
+  boolean matches(CatalogStore store, int row) {
+    return root.matches(store, row);
+  }
+
+  /**
+   * Returns a normal form of the query: queries with the same key match the
+   * same rows, whatever their spacing, case or tag spelling.
+   */
+  String key() {
+    StringBuilder key = new StringBuilder();
+    root.appendKey(key);
+    return key.toString();
+  }
+
+  @Override
+  public String toString() {
+    return text;
+  }
+
+  private static List<String> tokenize(String expression) {
+    List<String> tokens = new ArrayList<>();
+    StringBuilder token = new StringBuilder();
+    for (char c : expression.toCharArray()) {
+      if (c == '(' || c == ')' || Character.isWhitespace(c)) {
+        if (token.length() > 0) {
+          tokens.add(token.toString());
+          token.setLength(0);
+        }
+        if (!Character.isWhitespace(c)) {
+          tokens.add(String.valueOf(c));
+        }
+      } else {
+        token.append(c);
+      }
+    }
+    if (token.length() > 0) {
+      tokens.add(token.toString());
+    }
+    return tokens;
+  }
+
+  /** Recursive descent over the tokens, one method per precedence level. */
+  private static final class Parser {
+
+    private final List<String> tokens;
+    private int position;
+
+    Parser(List<String> tokens) {
+      this.tokens = tokens;
+    }
+
+    Node parseOr() {
+      List<Node> operands = new ArrayList<>();
+      operands.add(parseAnd());
+      while (accept("OR")) {
+        operands.add(parseAnd());
+      }
+      return operands.size() == 1 ? operands.get(0) : new Or(operands);
+    }
+
+    Node parseAnd() {
+      List<Node> operands = new ArrayList<>();
+      operands.add(parseNot());
+      while (accept("AND")) {
+        operands.add(parseNot());
+      }
+      return operands.size() == 1 ? operands.get(0) : new And(operands);
+    }
+
+    Node parseNot() {
+      if (accept("NOT")) {
+        return new Not(parseNot());
+      }
+      if (accept("(")) {
+        Node node = parseOr();
+        if (!accept(")")) {
+          throw new IllegalArgumentException("Missing )");
+        }
+        return node;
+      }
+      if (position == tokens.size()) {
+        throw new IllegalArgumentException("Expected a tag at the end");
+      }
+      String tag = tokens.get(position);
+      if (isKeyword(tag) || tag.equals(")")) {
+        throw new IllegalArgumentException("Expected a tag before " + tag);
+      }
+      position++;
+      return new Tag(TagDictionary.matchingIgnoreCase(tag));
+    }
+
+    private boolean accept(String keyword) {
+      if (position < tokens.size() && tokens.get(position).equalsIgnoreCase(keyword)) {
+        position++;
+        return true;
+      }
+      return false;
+    }
+
+    private static boolean isKeyword(String token) {
+      String upper = token.toUpperCase(Locale.ROOT);
+      return upper.equals("AND") || upper.equals("OR") || upper.equals("NOT");
+    }
+  }
+
+  private abstract static class Node {
+
+    abstract RowBitmap evaluate(CatalogStore store);
+
+    /** Cheap estimate of how many rows {@link #evaluate} returns, to order operands. */
+    abstract long estimate(CatalogStore store);
+
+    abstract boolean matches(CatalogStore store, int row);
+
+    abstract void appendKey(StringBuilder key);
+  }
+
+  private static final class Tag extends Node {
+
+    private final BitSet tagIds;
+
+    Tag(BitSet tagIds) {
+      this.tagIds = tagIds;
+    }
+
+    @Override
+    RowBitmap evaluate(CatalogStore store) {
+      return store.tagRows(tagIds);
+    }
+
+    @Override
+    long estimate(CatalogStore store) {
+      return store.tagRowsEstimate(tagIds);
+    }
+
+    @Override
+    boolean matches(CatalogStore store, int row) {
+      for (int i = 0; i < store.tagCount(row); i++) {
+        if (tagIds.get(store.tagId(row, i))) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    void appendKey(StringBuilder key) {
+      key.append(tagIds);
+    }
+  }
+
+  private static final class Not extends Node {
+
+    private final Node operand;
+
+    Not(Node operand) {
+      this.operand = operand;
+    }
+
+    @Override
+    RowBitmap evaluate(CatalogStore store) {
+      return store.liveRows().andNot(operand.evaluate(store));
+    }
+
+    @Override
+    long estimate(CatalogStore store) {
+      return store.size();
+    }
+
+    @Override
+    boolean matches(CatalogStore store, int row) {
+      return !operand.matches(store, row);
+    }
+
+    @Override
+    void appendKey(StringBuilder key) {
+      key.append("NOT ");
+      operand.appendKey(key);
+    }
+  }
+
+  private static final class And extends Node {
+
+    private final List<Node> positive = new ArrayList<>();
+    private final List<Node> negative = new ArrayList<>();
+
+    And(List<Node> operands) {
+      for (Node operand : operands) {
+        // Subtract negated operands rather than building their complements.
+        if (operand instanceof Not) {
+          negative.add(((Not) operand).operand);
+        } else {
+          positive.add(operand);
+        }
+      }
+    }
+
+    @Override
+    RowBitmap evaluate(CatalogStore store) {
+      List<Node> ordered = new ArrayList<>(positive);
+      ordered.sort(Comparator.comparingLong(node -> node.estimate(store)));
+      RowBitmap result = ordered.isEmpty() ? store.liveRows() : null;
+      for (Node node : ordered) {
+        result = result == null ? node.evaluate(store) : result.and(node.evaluate(store));
+        if (result.isEmpty()) {
+          return result;
+        }
+      }
+      for (Node node : negative) {
+        result = result.andNot(node.evaluate(store));
+        if (result.isEmpty()) {
+          return result;
+        }
+      }
+      return result;
+    }
+
+    @Override
+    long estimate(CatalogStore store) {
+      long estimate = store.size();
+      for (Node node : positive) {
+        estimate = Math.min(estimate, node.estimate(store));
+      }
+      return estimate;
+    }
+
+    @Override
+    boolean matches(CatalogStore store, int row) {
+      for (Node node : positive) {
+        if (!node.matches(store, row)) {
+          return false;
+        }
+      }
+      for (Node node : negative) {
+        if (node.matches(store, row)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    void appendKey(StringBuilder key) {
+      String separator = "(";
+      for (Node node : positive) {
+        key.append(separator);
+        node.appendKey(key);
+        separator = " AND ";
+      }
+      for (Node node : negative) {
+        key.append(separator).append("NOT ");
+        node.appendKey(key);
+        separator = " AND ";
+      }
+      key.append(')');
+    }
+  }
+
+  private static final class Or extends Node {
+
+    private final List<Node> operands;
+
+    Or(List<Node> operands) {
+      this.operands = operands;
+    }
+
+    @Override
+    RowBitmap evaluate(CatalogStore store) {
+      List<RowBitmap> bitmaps = new ArrayList<>(operands.size());
+      for (Node operand : operands) {
+        bitmaps.add(operand.evaluate(store));
+      }
+      return RowBitmap.union(bitmaps);
+    }
+
+    @Override
+    long estimate(CatalogStore store) {
+      long estimate = 0;
+      for (Node operand : operands) {
+        estimate += operand.estimate(store);
+      }
+      return Math.min(estimate, store.rowCount());
+    }
+
+    @Override
+    boolean matches(CatalogStore store, int row) {
+      for (Node operand : operands) {
+        if (operand.matches(store, row)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    void appendKey(StringBuilder key) {
+      String separator = "(";
+      for (Node operand : operands) {
+        key.append(separator);
+        operand.appendKey(key);
+        separator = " OR ";
+      }
+      key.append(')');
+    }
+  }
+}
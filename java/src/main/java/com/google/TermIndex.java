@@ -0,0 +1,331 @@
+package com.google;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
+
+/**
+ * Word-level inverted index over the titles and tags of a
+ * {@link CatalogStore}, for ranking rows by relevance with BM25. A row's
+ * terms are the lower-cased runs of letters and digits in its title and
+ * tags; for every term the index keeps the rows holding it, in ascending
+ * order, with how often each holds it, and per row how many terms it holds.
+ *
+ * <p>Queries are answered with MaxScore: each term's contribution to a score
+ * is bounded from above, and once the results kept so far beat the combined
+ * bound of the lowest-bounded terms, rows holding only those terms are never
+ * visited, and those terms are only looked up for rows still able to make the
+ * cut. Common terms have low bounds, so they soon cost little.
+ *
+ * <p>Statistics are per store, so each shard ranks by its own document
+ * frequencies. Like {@link TitleIndex}, an index covers the rows below
+ * {@link #indexedRows()}, counts retired rows until it is rebuilt, and is
+ * immutable once built; {@link #extend} shares arrays with this version and
+ * only appends past what it reads, so a version must be extended at most
+ * once.
+ */
+final class TermIndex {
+
+  /** Term frequency saturation. */
+  static final float K1 = 1.2f;
+  /** How strongly scores are normalized by row length. */
+  static final float B = 0.75f;
+
+  private final HashMap<String, Integer> termIds;
+  /** Per term: the rows holding it, valid up to {@link #lengths}. */
+  private final int[][] postings;
+  /** Per term: how often each row in its postings holds it, capped at 127. */
+  private final byte[][] frequencies;
+  private final int[] lengths;
+  /** Per term: the highest of its frequencies. */
+  private final byte[] maxFrequencies;
+  /** Per row: how many terms it holds. */
+  private final int[] rowLengths;
+  private final int rowsIndexed;
+  private final long totalLength;
+  private final int indexedRows;
+
+  private TermIndex(HashMap<String, Integer> termIds, int[][] postings, byte[][] frequencies,
+      int[] lengths, byte[] maxFrequencies, int[] rowLengths, int rowsIndexed, long totalLength,
+      int indexedRows) {
+    this.termIds = termIds;
+    this.postings = postings;
+    this.frequencies = frequencies;
+    this.lengths = lengths;
+    this.maxFrequencies = maxFrequencies;
+    this.rowLengths = rowLengths;
+    this.rowsIndexed = rowsIndexed;
+    this.totalLength = totalLength;
+    this.indexedRows = indexedRows;
+  }
+
+  /** Indexes every live row of the store. */
+  static TermIndex build(CatalogStore store) {
+    Builder builder = new Builder(new HashMap<>(), new int[64][], new byte[64][], new int[64],
+        new byte[64], new int[0], 0, 0);
+    builder.addRows(store, 0);
+    return builder.build(store.rowCount());
+  }
+
+  /**
+   * Returns an index of the same store, or a fork of it, that also covers the
+   * rows added since this one was built. Rebuilds from scratch instead once
+   * retired rows outnumber live ones. Copies the term tables, so costs time
+   * in proportion to the distinct terms as well as the added rows.
+   */
+  TermIndex extend(CatalogStore store) {
+    if (store.rowCount() - store.size() > store.size()) {
+      return build(store);
+    }
+    Builder builder = new Builder(new HashMap<>(termIds), postings.clone(),
+        frequencies.clone(), lengths.clone(), maxFrequencies.clone(), rowLengths, rowsIndexed,
+        totalLength);
+    builder.addRows(store, indexedRows);
+    return builder.build(store.rowCount());
+  }
+
+  /** Rows below this have been indexed. */
+  int indexedRows() {
+    return indexedRows;
+  }
+
+  /** Returns the distinct terms of a text, in order of first appearance. */
+  static List<String> terms(String text) {
+    List<String> terms = new ArrayList<>();
+    forEachTerm(text, term -> {
+      if (!terms.contains(term)) {
+        terms.add(term);
+      }
+    });
+    return terms;
+  }
+
+  /** Calls the action with each lower-cased run of letters and digits in the text. */
+  static void forEachTerm(String text, Consumer<String> action) {
+    int start = -1;
+    for (int i = 0; i <= text.length(); i++) {
+      boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+      if (wordChar && start < 0) {
+        start = i;
+      } else if (!wordChar && start >= 0) {
+        action.accept(text.substring(start, i).toLowerCase());
+        start = -1;
+      }
+    }
+  }
+
+  /** Calls the action with every term of the row's title and tags, repeats included. */
+  private static void forEachTerm(CatalogStore store, int row, Consumer<String> action) {
+    forEachTerm(store.title(row), action);
+    for (String tag : store.tags(row)) {
+      forEachTerm(tag, action);
+    }
+  }
+
+  /**
+   * Offers {@code top} every indexed row the filter accepts that holds at
+   * least one of the distinct terms, packed by {@link #pack} with its score,
+   * except rows that provably cannot be among the values {@code top} keeps.
+   */
+  void search(List<String> terms, IntPredicate accept, TopK top) {
+    int[] ids = terms.stream()
+        .map(termIds::get)
+        .filter(id -> id != null && lengths[id] > 0)
+        .sorted((a, b) -> Float.compare(upperBound(a), upperBound(b)))
+        .mapToInt(Integer::intValue)
+        .toArray();
+    int count = ids.length;
+    float[] idfs = new float[count];
+    // The most the terms up to each one, in bound order, can add together.
+    float[] bounds = new float[count];
+    for (int i = 0; i < count; i++) {
+      idfs[i] = idf(ids[i]);
+      bounds[i] = upperBound(ids[i]) + (i > 0 ? bounds[i - 1] : 0);
+    }
+    float averageLength = (float) totalLength / Math.max(1, rowsIndexed);
+    int[] positions = new int[count];
+    float threshold = 0;
+    // Terms below this one cannot lift a row into the results on their own.
+    int essential = 0;
+    while (essential < count) {
+      int row = Integer.MAX_VALUE;
+      for (int i = essential; i < count; i++) {
+        if (positions[i] < lengths[ids[i]]) {
+          row = Math.min(row, postings[ids[i]][positions[i]]);
+        }
+      }
+      if (row == Integer.MAX_VALUE) {
+        break;
+      }
+      float norm = K1 * (1 - B + B * rowLengths[row] / averageLength);
+      float score = 0;
+      for (int i = essential; i < count; i++) {
+        int id = ids[i];
+        if (positions[i] < lengths[id] && postings[id][positions[i]] == row) {
+          score += termScore(idfs[i], frequencies[id][positions[i]], norm);
+          positions[i]++;
+        }
+      }
+      if (!accept.test(row)) {
+        continue;
+      }
+      for (int i = essential - 1; i >= 0 && score + bounds[i] > threshold; i--) {
+        int id = ids[i];
+        positions[i] = TitleIndex.seek(postings[id], positions[i], lengths[id], row);
+        if (positions[i] < lengths[id] && postings[id][positions[i]] == row) {
+          score += termScore(idfs[i], frequencies[id][positions[i]], norm);
+        }
+      }
+      if (!top.isFull() || score > threshold) {
+        top.offer(pack(score, row));
+        if (top.isFull()) {
+          threshold = score(top.max());
+          while (essential < count && bounds[essential] <= threshold) {
+            essential++;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Scores a row this index may not cover for the distinct terms, using the
+   * index's statistics; 0 if it holds none of them.
+   */
+  float score(CatalogStore store, int row, List<String> terms) {
+    int[] counts = new int[terms.size()];
+    int[] rowLength = {0};
+    forEachTerm(store, row, term -> {
+      rowLength[0]++;
+      int i = terms.indexOf(term);
+      if (i >= 0) {
+        counts[i]++;
+      }
+    });
+    float averageLength = (float) totalLength / Math.max(1, rowsIndexed);
+    float norm = K1 * (1 - B + B * rowLength[0] / Math.max(1, averageLength));
+    float score = 0;
+    for (int i = 0; i < counts.length; i++) {
+      if (counts[i] > 0) {
+        Integer id = termIds.get(terms.get(i));
+        float idf = id == null ? inverseFrequency(0) : idf(id);
+        score += termScore(idf, Math.min(counts[i], Byte.MAX_VALUE), norm);
+      }
+    }
+    return score;
+  }
+
+  private float idf(int id) {
+    return inverseFrequency(lengths[id]);
+  }
+
+  private float inverseFrequency(int rowsWithTerm) {
+    return (float) Math.log(1 + (rowsIndexed - rowsWithTerm + 0.5) / (rowsWithTerm + 0.5));
+  }
+
+  private static float termScore(float idf, int frequency, float norm) {
+    return idf * frequency * (K1 + 1) / (frequency + norm);
+  }
+
+  /** The most the term can add to a score: its best frequency in the shortest row possible. */
+  private float upperBound(int id) {
+    return termScore(idf(id), maxFrequencies[id], K1 * (1 - B));
+  }
+
+  /**
+   * Packs a non-negative score and a row so that higher scores come first
+   * in ascending order, and lower rows first among equal scores.
+   */
+  static long pack(float score, int row) {
+    return (long) (Integer.MAX_VALUE - Float.floatToIntBits(score)) << 32 | row;
+  }
+
+  static float score(long packed) {
+    return Float.intBitsToFloat(Integer.MAX_VALUE - (int) (packed >>> 32));
+  }
+
+  static int row(long packed) {
+    return (int) packed;
+  }
+
+  /** Adds rows to a copy of an index's tables, growing them as needed. */
+  private static final class Builder {
+
+    private final HashMap<String, Integer> termIds;
+    private int[][] postings;
+    private byte[][] frequencies;
+    private int[] lengths;
+    private byte[] maxFrequencies;
+    private int[] rowLengths;
+    private int rowsIndexed;
+    private long totalLength;
+
+    Builder(HashMap<String, Integer> termIds, int[][] postings, byte[][] frequencies,
+        int[] lengths, byte[] maxFrequencies, int[] rowLengths, int rowsIndexed,
+        long totalLength) {
+      this.termIds = termIds;
+      this.postings = postings;
+      this.frequencies = frequencies;
+      this.lengths = lengths;
+      this.maxFrequencies = maxFrequencies;
+      this.rowLengths = rowLengths;
+      this.rowsIndexed = rowsIndexed;
+      this.totalLength = totalLength;
+    }
+
+    void addRows(CatalogStore store, int fromRow) {
+      if (rowLengths.length < store.rowCount()) {
+        rowLengths = Arrays.copyOf(rowLengths,
+            Math.max(store.rowCount(), rowLengths.length + (rowLengths.length >> 1)));
+      }
+      HashMap<String, Integer> counts = new HashMap<>();
+      for (int row = store.nextLiveRow(fromRow); row >= 0; row = store.nextLiveRow(row + 1)) {
+        counts.clear();
+        forEachTerm(store, row, term -> counts.merge(term, 1, Integer::sum));
+        int rowLength = 0;
+        for (var entry : counts.entrySet()) {
+          add(entry.getKey(), row, entry.getValue());
+          rowLength += entry.getValue();
+        }
+        rowLengths[row] = rowLength;
+        totalLength += rowLength;
+        rowsIndexed++;
+      }
+    }
+
+    private void add(String term, int row, int count) {
+      Integer id = termIds.get(term);
+      if (id == null) {
+        id = termIds.size();
+        termIds.put(term, id);
+        if (id == postings.length) {
+          int capacity = id * 2;
+          postings = Arrays.copyOf(postings, capacity);
+          frequencies = Arrays.copyOf(frequencies, capacity);
+          lengths = Arrays.copyOf(lengths, capacity);
+          maxFrequencies = Arrays.copyOf(maxFrequencies, capacity);
+        }
+        postings[id] = new int[2];
+        frequencies[id] = new byte[2];
+      }
+      int length = lengths[id];
+      if (length == postings[id].length) {
+        postings[id] = Arrays.copyOf(postings[id], length * 2);
+        frequencies[id] = Arrays.copyOf(frequencies[id], length * 2);
+      }
+      byte frequency = (byte) Math.min(count, Byte.MAX_VALUE);
+      postings[id][length] = row;
+      frequencies[id][length] = frequency;
+      lengths[id] = length + 1;
+      maxFrequencies[id] = (byte) Math.max(maxFrequencies[id], frequency);
+    }
+
+    TermIndex build(int indexedRows) {
+      return new TermIndex(termIds, postings, frequencies, lengths, maxFrequencies, rowLengths,
+          rowsIndexed, totalLength, indexedRows);
+    }
+  }
+}
@@ -0,0 +1,208 @@
+package com.google;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Trigram inverted index over the lower-cased titles of a
+ * {@link CatalogStore}: for every three-character sequence, the rows whose
+ * title contains it, in ascending order. A substring query intersects the
+ * lists of its own trigrams and only checks the rows left, so it costs time
+ * in proportion to the rarest trigram's list rather than the catalog.
+ *
+ * <p>An index covers the store's rows below {@link #indexedRows()}. Retired
+ * rows stay in the lists and are skipped when checked. Each version is
+ * immutable once built; {@link #extend} derives the next one, sharing list
+ * arrays and only appending past the ends this version reads, so a version
+ * must be extended at most once.
+ */
+final class TitleIndex {
+
+  /** Queries shorter than a trigram are answered by a scan. */
+  static final int GRAM = 3;
+
+  /** Open-addressed trigram table; 0 marks an empty slot. */
+  private final long[] keys;
+  /** Per slot: the rows holding that trigram, valid up to {@link #lengths}. */
+  private final int[][] postings;
+  private final int[] lengths;
+  private final int trigramCount;
+  private final int indexedRows;
+
+  private TitleIndex(long[] keys, int[][] postings, int[] lengths, int trigramCount,
+      int indexedRows) {
+    this.keys = keys;
+    this.postings = postings;
+    this.lengths = lengths;
+    this.trigramCount = trigramCount;
+    this.indexedRows = indexedRows;
+  }
+
+  /** Indexes every live row of the store. */
+  static TitleIndex build(CatalogStore store) {
+    Builder builder = new Builder(new long[1024], new int[1024][], new int[1024], 0);
+    builder.addRows(store, 0);
+    return builder.build(store.rowCount());
+  }
+
+  /**
+   * Returns an index of the same store, or a fork of it, that also covers the
+   * rows added since this one was built. Rebuilds from scratch instead once
+   * retired rows outnumber live ones. Copies the trigram tables, so costs
+   * time in proportion to the distinct trigrams as well as the added rows.
+   */
+  TitleIndex extend(CatalogStore store) {
+    if (store.rowCount() - store.size() > store.size()) {
+      return build(store);
+    }
+    Builder builder = new Builder(keys.clone(), postings.clone(), lengths.clone(), trigramCount);
+    builder.addRows(store, indexedRows);
+    return builder.build(store.rowCount());
+  }
+
+  /** Rows below this have been indexed. */
+  int indexedRows() {
+    return indexedRows;
+  }
+
+  /**
+   * Calls the action, in ascending order, with every live indexed row of the
+   * store whose lower-cased title contains the lower-cased term. The term
+   * must be at least {@link #GRAM} characters long once lower-cased.
+   */
+  void search(CatalogStore store, String term, IntConsumer action) {
+    String needle = term.toLowerCase();
+    int gramCount = needle.length() - GRAM + 1;
+    int[] slots = new int[gramCount];
+    for (int i = 0; i < gramCount; i++) {
+      int slot = find(keys, trigram(needle, i));
+      if (keys[slot] == 0) {
+        return;
+      }
+      slots[i] = slot;
+    }
+    // Walk the shortest list and look the others up as needed.
+    int[] order = Arrays.stream(slots).distinct().boxed()
+        .sorted((a, b) -> Integer.compare(lengths[a], lengths[b]))
+        .mapToInt(Integer::intValue)
+        .toArray();
+    int[] positions = new int[order.length];
+    int[] first = postings[order[0]];
+    candidates:
+    for (int i = 0; i < lengths[order[0]]; i++) {
+      int row = first[i];
+      for (int j = 1; j < order.length; j++) {
+        int slot = order[j];
+        positions[j] = seek(postings[slot], positions[j], lengths[slot], row);
+        if (positions[j] == lengths[slot]) {
+          return;
+        }
+        if (postings[slot][positions[j]] != row) {
+          continue candidates;
+        }
+      }
+      if (store.isLive(row) && store.title(row).toLowerCase().contains(needle)) {
+        action.accept(row);
+      }
+    }
+  }
+
+  /** Returns the first position at or after {@code from} holding a row >= {@code row}. */
+  static int seek(int[] rows, int from, int length, int row) {
+    // Gallop ahead, then binary search the last step.
+    int step = 1;
+    int high = from;
+    while (high < length && rows[high] < row) {
+      from = high + 1;
+      high += step;
+      step <<= 1;
+    }
+    high = Math.min(high + 1, length);
+    int index = Arrays.binarySearch(rows, from, high, row);
+    return index >= 0 ? index : -index - 1;
+  }
+
+  /** Packs three characters into a non-zero key. */
+  private static long trigram(String text, int at) {
+    return 1L << 48 | (long) text.charAt(at) << 32 | (long) text.charAt(at + 1) << 16
+        | text.charAt(at + 2);
+  }
+
+  private static int find(long[] keys, long key) {
+    int mask = keys.length - 1;
+    int slot = (int) PerfectIdIndex.mix(key) & mask;
+    while (keys[slot] != 0 && keys[slot] != key) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  /** Adds rows to a copy of an index's tables, growing them as needed. */
+  private static final class Builder {
+
+    private long[] keys;
+    private int[][] postings;
+    private int[] lengths;
+    private int trigramCount;
+
+    Builder(long[] keys, int[][] postings, int[] lengths, int trigramCount) {
+      this.keys = keys;
+      this.postings = postings;
+      this.lengths = lengths;
+      this.trigramCount = trigramCount;
+    }
+
+    void addRows(CatalogStore store, int fromRow) {
+      for (int row = store.nextLiveRow(fromRow); row >= 0; row = store.nextLiveRow(row + 1)) {
+        String title = store.title(row).toLowerCase();
+        for (int i = 0; i + GRAM <= title.length(); i++) {
+          add(trigram(title, i), row);
+        }
+      }
+    }
+
+    private void add(long key, int row) {
+      int slot = find(keys, key);
+      if (keys[slot] == 0) {
+        keys[slot] = key;
+        postings[slot] = new int[2];
+        if (++trigramCount * 2 > keys.length) {
+          rehash();
+          slot = find(keys, key);
+        }
+      }
+      int[] rows = postings[slot];
+      int length = lengths[slot];
+      if (length > 0 && rows[length - 1] == row) {
+        return;
+      }
+      if (length == rows.length) {
+        rows = Arrays.copyOf(rows, length * 2);
+        postings[slot] = rows;
+      }
+      rows[length] = row;
+      lengths[slot] = length + 1;
+    }
+
+    private void rehash() {
+      long[] oldKeys = keys;
+      int[][] oldPostings = postings;
+      int[] oldLengths = lengths;
+      keys = new long[oldKeys.length * 2];
+      postings = new int[keys.length][];
+      lengths = new int[keys.length];
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldKeys[i] != 0) {
+          int slot = find(keys, oldKeys[i]);
+          keys[slot] = oldKeys[i];
+          postings[slot] = oldPostings[i];
+          lengths[slot] = oldLengths[i];
+        }
+      }
+    }
+
+    TitleIndex build(int indexedRows) {
+      return new TitleIndex(keys, postings, lengths, trigramCount, indexedRows);
+    }
+  }
+}
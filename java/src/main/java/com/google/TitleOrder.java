@@ -0,0 +1,153 @@
+package com.google;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+
+/**
+ * The rows of a {@link CatalogStore} sorted by title ignoring case, with each
+ * row's collation key (its lower-cased title) computed once, when the row is
+ * indexed. Listings walk the order, and search results are put in order by
+ * comparing integer ranks, so nothing is lower-cased or compared as text at
+ * query time.
+ *
+ * <p>Like {@link TitleIndex}, an order covers the rows below
+ * {@link #indexedRows()}, keeps retired rows until it is rebuilt, and is
+ * immutable once built. {@link #extend} shares the key array, only writing
+ * past the rows this version covers, so a version must be extended at most
+ * once.
+ *
+ * <p>Each version also carries a {@link PrefixTrie} over its keys in order,
+ * so the rows whose title starts with a prefix are found without a scan.
+ */
+final class TitleOrder {
+
+  /** Per row: its collation key, or null if it was not live when indexed. */
+  private final String[] keys;
+  /** Indexed rows by key, equal keys by row. */
+  private final int[] rows;
+  /** Per row: its position in {@link #rows}, or -1. */
+  private final int[] ranks;
+  /** Over the keys of {@link #rows}, by position. */
+  private final PrefixTrie prefixes;
+  private final int indexedRows;
+
+  private TitleOrder(String[] keys, int[] rows, int[] ranks, int indexedRows) {
+    this.keys = keys;
+    this.rows = rows;
+    this.ranks = ranks;
+    this.prefixes = PrefixTrie.build(position -> keys[rows[position]], rows.length);
+    this.indexedRows = indexedRows;
+  }
+
+  /** Orders every live row of the store. */
+  static TitleOrder build(CatalogStore store) {
+    return new TitleOrder(new String[0], new int[0], new int[0], 0).add(store, 0);
+  }
+
+  /**
+   * Returns an order of the same store, or a fork of it, that also covers the
+   * rows added since this one was built. Rebuilds from scratch instead once
+   * retired rows outnumber live ones. Merges into a new order and rebuilds
+   * the prefix trie, so costs time in proportion to all ordered rows.
+   */
+  TitleOrder extend(CatalogStore store) {
+    if (store.rowCount() - store.size() > store.size()) {
+      return build(store);
+    }
+    return add(store, indexedRows);
+  }
+
+  private TitleOrder add(CatalogStore store, int fromRow) {
+    int rowCount = store.rowCount();
+    String[] keys = this.keys.length >= rowCount
+        ? this.keys
+        : Arrays.copyOf(this.keys, Math.max(rowCount, this.keys.length + (this.keys.length >> 1)));
+    int[] added = new int[rowCount - fromRow];
+    int count = 0;
+    for (int row = store.nextLiveRow(fromRow); row >= 0; row = store.nextLiveRow(row + 1)) {
+      keys[row] = store.title(row).toLowerCase();
+      added[count++] = row;
+    }
+    // A stable sort of ascending rows leaves equal keys in row order.
+    added = Arrays.stream(added, 0, count).boxed()
+        .sorted((a, b) -> keys[a].compareTo(keys[b]))
+        .mapToInt(Integer::intValue)
+        .toArray();
+
+    // Every added row comes after every ordered one, so it goes last on ties.
+    int[] merged = new int[rows.length + added.length];
+    int i = 0;
+    int j = 0;
+    for (int k = 0; k < merged.length; k++) {
+      if (j == added.length
+          || i < rows.length && keys[rows[i]].compareTo(keys[added[j]]) <= 0) {
+        merged[k] = rows[i++];
+      } else {
+        merged[k] = added[j++];
+      }
+    }
+    int[] ranks = new int[rowCount];
+    Arrays.fill(ranks, -1);
+    for (int k = 0; k < merged.length; k++) {
+      ranks[merged[k]] = k;
+    }
+    return new TitleOrder(keys, merged, ranks, rowCount);
+  }
+
+  /** Rows below this have been ordered. */
+  int indexedRows() {
+    return indexedRows;
+  }
+
+  /** Returns the row's collation key, or null if the row is not ordered. */
+  String key(int row) {
+    return row < indexedRows ? keys[row] : null;
+  }
+
+  /** Returns the row's position in the order, or -1 if it is not ordered. */
+  int rank(int row) {
+    return row < indexedRows ? ranks[row] : -1;
+  }
+
+  /**
+   * Returns the first position in the order that comes after the given key,
+   * or holds it with a row at or above {@code fromRowOnTie}.
+   */
+  int rankOf(String key, int fromRowOnTie) {
+    int low = 0;
+    int high = rows.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      int order = keys[rows[mid]].compareTo(key);
+      if (order < 0 || order == 0 && rows[mid] < fromRowOnTie) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Calls the action, in title order, with the live ordered rows whose key
+   * starts with the prefix, until it returns false.
+   */
+  void forEachWithPrefix(CatalogStore store, String prefix, IntPredicate action) {
+    int[] range = prefixes.range(prefix);
+    for (int i = range[0]; i < range[1]; i++) {
+      if (store.isLive(rows[i]) && !action.test(rows[i])) {
+        return;
+      }
+    }
+  }
+
+  /** Calls the action with every live ordered row of the store, in title order. */
+  void forEach(CatalogStore store, IntConsumer action) {
+    for (int row : rows) {
+      if (store.isLive(row)) {
+        action.accept(row);
+      }
+    }
+  }
+}
@@ -0,0 +1,69 @@
+package com.google;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the {@code k} smallest of the longs offered to it in a bounded
+ * max-heap, so selecting the first k of n values costs O(n log k) time and
+ * O(k) space rather than a sort of all n. Callers pack what they rank by into
+ * the high bits and what they want back into the low bits.
+ */
+final class TopK {
+
+  private final long[] heap;
+  private int size;
+
+  TopK(int k) {
+    heap = new long[k];
+  }
+
+  /** Keeps the value if it is among the k smallest offered so far. */
+  void offer(long value) {
+    if (size < heap.length) {
+      int i = size++;
+      while (i > 0 && heap[(i - 1) >>> 1] < value) {
+        heap[i] = heap[(i - 1) >>> 1];
+        i = (i - 1) >>> 1;
+      }
+      heap[i] = value;
+    } else if (size > 0 && value < heap[0]) {
+      siftDown(value);
+    }
+  }
+
+  private void siftDown(long value) {
+    int i = 0;
+    while (true) {
+      int child = 2 * i + 1;
+      if (child >= size) {
+        break;
+      }
+      if (child + 1 < size && heap[child + 1] > heap[child]) {
+        child++;
+      }
+      if (heap[child] <= value) {
+        break;
+      }
+      heap[i] = heap[child];
+      i = child;
+    }
+    heap[i] = value;
+  }
+
+  /** Returns whether k values are kept, so only smaller ones get in. */
+  boolean isFull() {
+    return size == heap.length;
+  }
+
+  /** Returns the largest value kept; only meaningful once something is. */
+  long max() {
+    return heap[0];
+  }
+
+  /** Returns the kept values, ascending. */
+  long[] sorted() {
+    long[] values = Arrays.copyOf(heap, size);
+    Arrays.sort(values);
+    return values;
+  }
+}
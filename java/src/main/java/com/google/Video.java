@@ -1,49 +1,68 @@
 package com.google;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
-/** A class used to represent a video. */
+/**
+ * A class used to represent a video. A Video is a lightweight view of one row
+ * of its {@link VideoShard}; the data itself stays with the shard, so views
+ * can be created and dropped freely. A row's title, id and tags never change,
+ * while its flag is read from the shard's current version.
+ */
 class Video {
 
-  private final String title;
-  private final String videoId;
-  private final List<String> tags;
+  private final VideoShard shard;
+  private final int row;
 
-  private Boolean isFlagged;
-  private String flagReason;
+  Video(VideoShard shard, int row) {
+    this.shard = shard;
+    this.row = row;
+  }
 
-  Video(String title, String videoId, List<String> tags) {
-    this.title = title;
-    this.videoId = videoId;
-    this.tags = Collections.unmodifiableList(tags);
+  /** Returns the shard holding the video. */
+  VideoShard getShard() {
+    return shard;
+  }
 
-    isFlagged = false;
-    flagReason = null;
+  /** Returns the row of the video in its store. */
+  int getRow() {
+    return row;
+  }
+
+  /** Returns the key the video sorts by: its title, lower-cased once at load. */
+  String titleKey() {
+    return shard.titleKey(row);
   }
 
   /** Returns the title of the video. */
   String getTitle() {
-    return title;
+    return shard.title(row);
   }
 
   /** Returns the video id of the video. */
   String getVideoId() {
-    return videoId;
+    return shard.videoId(row);
   }
 
   /** Returns a readonly collection of the tags of the video. */
   List<String> getTags() {
-    return tags;
+    return shard.tags(row);
+  }
+
+  /** Returns the number of tags on the video. */
+  int getTagCount() {
+    return shard.tagCount(row);
+  }
+
+  /** Returns the dictionary id of the tag at the given position. */
+  int getTagId(int index) {
+    return shard.tagId(row, index);
   }
 
   /**
    * Used to flag a video with no given reason
    */
   public void flag(){
-    isFlagged = true;
-    this.flagReason = "Not supplied";
+    flag("Not supplied");
   }
 
   /**
@@ -51,24 +70,45 @@ class Video {
    * @param flagReason
    */
   public void flag(String flagReason){
-    isFlagged = true;
-    this.flagReason = flagReason;
+    shard.flag(row, flagReason);
   }
 
   /**
    * Removes a video's flag and flag reason
    */
   public void clearFlag(){
-    isFlagged = false;
-    flagReason = null;
+    shard.clearFlag(row);
   }
 
   public Boolean isFlagged() {
-    return isFlagged;
+    return shard.isFlagged(row);
   }
 
   public String getFlagReason() {
-    return flagReason;
+    return shard.flagReason(row);
+  }
+
+  /** Returns whether the video's tags match the query. */
+  boolean matchesTags(TagQuery query) {
+    return shard.matchesTags(query, row);
+  }
+
+  /** Two views are equal when they show the same row of the same shard. */
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof Video)) {
+      return false;
+    }
+    Video other = (Video) o;
+    return shard == other.shard && row == other.row;
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * System.identityHashCode(shard) + row;
   }
 
   /**
@@ -80,13 +120,14 @@ class Video {
   @Override
   public String toString() {
     StringBuilder stringBuilder = new StringBuilder();
-    stringBuilder.append(title + " ");
-    stringBuilder.append("(" + videoId + ") ");
+    stringBuilder.append(shard.title(row) + " ");
+    stringBuilder.append("(" + shard.videoId(row) + ") ");
 
-    if(tags.size() > 0) {
+    int tagCount = shard.tagCount(row);
+    if(tagCount > 0) {
       stringBuilder.append("[");
-      for (String tag : tags) {
-        stringBuilder.append(tag + " ");
+      for (int i = 0; i < tagCount; i++) {
+        stringBuilder.append(TagDictionary.tag(shard.tagId(row, i)) + " ");
       }
       stringBuilder.deleteCharAt(stringBuilder.length() - 1);
       stringBuilder.append("]");
@@ -95,9 +136,9 @@ class Video {
       stringBuilder.append("[]");
     }
 
-    if(isFlagged){
+    if(shard.isFlagged(row)){
       stringBuilder.append(" - FLAGGED (reason: " +
-              flagReason + ")");
+              shard.flagReason(row) + ")");
     }
 
     return stringBuilder.toString();
@@ -0,0 +1,53 @@
+package com.google;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Numbers the videos put in playlists densely from zero, so a playlist can
+ * hold a plain {@code int} per entry, and remembers the current
+ * {@link Video} for each number to resolve entries when they are shown.
+ *
+ * <p>Ids are matched ignoring case and are never given back: a table grows
+ * with the distinct videos ever added, which the catalog bounds, not with
+ * the number of entries. Catalog rows cannot serve as these numbers because
+ * a reload moves a video to a new row.
+ */
+final class VideoIds {
+
+  private final HashMap<String, Integer> numbers = new HashMap<>();
+  private Video[] videos = new Video[16];
+
+  /**
+   * Returns the number of the video's id, assigning the next one if it has
+   * none, and makes the video the one the number resolves to.
+   */
+  int intern(Video video) {
+    int number = numbers.computeIfAbsent(key(video.getVideoId()), key -> numbers.size());
+    if (number == videos.length) {
+      videos = Arrays.copyOf(videos, number * 2);
+    }
+    videos[number] = video;
+    return number;
+  }
+
+  /** Returns the number of the id, or -1 if it has none. */
+  int find(String videoId) {
+    Integer number = numbers.get(key(videoId));
+    return number == null ? -1 : number;
+  }
+
+  /** Returns the video the number resolves to. */
+  Video video(int number) {
+    return videos[number];
+  }
+
+  /** Returns the number of ids numbered so far; all numbers are below it. */
+  int size() {
+    return numbers.size();
+  }
+
+  private static String key(String videoId) {
+    return videoId.toLowerCase();
+  }
+}
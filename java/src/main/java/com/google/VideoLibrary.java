@@ -1,57 +1,621 @@
 package com.google;
 
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.AbstractCollection;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Scanner;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * A class used to represent a Video Library.
+ *
+ * <p>Videos are partitioned by a hash of their id into independent
+ * {@link VideoShard}s. Looking a video up by id asks the one shard that owns
+ * it; listings and searches ask every shard and gather the answers.
  */
 class VideoLibrary {
 
-  private final HashMap<String, Video> videos;
+  /** Notified on the thread that applied a reload, once it is visible. */
+  interface ReloadListener {
+    /**
+     * Called with views of the removed videos, and of each changed video
+     * before and after the change.
+     */
+    void catalogReloaded(List<Video> removed, Map<Video, Video> changed);
+  }
+
+  static final int DEFAULT_SHARDS = 8;
+
+  private final Path catalogFile;
+  private final VideoShard[] shards;
+
+  /** Serializes reloads, so each delta is computed against the last one applied. */
+  private final Object reloadLock = new Object();
+  private final List<ReloadListener> reloadListeners = new CopyOnWriteArrayList<>();
+  private final QueryCache cache = new QueryCache(QueryCache.DEFAULT_CAPACITY);
+  private CatalogWatcher watcher;
 
   VideoLibrary() {
-    this.videos = new HashMap<>();
+    this(new File(VideoLibrary.class.getResource("/videos.txt").getFile()).toPath());
+  }
+
+  VideoLibrary(Path catalogFile) {
+    this(catalogFile, DEFAULT_SHARDS, true);
+  }
+
+  /**
+   * Loads the library from a text catalog file into {@code shardCount} local
+   * shards, memory-mapping the file rather than reading it line by line. If
+   * an up to date binary snapshot of the catalog sits next to it, that is
+   * loaded instead.
+   *
+   * <p>With {@code perfectHash}, each shard builds a minimal perfect hash over
+   * its video ids at load time, so {@link #getVideo} never probes. That costs
+   * some load time, and a rebuild of the shard's hash on each reload that
+   * changes it.
+   */
+  VideoLibrary(Path catalogFile, int shardCount, boolean perfectHash) {
+    this(catalogFile, shardCount, VideoShard.local(perfectHash));
+  }
+
+  /**
+   * Loads the library from a text catalog file, or its snapshot, as above,
+   * handing each of the {@code shardCount} parts to the factory.
+   */
+  VideoLibrary(Path catalogFile, int shardCount, VideoShard.Factory shardFactory) {
+    this.catalogFile = catalogFile;
+    CatalogStore[] stores = newStores(shardCount);
     try {
-      File file = new File(this.getClass().getResource("/videos.txt").getFile());
-
-      Scanner scanner = new Scanner(file);
-      while (scanner.hasNextLine()) {
-        String line = scanner.nextLine();
-        String[] split = line.split("\\|");
-        String title = split[0].strip();
-        String id = split[1].strip();
-        List<String> tags;
-        if (split.length > 2) {
-          tags = Arrays.stream(split[2].split(",")).map(String::strip).collect(
-              Collectors.toList());
-        } else {
-          tags = new ArrayList<>();
+      if (CatalogSnapshot.isCurrent(catalogFile)) {
+        try {
+          CatalogSnapshot.read(CatalogSnapshot.snapshotPath(catalogFile), stores);
+        } catch (IOException e) {
+          System.out.println("Couldn't read catalog snapshot, parsing "
+              + catalogFile.getFileName() + " instead");
+          stores = newStores(shardCount);
+          CatalogParser.parse(catalogFile, stores);
         }
-        this.videos.put(id, new Video(title, id, tags));
+      } else {
+        CatalogParser.parse(catalogFile, stores);
+      }
+    } catch (IOException e) {
+      System.out.println("Couldn't find " + catalogFile.getFileName());
+      e.printStackTrace();
+      stores = newStores(shardCount);
+    }
+    CatalogStore[] loaded = stores;
+    this.shards = new VideoShard[shardCount];
+    IntStream.range(0, shardCount)
+        .parallel()
+        .forEach(i -> shards[i] = shardFactory.create(loaded[i]));
+    for (VideoShard shard : shards) {
+      shard.addFlagListener(cache::flagChanged);
+    }
+  }
+
+  private static CatalogStore[] newStores(int count) {
+    CatalogStore[] stores = new CatalogStore[count];
+    for (int i = 0; i < count; i++) {
+      stores[i] = new CatalogStore();
+    }
+    return stores;
+  }
+
+  /**
+   * Starts watching the catalog file. Whenever it changes it is re-parsed and
+   * diffed on a background thread, and each shard publishes its part of the
+   * difference as one new version.
+   */
+  void startWatching() throws IOException {
+    if (watcher == null) {
+      watcher = new CatalogWatcher(catalogFile, this::reloadQuietly);
+    }
+  }
+
+  void stopWatching() throws IOException {
+    if (watcher != null) {
+      watcher.close();
+      watcher = null;
+    }
+  }
+
+  void addReloadListener(ReloadListener listener) {
+    reloadListeners.add(listener);
+  }
+
+  /**
+   * Re-reads the catalog file and applies the difference shard by shard.
+   * Flags are kept for every video that is still in the catalog.
+   */
+  void reload() throws IOException {
+    List<Video> removed = new ArrayList<>();
+    Map<Video, Video> changed = new LinkedHashMap<>();
+    List<Video> added = new ArrayList<>();
+    synchronized (reloadLock) {
+      CatalogStore[] stores = newStores(shards.length);
+      CatalogParser.parse(catalogFile, stores);
+      for (int i = 0; i < shards.length; i++) {
+        shards[i].reload(stores[i], removed, changed, added);
       }
-    } catch (FileNotFoundException e) {
-      System.out.println("Couldn't find videos.txt");
+    }
+    List<Video> touched = new ArrayList<>(removed);
+    touched.addAll(changed.keySet());
+    touched.addAll(changed.values());
+    touched.addAll(added);
+    cache.catalogChanged(touched);
+    if (removed.isEmpty() && changed.isEmpty()) {
+      return;
+    }
+    for (ReloadListener listener : reloadListeners) {
+      listener.catalogReloaded(removed, changed);
+    }
+  }
+
+  private void reloadQuietly() {
+    try {
+      reload();
+    } catch (IOException e) {
+      System.out.println("Couldn't reload " + catalogFile.getFileName());
       e.printStackTrace();
     }
   }
 
+  /** Returns the number of videos in the library. */
+  int size() {
+    int size = 0;
+    for (VideoShard shard : shards) {
+      size += shard.size();
+    }
+    return size;
+  }
+
+  /**
+   * Returns an unmodifiable view of every video in the library, shard by
+   * shard, as of this call. Nothing is copied; views are created as the
+   * collection is iterated.
+   */
+  Collection<Video> videos() {
+    List<Collection<Video>> parts = new ArrayList<>(shards.length);
+    for (VideoShard shard : shards) {
+      parts.add(shard.videos());
+    }
+    return new AbstractCollection<>() {
+      @Override
+      public Iterator<Video> iterator() {
+        return Spliterators.iterator(spliterator());
+      }
+
+      @Override
+      public Spliterator<Video> spliterator() {
+        List<Spliterator<Video>> spliterators = new ArrayList<>(parts.size());
+        for (Collection<Video> part : parts) {
+          spliterators.add(part.spliterator());
+        }
+        return new ShardSpliterator(spliterators, 0, spliterators.size());
+      }
+
+      @Override
+      public void forEach(Consumer<? super Video> action) {
+        for (Collection<Video> part : parts) {
+          part.forEach(action);
+        }
+      }
+
+      @Override
+      public int size() {
+        int size = 0;
+        for (Collection<Video> part : parts) {
+          size += part.size();
+        }
+        return size;
+      }
+    };
+  }
+
+  /** Calls the action with every video in the library, shard by shard. */
+  void forEach(Consumer<? super Video> action) {
+    for (VideoShard shard : shards) {
+      shard.videos().forEach(action);
+    }
+  }
+
+  /** Returns a splittable traversal of the library, for parallel streams. */
+  Spliterator<Video> spliterator() {
+    return videos().spliterator();
+  }
+
+  /**
+   * Returns the videos matching the filter. Each shard is filtered on its own
+   * thread and the matches are gathered in shard order.
+   */
+  List<Video> search(Predicate<? super Video> filter) {
+    return Arrays.stream(shards)
+        .parallel()
+        .flatMap(shard -> shard.videos().stream().filter(filter))
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Returns the videos whose lower-cased title contains the lower-cased
+   * search term, in title order, answered by each shard's title index in
+   * parallel. Flagged videos are left out unless {@code includeFlagged}.
+   */
+  List<Video> searchTitles(String searchTerm, boolean includeFlagged) {
+    return searchTitles(searchTerm, includeFlagged, SearchPage.ALL);
+  }
+
+  /**
+   * Returns one page of {@link #searchTitles(String, boolean)}. Each shard
+   * selects only its first {@link SearchPage#end()} matches after the page's
+   * cursor, and the merge stops there.
+   */
+  List<Video> searchTitles(String searchTerm, boolean includeFlagged, SearchPage page) {
+    String term = searchTerm.toLowerCase();
+    return search("title " + term, video -> video.titleKey().contains(term), includeFlagged,
+        page, (shard, i, after, limit) ->
+            shard.searchTitles(searchTerm, includeFlagged, after, i, limit));
+  }
+
+  /**
+   * Returns the videos with a tag whose lower-cased form contains the
+   * lower-cased search term, in title order. The term is matched against the
+   * tag dictionary once, then each shard ORs the row bitmaps of the matching
+   * tags. Flagged videos are left out unless {@code includeFlagged}.
+   */
+  List<Video> searchTags(String searchTerm, boolean includeFlagged) {
+    return searchTags(searchTerm, includeFlagged, SearchPage.ALL);
+  }
+
+  /** Returns one page of {@link #searchTags(String, boolean)}. */
+  List<Video> searchTags(String searchTerm, boolean includeFlagged, SearchPage page) {
+    BitSet tagIds = TagDictionary.matching(searchTerm);
+    if (tagIds.isEmpty()) {
+      return new ArrayList<>();
+    }
+    return searchTags(TagQuery.anyOf(tagIds), includeFlagged, page);
+  }
+
+  /**
+   * Returns the videos matching the tag query, in title order, evaluated by
+   * each shard in parallel. Flagged videos are left out unless
+   * {@code includeFlagged}.
+   */
+  List<Video> searchTags(TagQuery query, boolean includeFlagged) {
+    return searchTags(query, includeFlagged, SearchPage.ALL);
+  }
+
+  /** Returns one page of {@link #searchTags(TagQuery, boolean)}. */
+  List<Video> searchTags(TagQuery query, boolean includeFlagged, SearchPage page) {
+    return search("tags " + query.key(),
+        video -> video.matchesTags(query), includeFlagged,
+        page, (shard, i, after, limit) -> shard.searchTags(query, includeFlagged, after, i, limit));
+  }
+
+  /** One shard's part of a search, as in {@link VideoShard#searchTitles}. */
+  private interface ShardSearch {
+    List<Video> search(VideoShard shard, int shardIndex, SearchPage.Position after, int limit);
+  }
+
+  /**
+   * Answers a page of a search from the result cache, or asks every shard in
+   * parallel and merges their answers. Only complete results are cached, but
+   * any page can be cut from one, seeking to its cursor by binary search.
+   */
+  private List<Video> search(String key, Predicate<Video> matches, boolean includeFlagged,
+      SearchPage page, ShardSearch search) {
+    String cacheKey = (includeFlagged ? "all " : "") + key;
+    List<Video> cached = cache.get(cacheKey);
+    if (cached != null) {
+      return slice(cached, page);
+    }
+    long generation = cache.generation();
+    SearchPage.Position after = page.after();
+    List<Video> videos = page(page, IntStream.range(0, shards.length)
+        .parallel()
+        .mapToObj(i -> search.search(shards[i], i, after, page.end()))
+        .collect(Collectors.toList()));
+    if (after == null && page.offset() == 0 && !page.isLimited()) {
+      cache.put(cacheKey, generation, matches, includeFlagged, videos);
+    }
+    return videos;
+  }
+
+  private List<Video> slice(List<Video> videos, SearchPage page) {
+    int from = 0;
+    SearchPage.Position after = page.after();
+    if (after != null) {
+      int to = videos.size();
+      while (from < to) {
+        int mid = (from + to) >>> 1;
+        Video video = videos.get(mid);
+        if (after.isFollowedBy(video.titleKey(), shardIndex(video), video.getRow())) {
+          to = mid;
+        } else {
+          from = mid + 1;
+        }
+      }
+    }
+    from = (int) Math.min(videos.size(), (long) from + page.offset());
+    return videos.subList(from, (int) Math.min(videos.size(), (long) from + page.limit()));
+  }
+
+  /**
+   * Returns one page of the videos most relevant to the words of the query,
+   * best first, ranked by BM25 over the words of titles and tags. Each shard
+   * selects its best {@link SearchPage#end()} with its term index, and the
+   * answers are merged by score, the earlier shard's video first on ties.
+   * Flagged videos are left out unless {@code includeFlagged}. Relevance has
+   * no stable order to resume from, so the page may not have a cursor.
+   *
+   * @throws IllegalArgumentException if the page starts after a cursor
+   */
+  List<Video> rankTitles(String query, boolean includeFlagged, SearchPage page) {
+    if (page.after() != null) {
+      throw new IllegalArgumentException("Ranked results cannot be paged with AFTER");
+    }
+    // A page cannot need more videos than the library holds, whatever its LIMIT says.
+    int end = Math.min(page.end(), size());
+    List<ScoredVideo> ranked = IntStream.range(0, shards.length)
+        .parallel()
+        .mapToObj(i -> shards[i].rankTitles(query, includeFlagged, end))
+        .flatMap(List::stream)
+        .sorted((a, b) -> Float.compare(b.score(), a.score()))
+        .limit(end)
+        .collect(Collectors.toList());
+    return ranked.subList(Math.min(page.offset(), ranked.size()), ranked.size()).stream()
+        .map(ScoredVideo::video)
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Returns up to {@code limit} titles of unflagged videos that start with
+   * the prefix, ignoring case, in title order and without repeats. Each
+   * shard walks its title prefix trie and the answers are merged.
+   */
+  List<String> suggestTitles(String prefix, int limit) {
+    List<Video> videos = mergeByTitle(Arrays.stream(shards)
+        .parallel()
+        .map(shard -> shard.suggestTitles(prefix, limit))
+        .collect(Collectors.toList()), Integer.MAX_VALUE);
+    List<String> titles = new ArrayList<>();
+    String previous = null;
+    for (Video video : videos) {
+      if (titles.size() == limit) {
+        break;
+      }
+      if (!video.titleKey().equals(previous)) {
+        previous = video.titleKey();
+        titles.add(video.getTitle());
+      }
+    }
+    return titles;
+  }
+
+  /**
+   * Returns up to {@code limit} tags that start with the prefix, ignoring
+   * case, and are carried by at least one unflagged video, in order and
+   * without repeats that differ only in case.
+   */
+  List<String> suggestTags(String prefix, int limit) {
+    List<String> tags = new ArrayList<>();
+    String previous = null;
+    for (int tagId : TagDictionary.withPrefix(prefix)) {
+      if (tags.size() == limit) {
+        break;
+      }
+      String tag = TagDictionary.tag(tagId);
+      if (!tag.equalsIgnoreCase(previous)
+          && Arrays.stream(shards).anyMatch(shard -> shard.hasPlayableTag(tagId))) {
+        previous = tag;
+        tags.add(tag);
+      }
+    }
+    return tags;
+  }
+
+  /** Returns the flagged videos, found through each shard's flag bitmap rather than a scan. */
+  List<Video> flaggedVideos() {
+    return Arrays.stream(shards)
+        .flatMap(shard -> shard.flaggedVideos().stream())
+        .collect(Collectors.toList());
+  }
+
+  /** Returns counters of the search result cache. */
+  QueryCache.Stats cacheStats() {
+    return cache.stats();
+  }
+
+  /**
+   * Returns a cursor for the page that starts just after the video, which
+   * must come from this library.
+   */
+  String cursorAfter(Video video) {
+    return SearchPage.cursor(video.titleKey(), shardIndex(video), video.getRow());
+  }
+
+  private int shardIndex(Video video) {
+    for (int i = 0; i < shards.length; i++) {
+      if (shards[i] == video.getShard()) {
+        return i;
+      }
+    }
+    throw new IllegalArgumentException("Not a video of this library: " + video);
+  }
+
+  /**
+   * Returns every video by title ignoring case, and in {@link #videos()}
+   * order among equal titles. Each shard walks its precomputed title order,
+   * and the shards' lists are merged, so nothing is sorted here.
+   */
+  List<Video> videosByTitle() {
+    return mergeByTitle(Arrays.stream(shards)
+        .parallel()
+        .map(VideoShard::videosByTitle)
+        .collect(Collectors.toList()), Integer.MAX_VALUE);
+  }
+
+  private static List<Video> page(SearchPage page, List<List<Video>> lists) {
+    List<Video> merged = mergeByTitle(lists, page.end());
+    return merged.subList(Math.min(page.offset(), merged.size()), merged.size());
+  }
+
+  /**
+   * Merges per-shard lists that are each in title order, up to {@code limit}
+   * videos, taking the earlier shard's video first among equal titles.
+   */
+  private static List<Video> mergeByTitle(List<List<Video>> lists, int limit) {
+    if (lists.size() == 1) {
+      List<Video> list = lists.get(0);
+      return list.size() <= limit ? list : list.subList(0, limit);
+    }
+    int total = 0;
+    for (List<Video> list : lists) {
+      total += list.size();
+    }
+    int[] positions = new int[lists.size()];
+    String[] heads = new String[lists.size()];
+    PriorityQueue<Integer> queue = new PriorityQueue<>((a, b) -> {
+      int order = heads[a].compareTo(heads[b]);
+      return order != 0 ? order : Integer.compare(a, b);
+    });
+    for (int i = 0; i < lists.size(); i++) {
+      if (!lists.get(i).isEmpty()) {
+        heads[i] = lists.get(i).get(0).titleKey();
+        queue.add(i);
+      }
+    }
+    List<Video> merged = new ArrayList<>(Math.min(total, limit));
+    while (!queue.isEmpty() && merged.size() < limit) {
+      int i = queue.poll();
+      List<Video> list = lists.get(i);
+      merged.add(list.get(positions[i]++));
+      if (positions[i] < list.size()) {
+        heads[i] = list.get(positions[i]).titleKey();
+        queue.add(i);
+      }
+    }
+    return merged;
+  }
+
+  /**
+   * Returns a video chosen uniformly from those that are not flagged, or null
+   * if every video is flagged. Picks a position across the shards' unflagged
+   * counts and asks the owning shard for it, so no video is visited.
+   */
+  Video randomPlayableVideo(Random random) {
+    int[] counts = new int[shards.length];
+    while (true) {
+      int total = 0;
+      for (int i = 0; i < shards.length; i++) {
+        counts[i] = shards[i].playableCount();
+        total += counts[i];
+      }
+      if (total == 0) {
+        return null;
+      }
+      int index = random.nextInt(total);
+      int shard = 0;
+      while (index >= counts[shard]) {
+        index -= counts[shard++];
+      }
+      Video video = shards[shard].playableVideo(index);
+      // Null only if the shard changed since it was counted; count again.
+      if (video != null) {
+        return video;
+      }
+    }
+  }
+
+  /**
+   * Returns a copy of every video in the library. Prefer {@link #videos()} or
+   * {@link #forEach}, which do not allocate per call.
+   */
   List<Video> getVideos() {
-    return new ArrayList<>(this.videos.values());
+    List<Video> videos = new ArrayList<>(size());
+    forEach(videos::add);
+    return videos;
   }
 
   /**
    * Get a video by id. Returns null if the video is not found.
    */
   Video getVideo(String videoId) {
-    return this.videos.get(videoId);
+    return shards[CatalogStore.shardOf(videoId, shards.length)].getVideo(videoId);
   }
 
+  /**
+   * Walks the shard spliterators in {@code [from, to)} one after the other.
+   * Splits hand off whole shards first, then split the last shard itself.
+   */
+  private static final class ShardSpliterator implements Spliterator<Video> {
+
+    private final List<Spliterator<Video>> parts;
+    private int from;
+    private final int to;
+
+    ShardSpliterator(List<Spliterator<Video>> parts, int from, int to) {
+      this.parts = parts;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Video> action) {
+      while (from < to) {
+        if (parts.get(from).tryAdvance(action)) {
+          return true;
+        }
+        from++;
+      }
+      return false;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super Video> action) {
+      for (; from < to; from++) {
+        parts.get(from).forEachRemaining(action);
+      }
+    }
+
+    @Override
+    public Spliterator<Video> trySplit() {
+      if (to - from > 1) {
+        int middle = (from + to) >>> 1;
+        Spliterator<Video> prefix = new ShardSpliterator(parts, from, middle);
+        from = middle;
+        return prefix;
+      }
+      return from < to ? parts.get(from).trySplit() : null;
+    }
 
+    @Override
+    public long estimateSize() {
+      long size = 0;
+      for (int i = from; i < to; i++) {
+        size += parts.get(i).estimateSize();
+      }
+      return size;
+    }
+
+    @Override
+    public int characteristics() {
+      return ORDERED | DISTINCT | NONNULL | IMMUTABLE;
+    }
+  }
 }
@@ -1,27 +1,221 @@
 package com.google;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class VideoPlayer {
 
+    /** How many titles, and how many tags, SUGGEST shows at most. */
+    private static final int SUGGESTIONS = 10;
+
+    /** How many results SEARCH_VIDEOS_RANKED shows without a LIMIT. */
+    private static final int RANKED_RESULTS = 10;
+
+    /** How many fields each kind of saved change has, counting its name. */
+    private static final Map<String, Integer> SAVED_CHANGE_FIELDS = Map.of(
+            "CREATE_PLAYLIST", 2, "ADD_TO_PLAYLIST", 3, "REMOVE_FROM_PLAYLIST", 3, "CLEAR_PLAYLIST", 2,
+            "DELETE_PLAYLIST", 2, "FLAG_VIDEO", 3, "ALLOW_VIDEO", 2);
+
     private final VideoLibrary videoLibrary;
 
     private String videoPlaying;
+    private String videoPlayingId;
     private boolean videoPaused;
 
     private PlaylistManager playlistManager;
 
+    /** Records playlist and flag changes so they survive restarts, once {@link #keepState} opened it. */
+    private StateJournal journal;
+
+    /** Catalog reloads published by the watcher, not yet applied to playlists. */
+    private final Queue<Runnable> catalogChanges = new ConcurrentLinkedQueue<>();
+
     public VideoPlayer() {
-        this.videoLibrary = new VideoLibrary();
+        this(new VideoLibrary());
+    }
+
+    VideoPlayer(VideoLibrary videoLibrary) {
+        this.videoLibrary = videoLibrary;
 
         videoPlaying = "";
+        videoPlayingId = null;
         videoPaused = false;
 
         playlistManager = new PlaylistManager();
+
+        videoLibrary.addReloadListener((removed, changed) ->
+                catalogChanges.add(() -> catalogReloaded(removed, changed)));
+    }
+
+    /**
+     * Starts picking up changes to the catalog file while the player runs.
+     * Playlists, flags and playback state are kept for unchanged videos.
+     */
+    public void watchCatalog() throws IOException {
+        videoLibrary.startWatching();
+    }
+
+    /**
+     * Restores playlists and flags saved in the directory by earlier runs, then keeps saving every change
+     * to them there, forced to disk as the policy says.
+     * @param directory where the snapshot and journal segments live, created if missing
+     * @param policy when appended changes are forced to disk
+     */
+    public void keepState(Path directory, StateJournal.FsyncPolicy policy) throws IOException {
+        journal = StateJournal.open(directory, policy, StateJournal.SNAPSHOT_EVERY, this::replay, this::state);
+    }
+
+    /**
+     * Writes out any playlist and flag changes not yet saved, and stops saving them.
+     */
+    public void close() throws IOException {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+    }
+
+    /**
+     * Saves a playlist or flag change, named after the command that made it, if state is being kept.
+     * @param change the command and its arguments
+     */
+    private void record(String... change) {
+        if (journal != null) {
+            try {
+                journal.append(change);
+            } catch (UncheckedIOException e) {
+                System.out.println("Couldn't save this change: " + e.getCause().getMessage());
+            }
+        }
+    }
+
+    /**
+     * Redoes a saved change without any output. Changes to videos no longer in the library are skipped,
+     * and so, after a warning, are changes of an unknown kind or with the wrong number of arguments, so
+     * that one bad record neither stops the rest from loading nor stops new changes being saved.
+     * @param change the command and its arguments
+     */
+    private void replay(List<String> change) {
+        Integer fields = change.isEmpty() ? null : SAVED_CHANGE_FIELDS.get(change.get(0));
+        if (fields == null || fields != change.size()) {
+            System.out.println("Skipping unknown saved change " + change);
+            return;
+        }
+        Playlist playlist = change.size() > 1 ? playlistManager.getPlaylist(change.get(1)) : null;
+        Video video;
+        switch (change.get(0)) {
+            case "CREATE_PLAYLIST":
+                playlistManager.addPlaylist(change.get(1));
+                break;
+            case "ADD_TO_PLAYLIST":
+                video = videoLibrary.getVideo(change.get(2));
+                if (playlist != null && video != null) {
+                    playlist.addVideo(video);
+                }
+                break;
+            case "REMOVE_FROM_PLAYLIST":
+                video = playlist == null ? null : playlist.getVideo(change.get(2));
+                if (video != null) {
+                    playlist.removeVideo(video);
+                }
+                break;
+            case "CLEAR_PLAYLIST":
+                if (playlist != null) {
+                    playlist.clear();
+                }
+                break;
+            case "DELETE_PLAYLIST":
+                if (playlist != null) {
+                    playlistManager.deletePlaylist(playlist);
+                }
+                break;
+            case "FLAG_VIDEO":
+                video = videoLibrary.getVideo(change.get(1));
+                if (video != null && !video.isFlagged()) {
+                    video.flag(change.get(2));
+                }
+                break;
+            case "ALLOW_VIDEO":
+                video = videoLibrary.getVideo(change.get(1));
+                if (video != null && video.isFlagged()) {
+                    video.clearFlag();
+                }
+                break;
+        }
+    }
+
+    /**
+     * @return changes that rebuild the current playlists and flags from nothing, for a snapshot
+     */
+    private List<List<String>> state() {
+        List<List<String>> changes = new ArrayList<>();
+        for (Playlist playlist : playlistManager.getPlaylists()) {
+            changes.add(List.of("CREATE_PLAYLIST", playlist.getName()));
+            for (Video video : playlist.getVideos()) {
+                changes.add(List.of("ADD_TO_PLAYLIST", playlist.getName(), video.getVideoId()));
+            }
+        }
+        for (Video video : videoLibrary.flaggedVideos()) {
+            changes.add(List.of("FLAG_VIDEO", video.getVideoId(), video.getFlagReason()));
+        }
+        return changes;
+    }
+
+    /**
+     * Applies queued catalog reloads on the calling thread, so playlists and
+     * playback state are only ever touched by commands.
+     */
+    private void applyCatalogChanges() {
+        Runnable change;
+        while ((change = catalogChanges.poll()) != null) {
+            change.run();
+        }
+    }
+
+    /**
+     * Brings playlists and playback state in line with a catalog reload:
+     * removed videos leave every playlist (and stop if playing), changed
+     * videos are swapped for their new version in place. Removals are saved
+     * like commands, along with dropping a removed video's flag, so a restart
+     * does not bring them back if the video returns to the catalog.
+     */
+    private void catalogReloaded(List<Video> removed, Map<Video, Video> changed) {
+        for (Video video : removed) {
+            for (Playlist playlist : playlistManager.playlistsContaining(video.getVideoId())) {
+                if (playlist.containsVideo(video)) {
+                    playlist.removeVideo(video);
+                    record("REMOVE_FROM_PLAYLIST", playlist.getName(), video.getVideoId());
+                }
+            }
+            if (video.isFlagged()) {
+                record("ALLOW_VIDEO", video.getVideoId());
+            }
+            if (video.getVideoId().equals(videoPlayingId)) {
+                videoPlaying = "";
+                videoPlayingId = null;
+                videoPaused = false;
+            }
+        }
+        for (Map.Entry<Video, Video> entry : changed.entrySet()) {
+            playlistManager.replaceVideoInAll(entry.getKey(), entry.getValue());
+            if (entry.getValue().getVideoId().equals(videoPlayingId)) {
+                videoPlaying = entry.getValue().getTitle();
+            }
+        }
     }
 
     public void numberOfVideos() {
-        System.out.printf("%s videos in the library%n", videoLibrary.getVideos().size());
+        System.out.printf("%s videos in the library%n", videoLibrary.size());
+    }
+
+    /**
+     * Display the search result cache's size, hit rate, and eviction and invalidation counts.
+     */
+    public void showCacheStats() {
+        System.out.println("Search cache: " + videoLibrary.cacheStats());
     }
 
     /**
@@ -29,30 +223,16 @@ public class VideoPlayer {
      * The videos should be shown in lexicographical order by title. If there are no tags available, display empty brackets.
      */
     public void showAllVideos() {
-        List<Video> videos = videoLibrary.getVideos();
-        if (videos.isEmpty()) {
+        if (videoLibrary.size() == 0) {
             System.out.println("No videos available");
         } else {
             System.out.println("Here's a list of all available videos:");
-            sortVideosByTitle(videos);
-            for (Video video : videos) {
+            for (Video video : videoLibrary.videosByTitle()) {
                 System.out.println(video);
             }
         }
     }
 
-    /**
-     * Sorts a list of Video objects by title
-     */
-    public void sortVideosByTitle(List<Video> videos) {
-        Collections.sort(videos, new Comparator<Video>() {
-            @Override
-            public int compare(Video o1, Video o2) {
-                return o1.getTitle().toLowerCase().compareTo(o2.getTitle().toLowerCase());
-            }
-        });
-    }
-
     /**
      * Play the specified video. If a video is currently playing, display a note that this video will be
      * stopped, even if the same video is already playing. If the video doesn’t exist, display a warning
@@ -61,6 +241,7 @@ public class VideoPlayer {
      * @param videoId the specified video
      */
     public void playVideo(String videoId) {
+        applyCatalogChanges();
         Video video = videoLibrary.getVideo(videoId);
         if (video == null) {
             System.out.println("Cannot play video: Video does not exist");
@@ -74,6 +255,7 @@ public class VideoPlayer {
                     stopVideo();
                 }
                 videoPlaying = video.getTitle();
+                videoPlayingId = video.getVideoId();
                 System.out.println("Playing video: " + videoPlaying);
             }
         }
@@ -85,11 +267,13 @@ public class VideoPlayer {
      * “Cannot stop video: No video is currently playing” and do nothing.
      */
     public void stopVideo() {
+        applyCatalogChanges();
         if (videoPlaying.length() == 0) {
             System.out.println("Cannot stop video: No video is currently playing");
         } else {
             System.out.println("Stopping video: " + videoPlaying);
             videoPlaying = "";
+            videoPlayingId = null;
             videoPaused = false;
         }
     }
@@ -100,24 +284,16 @@ public class VideoPlayer {
      * If there are no videos available, print out “No videos available”
      */
     public void playRandomVideo() {
-        ArrayList<Video> videos = (ArrayList<Video>) videoLibrary.getVideos();
-        ArrayList<Video> playableVideos = new ArrayList<>();
-
-        for(Video video: videos){
-            if(!video.isFlagged()){
-                playableVideos.add(video);
-            }
-        }
+        applyCatalogChanges();
+        Video chosen = videoLibrary.randomPlayableVideo(new Random());
 
-        if (playableVideos.isEmpty()) {
+        if (chosen == null) {
             System.out.println("No videos available");
         } else {
-            Random rand = new Random();
-            int randIndex = rand.nextInt(playableVideos.size());
             if (videoPlaying.length() > 0) {
                 stopVideo();
             }
-            playVideo(playableVideos.get(randIndex).getVideoId());
+            playVideo(chosen.getVideoId());
         }
     }
 
@@ -127,6 +303,7 @@ public class VideoPlayer {
      * Equally, If no video is currently playing, display a warning message and do nothing.
      */
     public void pauseVideo() {
+        applyCatalogChanges();
         if (videoPlaying.length() > 0) {
             if (videoPaused) {
                 System.out.println("Video already paused: " + videoPlaying);
@@ -145,6 +322,7 @@ public class VideoPlayer {
      * If no video is playing at all, also display a warning message and do nothing.
      */
     public void continueVideo() {
+        applyCatalogChanges();
         if (videoPlaying.length() > 0) {
             if (videoPaused) {
                 videoPaused = false;
@@ -162,14 +340,9 @@ public class VideoPlayer {
      * If no video is currently playing, display a message.
      */
     public void showPlaying() {
+        applyCatalogChanges();
         if (videoPlaying.length() > 0) {
-            Video video = null;
-            List<Video> videos = videoLibrary.getVideos();
-            for (Video v : videos) {
-                if (v.getTitle().equalsIgnoreCase(videoPlaying)) {
-                    video = v;
-                }
-            }
+            Video video = videoLibrary.getVideo(videoPlayingId);
             StringBuilder stringBuilder = new StringBuilder();
             stringBuilder.append("Currently playing: ");
             stringBuilder.append(video);
@@ -190,7 +363,9 @@ public class VideoPlayer {
      * @param playlistName
      */
     public void createPlaylist(String playlistName) {
+        applyCatalogChanges();
         if (playlistManager.addPlaylist(playlistName)) {
+            record("CREATE_PLAYLIST", playlistName);
             System.out.println("Successfully created new playlist: " + playlistName);
         } else {
             System.out.println("Cannot create playlist: A playlist with the same name already exists");
@@ -210,6 +385,7 @@ public class VideoPlayer {
      * @param videoId
      */
     public void addVideoToPlaylist(String playlistName, String videoId) {
+        applyCatalogChanges();
         Playlist playlist = playlistManager.getPlaylist(playlistName);
         if(playlist == null){
             System.out.println("Cannot add video to " + playlistName + ": Playlist does not exist");
@@ -227,6 +403,7 @@ public class VideoPlayer {
                 }
                 else{
                     if(playlist.addVideo(video)){
+                        record("ADD_TO_PLAYLIST", playlistName, video.getVideoId());
                         System.out.println("Added video to " + playlistName + ": "
                                 + video.getTitle());
                     }
@@ -245,30 +422,32 @@ public class VideoPlayer {
      * The playlists should be shown in lexicographical order by playlist name.
      */
     public void showAllPlaylists() {
-        ArrayList<Playlist> playlists = playlistManager.getPlaylists();
-        if (playlists.isEmpty()) {
+        showAllPlaylists(SearchPage.ALL);
+    }
+
+    /**
+     * Show one page of the playlists in lexicographical order by playlist name. The manager keeps them in
+     * that order, so nothing is sorted here. If the page is full, also display the cursor that continues
+     * from it.
+     * @param page a page of {@link SearchPage.Kind#PLAYLISTS}
+     */
+    public void showAllPlaylists(SearchPage page) {
+        applyCatalogChanges();
+        if (playlistManager.size() == 0) {
             System.out.println("No playlists exist yet");
         } else {
+            List<Playlist> playlists = playlistManager.getPlaylists(
+                    page.afterPlaylist(), page.offset(), page.limit());
             System.out.println("Showing all playlists:");
-            sortPlaylistsByName(playlists);
             for (Playlist playlist : playlists) {
                 System.out.println(playlist.getName());
             }
-        }
-    }
-
-    /**
-     * Sorts a list of Playlist objects by Name
-     *
-     * @param playlists an ArrayList of Playlist objects
-     */
-    public void sortPlaylistsByName(ArrayList<Playlist> playlists) {
-        Collections.sort(playlists, new Comparator<Playlist>() {
-            @Override
-            public int compare(Playlist o1, Playlist o2) {
-                return o1.getName().toLowerCase().compareTo(o2.getName().toLowerCase());
+            if (page.isLimited() && !playlists.isEmpty() && playlists.size() == page.limit()) {
+                String last = PlaylistManager.key(playlists.get(playlists.size() - 1).getName());
+                System.out.println("More playlists: add AFTER " + SearchPage.playlistCursor(last)
+                        + " to see the next page.");
             }
-        });
+        }
     }
 
     /**
@@ -280,9 +459,10 @@ public class VideoPlayer {
      * @param playlistName
      */
     public void showPlaylist(String playlistName) {
+        applyCatalogChanges();
         Playlist playlist = playlistManager.getPlaylist(playlistName);
         if (playlist != null) {
-            ArrayList<Video> videos = playlist.getVideos();
+            Collection<Video> videos = playlist.getVideos();
             System.out.println("Showing playlist: " + playlistName);
             if (videos.isEmpty()) {
                 System.out.println("No videos here yet");
@@ -307,6 +487,7 @@ public class VideoPlayer {
      * @param videoId
      */
     public void removeFromPlaylist(String playlistName, String videoId) {
+        applyCatalogChanges();
         Playlist playlist = playlistManager.getPlaylist(playlistName);
         if (playlist != null) {
             if (videoLibrary.getVideo(videoId) == null) {
@@ -315,6 +496,7 @@ public class VideoPlayer {
                 Video video = playlist.getVideo(videoId);
                 if (video != null) {
                     playlist.removeVideo(video);
+                    record("REMOVE_FROM_PLAYLIST", playlistName, video.getVideoId());
                     System.out.println("Removed video from " + playlistName + ": " + video.getTitle());
                 } else {
                     System.out.println("Cannot remove video from " + playlistName + ": Video is not in playlist");
@@ -332,9 +514,11 @@ public class VideoPlayer {
      * @param playlistName
      */
     public void clearPlaylist(String playlistName) {
+        applyCatalogChanges();
         Playlist playlist = playlistManager.getPlaylist(playlistName);
         if (playlist != null) {
-            playlist.getVideos().clear();
+            playlist.clear();
+            record("CLEAR_PLAYLIST", playlistName);
             System.out.println("Successfully removed all videos from " + playlistName);
 
         } else {
@@ -349,9 +533,11 @@ public class VideoPlayer {
      * @param playlistName
      */
     public void deletePlaylist(String playlistName) {
+        applyCatalogChanges();
         Playlist playlist = playlistManager.getPlaylist(playlistName);
         if (playlist != null) {
             playlistManager.deletePlaylist(playlist);
+            record("DELETE_PLAYLIST", playlistName);
             System.out.println("Deleted playlist: " + playlistName);
         } else {
             System.out.println("Cannot delete playlist " + playlistName + ": Playlist does not exist");
@@ -368,17 +554,22 @@ public class VideoPlayer {
      * @param searchTerm
      */
     public void searchVideos(String searchTerm) {
-        ArrayList<Video> videos = (ArrayList<Video>) videoLibrary.getVideos();
-
-        videos = filterByTitle(videos, searchTerm);
+        searchVideos(searchTerm, SearchPage.ALL);
+    }
 
-        videos= filterByFlagged(videos);
+    /**
+     * Display one page of the videos whose titles contain the specified search term. If the page is full,
+     * also display the cursor that continues from it.
+     * @param searchTerm
+     * @param page
+     */
+    public void searchVideos(String searchTerm, SearchPage page) {
+        ArrayList<Video> videos = filterByTitle(searchTerm, page);
 
         if(videos.isEmpty()) {
             System.out.println("No search results for " + searchTerm);
         }
         else{
-            sortVideosByTitle(videos);
             System.out.println("Here are the results for " + searchTerm + ":");
             StringBuilder stringBuilder = new StringBuilder();;
             for(int i = 0; i < videos.size(); i++){
@@ -388,68 +579,40 @@ public class VideoPlayer {
                 stringBuilder.append(videos.get(i));
                 System.out.println(stringBuilder.toString());
             }
+            printNextPage(videos, page);
             playFromSearch(videos);
         }
     }
 
     /**
-     * Filter a list of videos based on if they are flagged
-     * @param videos
+     * Find one page of the unflagged videos in the library whose titles match the search term, in title order
+     * @param searchTerm
+     * @param page
      */
-    private ArrayList<Video> filterByFlagged(ArrayList<Video> videos) {
-        ArrayList<Video> filteredVideos = new ArrayList<>();
-
-        for(Video video: videos){
-            if(!video.isFlagged()){
-                filteredVideos.add(video);
-            }
-        }
-
-        return filteredVideos;
+    private ArrayList<Video> filterByTitle(String searchTerm, SearchPage page) {
+        return new ArrayList<>(videoLibrary.searchTitles(searchTerm, false, page));
     }
 
     /**
-     * Filter a list of videos based on if their titles match the search term
-     * @param videos
+     * Find one page of the unflagged videos in the library whose tags match the search term, in title order
+     *
      * @param searchTerm
+     * @param page
      */
-    private ArrayList<Video> filterByTitle(ArrayList<Video> videos, String searchTerm) {
-        ArrayList<Video> filteredVideos = new ArrayList<>();
-
-        for(Video video: videos){
-            if(video.getTitle().toLowerCase().contains(searchTerm.toLowerCase())){
-                filteredVideos.add(video);
-            }
-        }
-
-        return filteredVideos;
+    private ArrayList<Video> filterByTag(String searchTerm, SearchPage page) {
+        return new ArrayList<>(videoLibrary.searchTags(searchTerm, false, page));
     }
 
     /**
-     * Filter a list of videos based on if their tags match the search term
-     *
+     * If a limited page of search results is full, display the cursor of the page after it
      * @param videos
-     * @param searchTerm
+     * @param page
      */
-    private ArrayList<Video> filterByTag(ArrayList<Video> videos, String searchTerm) {
-        ArrayList<Video> filteredVideos = new ArrayList<>();
-
-        Boolean tagsMatch;
-        for (Video video : videos) {
-            tagsMatch = false;
-            List<String> tags = video.getTags();
-            for (String tag : tags) {
-                if (tag.toLowerCase().contains(searchTerm.toLowerCase())) {
-                    tagsMatch = true;
-                }
-            }
-            if (tagsMatch) {
-                filteredVideos.add(video);
-            }
+    private void printNextPage(List<Video> videos, SearchPage page) {
+        if (page.isLimited() && !videos.isEmpty() && videos.size() == page.limit()) {
+            System.out.println("More results: add AFTER "
+                    + videoLibrary.cursorAfter(videos.get(videos.size() - 1)) + " to see the next page.");
         }
-
-
-        return filteredVideos;
     }
 
     /**
@@ -462,17 +625,22 @@ public class VideoPlayer {
      * @param videoTag
      */
     public void searchVideosWithTag(String videoTag) {
-        ArrayList<Video> videos = (ArrayList<Video>) videoLibrary.getVideos();
-
-        videos = filterByTag(videos, videoTag);
+        searchVideosWithTag(videoTag, SearchPage.ALL);
+    }
 
-        videos= filterByFlagged(videos);
+    /**
+     * Display one page of the videos whose tags contain the provided tag. If the page is full, also display
+     * the cursor that continues from it.
+     * @param videoTag
+     * @param page
+     */
+    public void searchVideosWithTag(String videoTag, SearchPage page) {
+        ArrayList<Video> videos = filterByTag(videoTag, page);
 
         if(videos.isEmpty() || !videoTag.contains("#")) {
             System.out.println("No search results for " + videoTag);
         }
         else{
-            sortVideosByTitle(videos);
             System.out.println("Here are the results for " + videoTag + ":");
             StringBuilder stringBuilder = new StringBuilder();;
             for(int i = 0; i < videos.size(); i++){
@@ -482,10 +650,100 @@ public class VideoPlayer {
                 stringBuilder.append(videos.get(i));
                 System.out.println(stringBuilder.toString());
             }
+            printNextPage(videos, page);
             playFromSearch(videos);
         }
     }
 
+    /**
+     * Display all videos matching a boolean tag expression such as
+     * "#cat AND #animal AND NOT #google", in lexicographical order (by title),
+     * and ask the user if they'd like to play one of them.
+     *
+     * If the expression is malformed or nothing matches, display a message.
+     * @param expression
+     */
+    public void searchVideosWithTags(String expression) {
+        searchVideosWithTags(expression, SearchPage.ALL);
+    }
+
+    /**
+     * Display one page of the videos matching a boolean tag expression. If the page is full, also display
+     * the cursor that continues from it.
+     * @param expression
+     * @param page
+     */
+    public void searchVideosWithTags(String expression, SearchPage page) {
+        TagQuery query;
+        try {
+            query = TagQuery.parse(expression);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Invalid tag query " + expression + ": " + e.getMessage());
+            return;
+        }
+        ArrayList<Video> videos = new ArrayList<>(videoLibrary.searchTags(query, false, page));
+
+        if(videos.isEmpty()) {
+            System.out.println("No search results for " + expression);
+        }
+        else{
+            System.out.println("Here are the results for " + expression + ":");
+            for(int i = 0; i < videos.size(); i++){
+                System.out.println((i + 1) + ") " + videos.get(i));
+            }
+            printNextPage(videos, page);
+            playFromSearch(videos);
+        }
+    }
+
+    /**
+     * Display the unflagged videos most relevant to the search words, best first, ranked by how often the words
+     * appear in their titles and tags and how rare the words are. Shows the first 10 unless the page has a LIMIT.
+     * @param query
+     * @param page
+     */
+    public void searchVideosRanked(String query, SearchPage page) {
+        ArrayList<Video> videos;
+        try {
+            videos = new ArrayList<>(videoLibrary.rankTitles(query, false, page.limitedTo(RANKED_RESULTS)));
+        } catch (IllegalArgumentException e) {
+            System.out.println("Invalid search options: " + e.getMessage());
+            return;
+        }
+
+        if(videos.isEmpty()) {
+            System.out.println("No search results for " + query);
+        }
+        else{
+            System.out.println("Here are the most relevant results for " + query + ":");
+            for(int i = 0; i < videos.size(); i++){
+                System.out.println((i + 1) + ") " + videos.get(i));
+            }
+            playFromSearch(videos);
+        }
+    }
+
+    /**
+     * Display the titles and tags that start with the given prefix, ignoring case, for autocompletion.
+     * Flagged videos, and tags only flagged videos carry, are not suggested.
+     * @param prefix
+     */
+    public void suggest(String prefix) {
+        List<String> titles = videoLibrary.suggestTitles(prefix, SUGGESTIONS);
+        List<String> tags = videoLibrary.suggestTags(prefix, SUGGESTIONS);
+        if (titles.isEmpty() && tags.isEmpty()) {
+            System.out.println("No suggestions for " + prefix);
+            return;
+        }
+        System.out.println("Suggestions for " + prefix + ":");
+        for (String title : titles) {
+            System.out.println("  " + title);
+        }
+        for (String tag : tags) {
+            System.out.println("  " + tag);
+        }
+    }
+
     /**
      * Gives the user a choice to play a video from a search result
      *
@@ -521,6 +779,7 @@ public class VideoPlayer {
      * @param videoId
      */
     public void flagVideo(String videoId) {
+        applyCatalogChanges();
         Video video = videoLibrary.getVideo(videoId);
         if(video == null){
             System.out.println("Cannot flag video: Video does not exist");
@@ -533,6 +792,7 @@ public class VideoPlayer {
                     stopVideo();
                 }
                 video.flag();
+                record("FLAG_VIDEO", video.getVideoId(), video.getFlagReason());
                 System.out.println("Successfully flagged video: " + video.getTitle() + " (reason: " + video.getFlagReason() + ")");
             }
         }
@@ -544,6 +804,7 @@ public class VideoPlayer {
      * @param reason
      */
     public void flagVideo(String videoId, String reason) {
+        applyCatalogChanges();
         Video video = videoLibrary.getVideo(videoId);
         if(video == null){
             System.out.println("Cannot flag video: Video does not exist");
@@ -556,6 +817,7 @@ public class VideoPlayer {
                         stopVideo();
                     }
                     video.flag(reason);
+                    record("FLAG_VIDEO", video.getVideoId(), video.getFlagReason());
                     System.out.println("Successfully flagged video: " + video.getTitle() + " (reason: " + video.getFlagReason() + ")");
                 }
         }
@@ -567,6 +829,7 @@ public class VideoPlayer {
      * @param videoId
      */
     public void allowVideo(String videoId) {
+        applyCatalogChanges();
         Video video = videoLibrary.getVideo(videoId);
         if(video == null){
             System.out.println("Cannot remove flag from video: Video does not exist");
@@ -574,6 +837,7 @@ public class VideoPlayer {
         else{
             if(video.isFlagged()){
                 video.clearFlag();
+                record("ALLOW_VIDEO", video.getVideoId());
                 System.out.println("Successfully removed flag from video: "
                         + video.getTitle());
             }
@@ -0,0 +1,141 @@
+package com.google;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One partition of a {@link VideoLibrary}: the videos whose ids hash to it
+ * (see {@link CatalogStore#shardOf(String, int)}). Shards share no storage or
+ * indexes, and the library only talks to them through this interface, so a
+ * shard may live in another process as long as it can answer these calls.
+ *
+ * <p>A {@link Video} is a shard and a row: rows are the shard's handles for
+ * its videos, stable for as long as a view of them is held, and the per-row
+ * methods below read a video's data from the shard's current version.
+ */
+interface VideoShard {
+
+  /** Notified after a video's flag is set or cleared, once the change is visible. */
+  interface FlagListener {
+    void flagChanged(Video video);
+  }
+
+  /** Creates a shard owning the videos of a parsed catalog store. */
+  interface Factory {
+    VideoShard create(CatalogStore store);
+  }
+
+  /**
+   * Returns a factory of shards held in this process. With
+   * {@code perfectHash}, id lookups go through a minimal perfect hash.
+   */
+  static Factory local(boolean perfectHash) {
+    return store -> new LocalShard(store, perfectHash);
+  }
+
+  /** Returns the number of videos in the shard. */
+  int size();
+
+  /** Returns the video with the given id, or null if the shard lacks it. */
+  Video getVideo(String videoId);
+
+  /** Returns the title of the video in the row. */
+  String title(int row);
+
+  /** Returns the key the video in the row sorts by: its lower-cased title. */
+  String titleKey(int row);
+
+  /** Returns the id of the video in the row. */
+  String videoId(int row);
+
+  /** Returns a read-only list of the tags of the video in the row. */
+  List<String> tags(int row);
+
+  /** Returns the number of tags of the video in the row. */
+  int tagCount(int row);
+
+  /** Returns the dictionary id of the row's tag at the given position. */
+  int tagId(int row, int index);
+
+  /** Returns whether the video in the row is flagged. */
+  boolean isFlagged(int row);
+
+  /** Returns the flag reason of the video in the row, or null if it is not flagged. */
+  String flagReason(int row);
+
+  /** Flags the video in the row, notifying flag listeners once it is visible. */
+  void flag(int row, String reason);
+
+  /** Clears the flag of the video in the row, notifying flag listeners once it is visible. */
+  void clearFlag(int row);
+
+  /** Returns whether the tags of the video in the row match the query. */
+  boolean matchesTags(TagQuery query, int row);
+
+  /**
+   * Returns, in title order, the first {@code limit} videos after
+   * {@code after} (null to start at the beginning) whose lower-cased title
+   * contains the lower-cased search term, leaving out flagged ones unless
+   * {@code includeFlagged}. {@code shardIndex} is this shard's index in its
+   * library, which orders videos with equal titles.
+   */
+  List<Video> searchTitles(String searchTerm, boolean includeFlagged,
+      SearchPage.Position after, int shardIndex, int limit);
+
+  /**
+   * Returns, in title order, the first {@code limit} videos after
+   * {@code after} matching the tag query, as for {@link #searchTitles}.
+   */
+  List<Video> searchTags(TagQuery query, boolean includeFlagged,
+      SearchPage.Position after, int shardIndex, int limit);
+
+  /**
+   * Returns the {@code limit} videos most relevant to the words of the query
+   * by BM25 over their titles and tags, best first, leaving out flagged ones
+   * unless {@code includeFlagged}. Scores use the shard's own statistics.
+   */
+  List<ScoredVideo> rankTitles(String query, boolean includeFlagged, int limit);
+
+  /**
+   * Returns the shard's videos in title order: by title ignoring case, then
+   * in {@link #videos()} order among equal titles.
+   */
+  List<Video> videosByTitle();
+
+  /**
+   * Returns, in title order, up to {@code limit} unflagged videos whose
+   * lower-cased title starts with the lower-cased prefix, one per distinct
+   * lower-cased title.
+   */
+  List<Video> suggestTitles(String prefix, int limit);
+
+  /** Returns whether an unflagged video carries the tag. */
+  boolean hasPlayableTag(int tagId);
+
+  /** Returns the flagged videos, in row order. */
+  List<Video> flaggedVideos();
+
+  /** Returns the number of videos that are not flagged. */
+  int playableCount();
+
+  /**
+   * Returns the unflagged video at the given position in the shard's order,
+   * or null if there are no longer that many.
+   */
+  Video playableVideo(int index);
+
+  /** Returns an unmodifiable view of the shard's videos as of this call. */
+  Collection<Video> videos();
+
+  void addFlagListener(FlagListener listener);
+
+  /**
+   * Brings the shard in line with a freshly parsed catalog holding exactly
+   * the videos it owns, keeping flags for videos that are still there. Views
+   * of removed videos are added to {@code removed}, changed videos to
+   * {@code changed} as old view to new view, and new videos to {@code added}.
+   */
+  void reload(CatalogStore catalog, List<Video> removed, Map<Video, Video> changed,
+      List<Video> added);
+}
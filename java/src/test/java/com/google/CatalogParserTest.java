@@ -0,0 +1,60 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class CatalogParserTest {
+
+  @TempDir
+  Path dir;
+
+  private Path writeLargeCatalog() throws IOException {
+    StringBuilder catalog = new StringBuilder();
+    for (int i = 0; i < 60_000; i++) {
+      catalog.append("Video number ").append(i).append(" | video_").append(i)
+          .append("_id | #tag").append(i % 7).append(" , #common\n");
+    }
+    // Re-declare an id that first appeared in the first chunk.
+    catalog.append("Replacement | video_0_id | #new\n");
+    Path file = dir.resolve("videos.txt");
+    Files.writeString(file, catalog, StandardCharsets.UTF_8);
+    return file;
+  }
+
+  @Test
+  public void testChunkBoundsAreLineAligned() throws IOException {
+    Path file = writeLargeCatalog();
+    byte[] bytes = Files.readAllBytes(file);
+    try (FileChannel channel = FileChannel.open(file)) {
+      long[] bounds = CatalogParser.chunkBounds(channel, 4);
+
+      assertTrue(bounds.length > 2, "expected the file to be split");
+      assertEquals(0, bounds[0]);
+      assertEquals(bytes.length, bounds[bounds.length - 1]);
+      for (int i = 1; i < bounds.length - 1; i++) {
+        assertEquals('\n', bytes[(int) bounds[i] - 1]);
+      }
+    }
+  }
+
+  @Test
+  public void testParallelParseKeepsLastDuplicate() throws IOException {
+    var store = new CatalogStore();
+    CatalogParser.parse(writeLargeCatalog(), store);
+
+    assertEquals(60_000, store.size());
+    int replaced = store.find("video_0_id");
+    assertEquals("Replacement", store.title(replaced));
+    assertEquals(List.of("#new"), store.tags(replaced));
+    assertEquals(List.of("#tag2", "#common"), store.tags(store.find("video_59999_id")));
+  }
+}
@@ -0,0 +1,50 @@
+package com.google;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class CatalogReloadTest extends TestBase {
+
+  @TempDir
+  Path dir;
+
+  @Test
+  public void testReloadUpdatesPlaylistsAndPlayback() throws IOException {
+    Path catalog = dir.resolve("videos.txt");
+    Files.writeString(catalog, "Funny Dogs | funny_dogs_video_id | #dog\n"
+        + "Amazing Cats | amazing_cats_video_id | #cat\n"
+        + "Life at Google | life_at_google_video_id | #google\n", StandardCharsets.UTF_8);
+    var library = new VideoLibrary(catalog);
+    videoPlayer = new VideoPlayer(library);
+    videoPlayer.createPlaylist("my_playlist");
+    videoPlayer.addVideoToPlaylist("my_playlist", "funny_dogs_video_id");
+    videoPlayer.addVideoToPlaylist("my_playlist", "amazing_cats_video_id");
+    videoPlayer.addVideoToPlaylist("my_playlist", "life_at_google_video_id");
+    videoPlayer.playVideo("amazing_cats_video_id");
+
+    Files.writeString(catalog, "Funny Dogs | funny_dogs_video_id | #dog\n"
+        + "Amazing Cats Remastered | amazing_cats_video_id | #cat , #hd\n",
+        StandardCharsets.UTF_8);
+    library.reload();
+    outputStream.reset();
+    videoPlayer.showPlaylist("my_playlist");
+    videoPlayer.showPlaying();
+
+    String[] lines = getOutputLines();
+    assertEquals(4, lines.length, outputStream.toString());
+    assertThat(lines[0], containsString("Showing playlist: my_playlist"));
+    assertThat(lines[1], containsString("Funny Dogs (funny_dogs_video_id) [#dog]"));
+    assertThat(lines[2],
+        containsString("Amazing Cats Remastered (amazing_cats_video_id) [#cat #hd]"));
+    assertThat(lines[3], containsString(
+        "Currently playing: Amazing Cats Remastered (amazing_cats_video_id) [#cat #hd]"));
+  }
+}
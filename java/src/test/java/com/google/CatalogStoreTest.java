@@ -0,0 +1,203 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class CatalogStoreTest {
+
+  @Test
+  public void testAddAndFindManyRows() {
+    var store = new CatalogStore();
+    int tag = TagDictionary.intern("#store");
+    for (int i = 0; i < 10_000; i++) {
+      assertEquals(i, store.add("Title " + i, "id_" + i, new int[] {tag}));
+    }
+
+    assertEquals(10_000, store.size());
+    for (int i = 0; i < 10_000; i += 997) {
+      int row = store.find("id_" + i);
+      assertEquals(i, row);
+      assertEquals("Title " + i, store.title(row));
+      assertEquals("id_" + i, store.videoId(row));
+      assertEquals(List.of("#store"), store.tags(row));
+    }
+    assertEquals(-1, store.find("id_10000"));
+  }
+
+  @Test
+  public void testPerfectIndexFindsEveryLiveId() {
+    var store = new CatalogStore();
+    for (int i = 0; i < 50000; i++) {
+      store.add("Title " + i, "id_" + i, new int[0]);
+    }
+    store.add("Replaced", "id_7", new int[0]);
+
+    store.indexIds();
+
+    assertTrue(store.hasPerfectIndex());
+    for (int i = 0; i < 50000; i++) {
+      int row = store.find("id_" + i);
+      assertEquals("id_" + i, store.videoId(row));
+    }
+    assertEquals(50000, store.find("id_7"));
+    assertEquals(-1, store.find("id_50000"));
+    assertEquals(-1, store.find(""));
+
+    store.remove(store.find("id_3"));
+    assertFalse(store.hasPerfectIndex());
+    assertEquals(-1, store.find("id_3"));
+    assertEquals(4, store.find("id_4"));
+  }
+
+  @Test
+  public void testPerfectIndexOfEmptyStore() {
+    var store = new CatalogStore();
+    store.indexIds();
+
+    assertTrue(store.hasPerfectIndex());
+    assertEquals(-1, store.find("anything"));
+  }
+
+  @Test
+  public void testTagSearchUsesIndexAndSkipsRetiredRows() {
+    int cat = TagDictionary.intern("#store_cat");
+    int dog = TagDictionary.intern("#store_dog");
+    var store = new CatalogStore();
+    for (int i = 0; i < 10000; i++) {
+      store.add("Title " + i, "id_" + i, i % 3 == 0 ? new int[] {cat} : new int[] {dog});
+    }
+    store.indexTags();
+
+    var fork = store.fork();
+    fork.remove(fork.find("id_0"));
+    int added = fork.add("New", "new_id", new int[] {dog, cat});
+    fork.indexTags();
+    int unindexed = fork.add("Newer", "newer_id", new int[] {cat});
+
+    var cats = new BitSet();
+    cats.set(cat);
+    List<Integer> rows = new ArrayList<>();
+    fork.searchTags(TagQuery.anyOf(cats), rows::add);
+    assertEquals(3334 - 1 + 2, rows.size());
+    assertEquals(3, (int) rows.get(0));
+    assertEquals(List.of(added, unindexed), rows.subList(rows.size() - 2, rows.size()));
+
+    rows.clear();
+    store.searchTags(TagQuery.anyOf(cats), rows::add);
+    assertEquals(3334, rows.size());
+  }
+
+  @Test
+  public void testFlaggedRowsAreSubtractedFromSearches() {
+    int tag = TagDictionary.intern("#store_flagged");
+    var store = new CatalogStore();
+    for (int i = 0; i < 100; i++) {
+      store.add("Title " + i, "id_" + i, new int[] {tag});
+    }
+    store.indexTitles();
+    store.indexTags();
+    store.flag(10, "dont_like");
+    assertEquals(99, store.playableRows().cardinality());
+
+    var fork = store.fork();
+    fork.flag(11, "dont_like");
+    fork.remove(12);
+
+    var tags = new BitSet();
+    tags.set(tag);
+    List<Integer> rows = new ArrayList<>();
+    fork.searchTags(TagQuery.anyOf(tags), false, rows::add);
+    assertEquals(97, rows.size());
+    assertFalse(rows.contains(10) || rows.contains(11) || rows.contains(12));
+    rows.clear();
+    fork.searchTitles("title 1", false, rows::add);
+    assertEquals(List.of(1, 13, 14, 15, 16, 17, 18, 19), rows);
+    rows.clear();
+    fork.searchTitles("title 1", true, rows::add);
+    assertEquals(10, rows.size());
+    assertEquals(97, fork.playableRows().cardinality());
+
+    assertEquals(99, store.playableRows().cardinality());
+    assertFalse(store.flaggedRows().contains(11));
+  }
+
+  @Test
+  public void testTitleOrderCoversAddedAndUnorderedRows() {
+    var store = new CatalogStore();
+    store.add("banana", "b", new int[0]);
+    store.add("Apple", "a", new int[0]);
+    store.add("cherry", "c", new int[0]);
+    store.indexTitleOrder();
+
+    var fork = store.fork();
+    fork.remove(fork.find("c"));
+    int apple = fork.add("apple", "a2", new int[0]);
+    fork.indexTitleOrder();
+    int avocado = fork.add("Avocado", "v", new int[0]);
+
+    assertEquals(List.of(1, apple, avocado, 0), byTitle(fork));
+    int[] rows = {avocado, 0, apple};
+    fork.sortByTitle(rows);
+    assertArrayEquals(new int[] {apple, avocado, 0}, rows);
+    assertEquals("avocado", fork.titleKey(avocado));
+
+    assertEquals(List.of(1, 0, 2), byTitle(store));
+  }
+
+  @Test
+  public void testDuplicateIdRetiresOlderRow() {
+    var store = new CatalogStore();
+    int first = store.add("Old", "same_id", new int[0]);
+    store.add("Other", "other_id", new int[0]);
+    int second = store.add("New", "same_id", new int[0]);
+
+    assertEquals(2, store.size());
+    assertEquals(3, store.rowCount());
+    assertFalse(store.isLive(first));
+    assertEquals(second, store.find("same_id"));
+    assertEquals(1, store.nextLiveRow(0));
+  }
+
+  @Test
+  public void testForkLeavesParentUnchanged() {
+    var store = new CatalogStore();
+    for (int i = 0; i < 1000; i++) {
+      store.add("Title " + i, "id_" + i, new int[0]);
+    }
+
+    var fork = store.fork();
+    fork.flag(10, "dont_like");
+    fork.remove(20);
+    int added = fork.add("New", "new_id", new int[0]);
+    fork.add("Replaced", "id_30", new int[0]);
+
+    assertTrue(fork.isFlagged(10));
+    assertEquals("dont_like", fork.flagReason(10));
+    assertEquals(-1, fork.find("id_20"));
+    assertEquals(added, fork.find("new_id"));
+    assertEquals("Replaced", fork.title(fork.find("id_30")));
+    assertEquals(1000, fork.size());
+
+    assertFalse(store.isFlagged(10));
+    assertEquals(null, store.flagReason(10));
+    assertEquals(20, store.find("id_20"));
+    assertEquals(-1, store.find("new_id"));
+    assertEquals(30, store.find("id_30"));
+    assertFalse(store.isLive(added));
+    assertEquals(1000, store.size());
+    assertEquals(1000, store.rowCount());
+  }
+
+  private static List<Integer> byTitle(CatalogStore store) {
+    List<Integer> rows = new ArrayList<>();
+    store.forEachByTitle(rows::add);
+    return rows;
+  }
+}
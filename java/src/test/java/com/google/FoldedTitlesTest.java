@@ -0,0 +1,62 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+public class FoldedTitlesTest {
+
+  @Test
+  public void testEnginesAgreeWithIndexOf() {
+    var random = new Random(3);
+    var scalar = SubstringScan.select("scalar");
+    var swar = SubstringScan.select("swar");
+    for (int i = 0; i < 2000; i++) {
+      byte[] haystack = new byte[random.nextInt(64)];
+      for (int j = 0; j < haystack.length; j++) {
+        haystack[j] = (byte) ('a' + random.nextInt(3));
+      }
+      byte[] needle = new byte[1 + random.nextInt(4)];
+      for (int j = 0; j < needle.length; j++) {
+        needle[j] = (byte) ('a' + random.nextInt(3));
+      }
+      int from = haystack.length == 0 ? 0 : random.nextInt(haystack.length);
+      String text = new String(haystack, 0, haystack.length, StandardCharsets.US_ASCII);
+      int expected = text.indexOf(new String(needle, StandardCharsets.US_ASCII), from);
+      assertEquals(expected, scalar.indexOf(haystack, from, haystack.length, needle));
+      assertEquals(expected, swar.indexOf(haystack, from, haystack.length, needle));
+    }
+  }
+
+  @Test
+  public void testUnknownEngineFallsBackToSwar() {
+    assertEquals("scalar", SubstringScan.fromProperty("scalar").name());
+    assertEquals("swar", SubstringScan.fromProperty("avx512").name());
+  }
+
+  @Test
+  public void testScanMatchesStringSearch() {
+    var random = new Random(5);
+    var store = RandomCatalog.store(random, 2000, 4);
+    FoldedTitles titles = FoldedTitles.build(store);
+    assertScanMatchesStringSearch(store, titles);
+
+    // Extend a fork: new, replaced and removed rows.
+    var fork = RandomCatalog.changedFork(store, random, 300, 4);
+    assertScanMatchesStringSearch(fork, titles.extend(fork));
+    assertScanMatchesStringSearch(store, titles);
+  }
+
+  private static void assertScanMatchesStringSearch(CatalogStore store, FoldedTitles titles) {
+    for (String term : List.of("a", "A", "k", "at", "s ", "aaaaa", "caf\u00e9", "", "xyz",
+        "zoo", "g")) {
+      List<Integer> rows = new ArrayList<>();
+      titles.search(store, term, rows::add);
+      assertEquals(RandomCatalog.rowsContaining(store, term), rows, term);
+    }
+  }
+}
@@ -0,0 +1,89 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+public class PlaylistManagerTest extends TestBase {
+
+  @Test
+  public void testLooksUpIgnoringCaseAndListsInNameOrder() {
+    var manager = new PlaylistManager();
+    for (String name : List.of("b_list", "A_list", "c_list", "B")) {
+      manager.addPlaylist(name);
+    }
+    assertFalse(manager.addPlaylist("B_LIST"));
+    assertSame(manager.getPlaylist("b_list"), manager.getPlaylist("B_List"));
+
+    manager.deletePlaylist(manager.getPlaylist("C_LIST"));
+    assertNull(manager.getPlaylist("c_list"));
+    assertEquals(List.of("A_list", "B", "b_list"), names(manager.getPlaylists()));
+    assertEquals(List.of("b_list"), names(manager.getPlaylists("b", 0, 5)));
+    assertEquals(List.of("B"), names(manager.getPlaylists(null, 1, 1)));
+  }
+
+  @Test
+  public void testShowAllPlaylistsPagesWithCursor() {
+    for (String name : List.of("one", "two", "three")) {
+      videoPlayer.createPlaylist(name);
+    }
+    outputStream.reset();
+    videoPlayer.showAllPlaylists(
+        SearchPage.parse(List.of("LIMIT", "2"), SearchPage.Kind.PLAYLISTS));
+
+    var lines = getOutputLines();
+    assertEquals("Showing all playlists:", lines[0]);
+    assertEquals("one", lines[1]);
+    assertEquals("three", lines[2]);
+    String cursor = lines[3].split("add AFTER ")[1].split(" ")[0];
+
+    outputStream.reset();
+    videoPlayer.showAllPlaylists(
+        SearchPage.parse(List.of("LIMIT", "2", "AFTER", cursor), SearchPage.Kind.PLAYLISTS));
+    lines = getOutputLines();
+    assertEquals(2, lines.length, outputStream.toString());
+    assertEquals("two", lines[1]);
+  }
+
+  @Test
+  public void testTracksWhichPlaylistsHoldEachVideo() {
+    var library = new VideoLibrary();
+    var manager = new PlaylistManager();
+    for (String name : List.of("one", "two", "three")) {
+      manager.addPlaylist(name);
+    }
+    Video dogs = library.getVideo("funny_dogs_video_id");
+    Video cats = library.getVideo("amazing_cats_video_id");
+    manager.getPlaylist("one").addVideo(dogs);
+    manager.getPlaylist("two").addVideo(dogs);
+    manager.getPlaylist("two").addVideo(cats);
+    manager.getPlaylist("three").addVideo(cats);
+    assertEquals(List.of("one", "two"), sortedNames(manager.playlistsContaining("FUNNY_DOGS_VIDEO_ID")));
+
+    manager.removeVideoFromAll(dogs);
+    assertEquals(List.of(), manager.playlistsContaining("funny_dogs_video_id"));
+    assertEquals(List.of(cats), List.copyOf(manager.getPlaylist("two").getVideos()));
+
+    manager.replaceVideoInAll(cats, dogs);
+    assertEquals(List.of(), manager.playlistsContaining("amazing_cats_video_id"));
+    assertEquals(List.of("three", "two"), sortedNames(manager.playlistsContaining("funny_dogs_video_id")));
+
+    manager.getPlaylist("two").clear();
+    manager.deletePlaylist(manager.getPlaylist("three"));
+    assertEquals(List.of(), manager.playlistsContaining("funny_dogs_video_id"));
+  }
+
+  private static List<String> sortedNames(Collection<Playlist> playlists) {
+    return playlists.stream().map(Playlist::getName).sorted().collect(Collectors.toList());
+  }
+
+  private static List<String> names(Collection<Playlist> playlists) {
+    return playlists.stream().map(Playlist::getName).collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,111 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class PlaylistTest {
+
+  @TempDir
+  Path dir;
+
+  @Test
+  public void testKeepsInsertionOrderAcrossRemovals() {
+    var library = new VideoLibrary();
+    var playlist = new Playlist("my_playlist");
+    for (String id : List.of("nothing_video_id", "funny_dogs_video_id", "amazing_cats_video_id")) {
+      assertTrue(playlist.addVideo(library.getVideo(id)));
+    }
+    assertFalse(playlist.addVideo(library.getVideo("funny_dogs_video_id")));
+
+    playlist.removeVideo(playlist.getVideo("FUNNY_DOGS_VIDEO_ID"));
+    assertNull(playlist.getVideo("funny_dogs_video_id"));
+    assertTrue(playlist.addVideo(library.getVideo("funny_dogs_video_id")));
+
+    assertEquals(List.of("nothing_video_id", "amazing_cats_video_id", "funny_dogs_video_id"),
+        ids(playlist));
+    assertTrue(playlist.containsVideo(library.getVideo("amazing_cats_video_id")));
+  }
+
+  @Test
+  public void testLargePlaylistAddsAndRemovesById() throws IOException {
+    StringBuilder catalog = new StringBuilder();
+    for (int i = 0; i < 100_000; i++) {
+      catalog.append("Video ").append(i).append(" | id_").append(i).append(" |\n");
+    }
+    Path file = dir.resolve("videos.txt");
+    Files.writeString(file, catalog, StandardCharsets.UTF_8);
+    var library = new VideoLibrary(file);
+    var playlist = new Playlist("big");
+    for (int i = 0; i < 100_000; i++) {
+      assertTrue(playlist.addVideo(library.getVideo("id_" + i)));
+    }
+    for (int i = 0; i < 100_000; i += 2) {
+      playlist.removeVideo(playlist.getVideo("id_" + i));
+    }
+
+    assertEquals(50_000, playlist.size());
+    assertEquals("id_1", playlist.getVideos().iterator().next().getVideoId());
+    assertEquals("id_99999", playlist.getVideo("ID_99999").getVideoId());
+  }
+
+  @Test
+  public void testMatchesOrderedMapUnderRandomEdits() throws IOException {
+    StringBuilder catalog = new StringBuilder();
+    for (int i = 0; i < 40; i++) {
+      catalog.append("Video ").append(i).append(" | id_").append(i).append(" |\n");
+    }
+    Path file = dir.resolve("videos.txt");
+    Files.writeString(file, catalog, StandardCharsets.UTF_8);
+    var library = new VideoLibrary(file);
+    var random = new Random(11);
+    var playlist = new Playlist("random");
+    var expected = new LinkedHashMap<String, Video>();
+    for (int i = 0; i < 20_000; i++) {
+      Video video = library.getVideo("id_" + random.nextInt(40));
+      switch (random.nextInt(3)) {
+        case 0:
+          assertEquals(expected.putIfAbsent(video.getVideoId(), video) == null,
+              playlist.addVideo(video));
+          break;
+        case 1:
+          expected.remove(video.getVideoId());
+          playlist.removeVideo(video);
+          break;
+        default:
+          Video replacement = library.getVideo("id_" + random.nextInt(40));
+          if (expected.containsKey(video.getVideoId())) {
+            var entries = new ArrayList<>(expected.entrySet());
+            expected.clear();
+            for (var entry : entries) {
+              if (entry.getKey().equals(video.getVideoId())) {
+                expected.putIfAbsent(replacement.getVideoId(), replacement);
+              } else {
+                expected.putIfAbsent(entry.getKey(), entry.getValue());
+              }
+            }
+          }
+          playlist.replaceVideo(video, replacement);
+      }
+      assertEquals(List.copyOf(expected.keySet()), ids(playlist));
+      assertEquals(expected.size(), playlist.size());
+    }
+  }
+
+  private static List<String> ids(Playlist playlist) {
+    return playlist.getVideos().stream().map(Video::getVideoId).collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,68 @@
+package com.google;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+public class PrefixTrieTest extends TestBase {
+
+  @Test
+  public void testRangesMatchSortedScan() {
+    var random = new Random(7);
+    String[] keys = new String[5000];
+    for (int i = 0; i < keys.length; i++) {
+      StringBuilder key = new StringBuilder();
+      for (int n = random.nextInt(8); n >= 0; n--) {
+        key.append("abc ".charAt(random.nextInt(4)));
+      }
+      keys[i] = key.toString();
+    }
+    Arrays.sort(keys);
+    PrefixTrie trie = PrefixTrie.build(i -> keys[i], keys.length);
+
+    for (String prefix : new String[] {"", "a", "ab", "abc", "c c", "bbbbbbbbb", "d"}) {
+      int from = 0;
+      while (from < keys.length && keys[from].compareTo(prefix) < 0) {
+        from++;
+      }
+      int to = from;
+      while (to < keys.length && keys[to].startsWith(prefix)) {
+        to++;
+      }
+      int[] expected = from == to ? new int[2] : new int[] {from, to};
+      assertArrayEquals(expected, trie.range(prefix), prefix);
+    }
+    int chars = Arrays.stream(keys).mapToInt(String::length).sum();
+    assertTrue(trie.labelLength() < chars / 4, trie.labelLength() + " of " + chars);
+  }
+
+  @Test
+  public void testEmptyTrie() {
+    assertArrayEquals(new int[2], PrefixTrie.build(i -> null, 0).range("a"));
+  }
+
+  @Test
+  public void testSuggestSkipsFlaggedVideos() {
+    videoPlayer.flagVideo("amazing_cats_video_id");
+    outputStream.reset();
+
+    videoPlayer.suggest("a");
+    videoPlayer.suggest("#C");
+    videoPlayer.suggest("xyz");
+
+    var lines = getOutputLines();
+    assertEquals(6, lines.length, outputStream.toString());
+    assertThat(lines[0], containsString("Suggestions for a:"));
+    assertThat(lines[1], containsString("Another Cat Video"));
+    assertThat(lines[2], containsString("Suggestions for #C:"));
+    assertThat(lines[3], containsString("#career"));
+    assertThat(lines[4], containsString("#cat"));
+    assertThat(lines[5], containsString("No suggestions for xyz"));
+  }
+}
@@ -0,0 +1,102 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class QueryCacheTest {
+
+  @TempDir
+  Path dir;
+
+  @Test
+  public void testEvictsLeastRecentlyUsedWithinCapacity() {
+    var cache = new QueryCache(10);
+    List<Video> four = Collections.nCopies(4, new Video(null, 0));
+    cache.put("a", cache.generation(), video -> true, false, four);
+    cache.put("b", cache.generation(), video -> true, false, four);
+    cache.get("a");
+    cache.put("c", cache.generation(), video -> true, false, four);
+
+    assertNotNull(cache.get("a"));
+    assertNull(cache.get("b"));
+    assertNotNull(cache.get("c"));
+    assertEquals(1, cache.stats().evictions());
+    assertEquals(3, cache.stats().hits());
+    assertEquals(0.75, cache.stats().hitRate());
+  }
+
+  @Test
+  public void testRefusesResultsComputedBeforeAnInvalidation() {
+    var cache = new QueryCache(100);
+    long generation = cache.generation();
+    cache.catalogChanged(List.of());
+    cache.put("a", generation, video -> true, false, List.of());
+
+    assertNull(cache.get("a"));
+  }
+
+  @Test
+  public void testKeepsResultsCachedWhileAReloadIsChecked() {
+    var cache = new QueryCache(100);
+    List<Video> fresh = List.of(new Video(null, 1));
+    // The stale entry's check runs outside the cache, while a search caches a fresh result.
+    cache.put("a", cache.generation(), video -> {
+      cache.put("a", cache.generation(), other -> true, false, fresh);
+      return true;
+    }, false, List.of(new Video(null, 0)));
+    cache.put("b", cache.generation(), video -> true, false, List.of());
+    cache.put("c", cache.generation(), video -> false, false, List.of());
+    cache.catalogChanged(List.of(new Video(null, 0), new Video(null, 1)));
+
+    assertEquals(fresh, cache.get("a"));
+    assertNull(cache.get("b"));
+    assertNotNull(cache.get("c"));
+    assertEquals(1, cache.stats().invalidations());
+  }
+
+  @Test
+  public void testLibraryInvalidatesOnlyAffectedResults() throws IOException {
+    Path catalog = dir.resolve("videos.txt");
+    Files.writeString(catalog, "Funny Dogs | dogs_id | #dog , #animal\n"
+        + "Amazing Cats | cats_id | #cat , #animal\n"
+        + "Life at Google | google_id | #google\n", StandardCharsets.UTF_8);
+    var library = new VideoLibrary(catalog);
+    assertEquals(2, library.searchTags("#animal", false).size());
+    assertEquals(1, library.searchTitles("google", false).size());
+    assertEquals(1, library.searchTitles("GOOGLE", false).size());
+    assertEquals(1, library.cacheStats().hits());
+
+    library.getVideo("cats_id").flag("dont_like");
+    assertEquals(1, library.searchTitles("google", false).size());
+    assertEquals(List.of("dogs_id"), ids(library.searchTags("#animal", false)));
+    assertEquals(2, library.cacheStats().hits());
+    assertEquals(1, library.cacheStats().invalidations());
+
+    library.getVideo("cats_id").clearFlag();
+    assertEquals(2, library.searchTags("#animal", false).size());
+
+    Files.writeString(catalog, "Funny Dogs | dogs_id | #dog , #animal\n"
+        + "Amazing Cats | cats_id | #cat , #animal\n"
+        + "Life at Google | google_id | #google\n"
+        + "Google Cats | google_cats_id | #cat\n", StandardCharsets.UTF_8);
+    library.reload();
+    assertEquals(2, library.searchTitles("google", false).size());
+    assertEquals(2, library.searchTags("#animal", false).size());
+    assertEquals(3, library.cacheStats().hits());
+  }
+
+  private static List<String> ids(List<Video> videos) {
+    return videos.stream().map(Video::getVideoId).collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,67 @@
+package com.google;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Random catalogs for tests that check an index against a brute-force
+ * answer. Titles are drawn from a few words, so searches both hit and miss
+ * often, and the words cover case folding, repeated letters and non-ASCII.
+ */
+final class RandomCatalog {
+
+  /** Title words; "the" repeats so that some terms are much more common than others. */
+  static final String[] WORDS = {"Amazing", "cats", "cat", "Dogs", "a", "aaaa", "Google",
+      "caf\u00e9", "LIFE", "at", "the", "the", "the", "Zoo", "video", "Catalog", "\u212aelvin"};
+
+  private RandomCatalog() {}
+
+  /** Returns a title of one to {@code maxWords} random words. */
+  static String title(Random random, int maxWords) {
+    StringBuilder title = new StringBuilder();
+    int words = 1 + random.nextInt(maxWords);
+    for (int i = 0; i < words; i++) {
+      if (i > 0) {
+        title.append(' ');
+      }
+      title.append(WORDS[random.nextInt(WORDS.length)]);
+    }
+    return title.toString();
+  }
+
+  /** Returns a store of random titles with ids {@code id_0} to {@code id_<rows - 1>} and no tags. */
+  static CatalogStore store(Random random, int rows, int maxWords) {
+    var store = new CatalogStore();
+    for (int i = 0; i < rows; i++) {
+      store.add(title(random, maxWords), "id_" + i, new int[0]);
+    }
+    return store;
+  }
+
+  /**
+   * Returns a fork of a store from {@link #store} with new, replaced and
+   * removed rows: {@code changes} of each. New rows carry the given tags.
+   */
+  static CatalogStore changedFork(CatalogStore store, Random random, int changes, int maxWords,
+      int... newTags) {
+    var fork = store.fork();
+    for (int i = 0; i < changes; i++) {
+      fork.add(title(random, maxWords), "id_" + (i * 7), new int[0]);
+      fork.add(title(random, maxWords), "new_" + i, newTags);
+      fork.remove(fork.find("id_" + (i * 5 + 1)));
+    }
+    return fork;
+  }
+
+  /** Returns the live rows whose titles contain the term, ignoring case, by scanning. */
+  static List<Integer> rowsContaining(CatalogStore store, String term) {
+    List<Integer> rows = new ArrayList<>();
+    for (int row = store.nextLiveRow(0); row >= 0; row = store.nextLiveRow(row + 1)) {
+      if (store.title(row).toLowerCase().contains(term.toLowerCase())) {
+        rows.add(row);
+      }
+    }
+    return rows;
+  }
+}
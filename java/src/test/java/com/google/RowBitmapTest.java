@@ -0,0 +1,103 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+public class RowBitmapTest {
+
+  @Test
+  public void testSetOperationsMatchBitSet() {
+    var random = new Random(12);
+    // Sparse, dense and mixed sets, so every pair of container kinds meets.
+    BitSet[] sets = {
+        randomSet(random, 300_000, 0.001),
+        randomSet(random, 300_000, 0.5),
+        randomSet(random, 200_000, 0.05),
+        new BitSet(),
+    };
+    for (BitSet a : sets) {
+      for (BitSet b : sets) {
+        RowBitmap x = toBitmap(a);
+        RowBitmap y = toBitmap(b);
+
+        BitSet and = (BitSet) a.clone();
+        and.and(b);
+        assertEquals(and, toBitSet(x.and(y)));
+        BitSet andNot = (BitSet) a.clone();
+        andNot.andNot(b);
+        assertEquals(andNot, toBitSet(x.andNot(y)));
+        BitSet or = (BitSet) a.clone();
+        or.or(b);
+        assertEquals(or, toBitSet(x.or(y)));
+        assertEquals(or.cardinality(), x.or(y).cardinality());
+      }
+    }
+  }
+
+  @Test
+  public void testUnionOfManyBitmapsLeavesInputsUnchanged() {
+    var random = new Random(3);
+    BitSet expected = new BitSet();
+    BitSet first = randomSet(random, 100_000, 0.3);
+    RowBitmap firstBitmap = toBitmap(first);
+    expected.or(first);
+    RowBitmap union = firstBitmap;
+    for (int i = 0; i < 5; i++) {
+      BitSet set = randomSet(random, 100_000, 0.01 * (i + 1));
+      expected.or(set);
+      union = RowBitmap.union(List.of(union, toBitmap(set), firstBitmap));
+    }
+
+    assertEquals(expected, toBitSet(union));
+    assertEquals(first, toBitSet(firstBitmap));
+  }
+
+  @Test
+  public void testContains() {
+    RowBitmap bitmap = RowBitmap.of(1, 70_000, 70_001);
+
+    assertTrue(bitmap.contains(70_000));
+    assertFalse(bitmap.contains(2));
+    assertFalse(bitmap.contains(1 << 20));
+    assertEquals(3, bitmap.cardinality());
+  }
+
+  @Test
+  public void testSelectMatchesIterationOrder() {
+    BitSet set = randomSet(new Random(5), 200_000, 0.1);
+    set.set(65_536, 70_000, false);
+    set.set(150_000);
+    RowBitmap bitmap = toBitmap(set);
+
+    int index = 0;
+    for (int row = set.nextSetBit(0); row >= 0; row = set.nextSetBit(row + 1)) {
+      assertEquals(row, bitmap.select(index++));
+    }
+  }
+
+  private static BitSet randomSet(Random random, int size, double density) {
+    BitSet set = new BitSet();
+    for (int i = 0; i < size; i++) {
+      if (random.nextDouble() < density) {
+        set.set(i);
+      }
+    }
+    return set;
+  }
+
+  private static RowBitmap toBitmap(BitSet set) {
+    return RowBitmap.of(set.stream().toArray());
+  }
+
+  private static BitSet toBitSet(RowBitmap bitmap) {
+    BitSet set = new BitSet();
+    bitmap.forEach(set::set);
+    return set;
+  }
+}
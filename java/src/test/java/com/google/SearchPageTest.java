@@ -0,0 +1,64 @@
+package com.google;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class SearchPageTest extends TestBase {
+
+  @Test
+  public void testParseOptions() {
+    SearchPage page = SearchPage.parse(List.of("offset", "3", "LIMIT", "2"));
+
+    assertEquals(3, page.offset());
+    assertEquals(2, page.limit());
+    assertEquals(null, page.after());
+    assertEquals(Integer.MAX_VALUE, SearchPage.parse(List.of()).limit());
+    for (List<String> options : List.of(List.of("LIMIT"), List.of("LIMIT", "-1"),
+        List.of("LIMIT", "1", "LIMIT", "2"), List.of("AFTER", "???"), List.of("SKIP", "1"))) {
+      assertThrows(IllegalArgumentException.class, () -> SearchPage.parse(options),
+          options.toString());
+    }
+  }
+
+  @Test
+  public void testCursorsOnlyContinueTheirOwnKindOfListing() {
+    String videoCursor = SearchPage.cursor("cats", 0, 3);
+    String playlistCursor = SearchPage.playlistCursor("my_list");
+
+    assertEquals("cats", SearchPage.parse(List.of("AFTER", videoCursor)).after().titleKey());
+    assertEquals("my_list", SearchPage.parse(List.of("AFTER", playlistCursor),
+        SearchPage.Kind.PLAYLISTS).afterPlaylist());
+    assertThrows(IllegalArgumentException.class,
+        () -> SearchPage.parse(List.of("AFTER", playlistCursor)));
+    assertThrows(IllegalArgumentException.class,
+        () -> SearchPage.parse(List.of("AFTER", videoCursor), SearchPage.Kind.PLAYLISTS));
+
+    var parser = new CommandParser(videoPlayer);
+    parser.executeCommand(List.of("SHOW_ALL_PLAYLISTS", "AFTER", videoCursor));
+    assertEquals("Invalid search options: AFTER needs a cursor from a playlist listing, "
+        + "not from a video search", getOutputLines()[0]);
+  }
+
+  @Test
+  public void testFullPageShowsCursorForNextPage() {
+    setInput("No");
+    videoPlayer.searchVideos("video", SearchPage.parse(List.of("LIMIT", "1")));
+
+    String output = outputStream.toString();
+    assertThat(output, containsString("1) Another Cat Video (another_cat_video_id) [#cat #animal]"));
+    String cursor = output.split("add AFTER ")[1].split(" ")[0];
+
+    outputStream.reset();
+    setInput("No");
+    videoPlayer.searchVideos("video", SearchPage.parse(List.of("LIMIT", "5", "AFTER", cursor)));
+
+    var lines = getOutputLines();
+    assertThat(lines[1], containsString("1) Video about nothing (nothing_video_id) []"));
+    assertEquals(4, lines.length, outputStream.toString());
+  }
+}
@@ -0,0 +1,177 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class StateJournalTest extends TestBase {
+
+  @TempDir
+  Path dir;
+
+  @Test
+  public void testPlaylistsAndFlagsSurviveRestart() throws IOException {
+    videoPlayer.keepState(dir, StateJournal.FsyncPolicy.ALWAYS);
+    videoPlayer.createPlaylist("my_PLAYlist");
+    videoPlayer.createPlaylist("gone");
+    videoPlayer.addVideoToPlaylist("my_playlist", "amazing_cats_video_id");
+    videoPlayer.addVideoToPlaylist("my_playlist", "funny_dogs_video_id");
+    videoPlayer.addVideoToPlaylist("my_playlist", "life_at_google_video_id");
+    videoPlayer.removeFromPlaylist("my_playlist", "funny_dogs_video_id");
+    videoPlayer.deletePlaylist("gone");
+    videoPlayer.flagVideo("nothing_video_id", "dont_like");
+    videoPlayer.flagVideo("funny_dogs_video_id");
+    videoPlayer.allowVideo("funny_dogs_video_id");
+    videoPlayer.close();
+
+    var restarted = new VideoPlayer();
+    restarted.keepState(dir, StateJournal.FsyncPolicy.ALWAYS);
+    outputStream.reset();
+    restarted.showAllPlaylists();
+    restarted.showPlaylist("my_playlist");
+    restarted.flagVideo("nothing_video_id");
+    restarted.allowVideo("funny_dogs_video_id");
+    restarted.close();
+
+    assertEquals(List.of("Showing all playlists:", "my_PLAYlist",
+        "Showing playlist: my_playlist",
+        "Amazing Cats (amazing_cats_video_id) [#cat #animal]",
+        "Life at Google (life_at_google_video_id) [#google #career]",
+        "Cannot flag video: Video is already flagged",
+        "Cannot remove flag from video: Video is not flagged"), List.of(getOutputLines()));
+  }
+
+  @Test
+  public void testUnknownSavedChangesAreSkipped() throws IOException {
+    var journal = StateJournal.open(dir, StateJournal.FsyncPolicy.NEVER,
+        StateJournal.SNAPSHOT_EVERY, change -> { }, List::of);
+    journal.append("CREATE_PLAYLIST", "before");
+    journal.append("RENAME_PLAYLIST", "before", "after");
+    journal.append("ADD_TO_PLAYLIST", "before");
+    journal.append("CREATE_PLAYLIST", "after");
+    journal.close();
+
+    videoPlayer.keepState(dir, StateJournal.FsyncPolicy.NEVER);
+    assertEquals(List.of("Skipping unknown saved change [RENAME_PLAYLIST, before, after]",
+        "Skipping unknown saved change [ADD_TO_PLAYLIST, before]"), List.of(getOutputLines()));
+    videoPlayer.createPlaylist("later");
+    videoPlayer.close();
+    var restarted = new VideoPlayer();
+    restarted.keepState(dir, StateJournal.FsyncPolicy.NEVER);
+    outputStream.reset();
+    restarted.showAllPlaylists();
+    restarted.close();
+
+    assertEquals(List.of("Showing all playlists:", "after", "before", "later"),
+        List.of(getOutputLines()));
+  }
+
+  @Test
+  public void testReloadRemovalsSurviveRestart() throws IOException {
+    Path catalog = dir.resolve("videos.txt");
+    String videos = "Funny Dogs | funny_dogs_video_id | #dog\n"
+        + "Amazing Cats | amazing_cats_video_id | #cat\n";
+    Files.writeString(catalog, videos);
+    var library = new VideoLibrary(catalog);
+    videoPlayer = new VideoPlayer(library);
+    videoPlayer.keepState(dir.resolve("state"), StateJournal.FsyncPolicy.NEVER);
+    videoPlayer.createPlaylist("my_playlist");
+    videoPlayer.addVideoToPlaylist("my_playlist", "funny_dogs_video_id");
+    videoPlayer.addVideoToPlaylist("my_playlist", "amazing_cats_video_id");
+    videoPlayer.flagVideo("amazing_cats_video_id", "dont_like");
+
+    // The cats leave the catalog, then come back as a new video.
+    Files.writeString(catalog, "Funny Dogs | funny_dogs_video_id | #dog\n");
+    library.reload();
+    videoPlayer.showPlaylist("my_playlist");
+    Files.writeString(catalog, videos);
+    library.reload();
+    outputStream.reset();
+    videoPlayer.showPlaylist("my_playlist");
+    videoPlayer.close();
+    List<String> before = List.of(getOutputLines());
+
+    var restarted = new VideoPlayer(new VideoLibrary(catalog));
+    restarted.keepState(dir.resolve("state"), StateJournal.FsyncPolicy.NEVER);
+    outputStream.reset();
+    restarted.showPlaylist("my_playlist");
+    restarted.allowVideo("amazing_cats_video_id");
+    restarted.close();
+
+    assertEquals(List.of("Showing playlist: my_playlist", "Funny Dogs (funny_dogs_video_id) [#dog]"),
+        before);
+    assertEquals(List.of("Showing playlist: my_playlist", "Funny Dogs (funny_dogs_video_id) [#dog]",
+        "Cannot remove flag from video: Video is not flagged"), List.of(getOutputLines()));
+  }
+
+  @Test
+  public void testSnapshotsTruncateJournalUnderEveryPolicy() throws IOException {
+    for (StateJournal.FsyncPolicy policy : StateJournal.FsyncPolicy.values()) {
+      Path directory = dir.resolve(policy.name());
+      Map<String, String> state = new TreeMap<>();
+      StateJournal journal = open(directory, policy, state);
+      for (int i = 0; i < 95; i++) {
+        state.put("key" + (i % 7), "value" + i);
+        journal.append("SET", "key" + (i % 7), "value" + i);
+      }
+      journal.close();
+
+      assertTrue(Files.exists(directory.resolve("snapshot")), policy.name());
+      Map<String, String> recovered = new TreeMap<>();
+      open(directory, policy, recovered).close();
+      assertEquals(state, recovered, policy.name());
+      assertEquals(1, segments(directory).size(), policy.name());
+    }
+  }
+
+  @Test
+  public void testRecoveryCutsOffTornRecord() throws IOException {
+    Map<String, String> state = new TreeMap<>();
+    StateJournal journal = open(dir, StateJournal.FsyncPolicy.NEVER, state);
+    journal.append("SET", "a", "1");
+    journal.append("SET", "b", "2");
+    journal.close();
+    Path segment = segments(dir).get(0);
+    long intact = Files.size(segment);
+    Files.write(segment, new byte[] {0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+
+    Map<String, String> recovered = new TreeMap<>();
+    journal = open(dir, StateJournal.FsyncPolicy.NEVER, recovered);
+    assertEquals(intact, Files.size(segment));
+    journal.append("SET", "c", "3");
+    journal.close();
+
+    recovered.clear();
+    open(dir, StateJournal.FsyncPolicy.NEVER, recovered).close();
+    assertEquals(Map.of("a", "1", "b", "2", "c", "3"), recovered);
+  }
+
+  /** Opens a journal of SET records over a map, snapshotting every 10 records. */
+  private static StateJournal open(Path directory, StateJournal.FsyncPolicy policy,
+      Map<String, String> state) throws IOException {
+    return StateJournal.open(directory, policy, 10,
+        record -> state.put(record.get(1), record.get(2)),
+        () -> state.entrySet().stream()
+            .map(entry -> List.of("SET", entry.getKey(), entry.getValue()))
+            .collect(Collectors.toList()));
+  }
+
+  private static List<Path> segments(Path directory) throws IOException {
+    try (var files = Files.list(directory)) {
+      return files.filter(file -> file.getFileName().toString().startsWith("journal-"))
+          .sorted()
+          .collect(Collectors.toCollection(ArrayList::new));
+    }
+  }
+}
@@ -0,0 +1,84 @@
+package com.google;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class TagQueryTest extends TestBase {
+
+  @Test
+  public void testQueriesEvaluateOverTagIndex() {
+    var store = new CatalogStore();
+    int cat = TagDictionary.intern("#query_cat");
+    int animal = TagDictionary.intern("#query_animal");
+    int google = TagDictionary.intern("#query_google");
+    int cats = store.add("Cats", "cats", new int[] {cat, animal});
+    int dogs = store.add("Dogs", "dogs", new int[] {animal});
+    int office = store.add("Office cat", "office", new int[] {cat, google});
+    int nothing = store.add("Nothing", "nothing", new int[0]);
+    store.indexTags();
+    int late = store.add("Late cat", "late", new int[] {cat, animal});
+
+    assertEquals(List.of(cats, late), rows(store, "#query_cat AND #QUERY_ANIMAL"));
+    assertEquals(List.of(cats, late),
+        rows(store, "#query_cat and not #query_google"));
+    assertEquals(List.of(dogs, office), rows(store,
+        "(#query_animal AND NOT #query_cat) OR (#query_cat AND #query_google)"));
+    assertEquals(List.of(nothing), rows(store, "NOT #query_cat AND NOT #query_animal"));
+    assertEquals(List.of(dogs, nothing), rows(store, "NOT #query_cat"));
+    assertEquals(List.of(), rows(store, "#query_cat AND #no_such_tag"));
+  }
+
+  @Test
+  public void testRepeatedTagIndexesRowOnce() {
+    var store = new CatalogStore();
+    int dog = TagDictionary.intern("#query_dog");
+    int dogs = store.add("Funny Dogs", "funny_dogs", new int[] {dog, dog});
+    int puppy = store.add("Puppy", "puppy", new int[] {dog});
+    store.indexTags();
+
+    assertEquals(List.of(dogs, puppy), rows(store, "#query_dog"));
+    assertEquals(2, TagIndex.build(store).rows(dog).cardinality());
+  }
+
+  @Test
+  public void testMalformedQueriesAreRejected() {
+    for (String query : List.of("", "#cat AND", "(#cat", "#cat)", "AND #cat", "#cat #dog")) {
+      assertThrows(IllegalArgumentException.class, () -> TagQuery.parse(query), query);
+    }
+  }
+
+  @Test
+  public void testSearchVideosWithTags() {
+    setInput("No");
+
+    videoPlayer.searchVideosWithTags("#animal AND NOT (#dog OR #google)");
+
+    var lines = getOutputLines();
+    assertEquals(5, lines.length, outputStream.toString());
+    assertThat(lines[0],
+        containsString("Here are the results for #animal AND NOT (#dog OR #google):"));
+    assertThat(lines[1], containsString("1) Amazing Cats (amazing_cats_video_id) [#cat #animal]"));
+    assertThat(lines[2],
+        containsString("2) Another Cat Video (another_cat_video_id) [#cat #animal]"));
+  }
+
+  @Test
+  public void testSearchVideosWithMalformedTags() {
+    videoPlayer.searchVideosWithTags("#cat AND (#animal");
+
+    assertThat(outputStream.toString(),
+        containsString("Invalid tag query #cat AND (#animal: Missing )"));
+  }
+
+  private static List<Integer> rows(CatalogStore store, String query) {
+    List<Integer> rows = new ArrayList<>();
+    store.searchTags(TagQuery.parse(query), rows::add);
+    return rows;
+  }
+}
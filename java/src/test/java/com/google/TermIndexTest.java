@@ -0,0 +1,116 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+public class TermIndexTest extends TestBase {
+
+  @Test
+  public void testMaxScoreMatchesExhaustiveScoring() {
+    var random = new Random(11);
+    var store = new CatalogStore();
+    int tag = TagDictionary.intern("#terms_cat");
+    for (int i = 0; i < 3000; i++) {
+      store.add(RandomCatalog.title(random, 6), "id_" + i,
+          i % 3 == 0 ? new int[] {tag} : new int[0]);
+    }
+    TermIndex index = TermIndex.build(store);
+    assertRankingMatchesScoring(store, index);
+
+    // Extend a fork: new, replaced and removed rows.
+    var fork = RandomCatalog.changedFork(store, random, 500, 6, tag);
+    assertRankingMatchesScoring(fork, index.extend(fork));
+    assertRankingMatchesScoring(store, index);
+  }
+
+  @Test
+  public void testStoreRankingSkipsFlaggedAndScansUnindexedRows() {
+    var store = new CatalogStore();
+    int cats = store.add("Amazing Cats", "cats_id", new int[0]);
+    int dogs = store.add("Amazing Dogs", "dogs_id", new int[0]);
+    int cat = store.add("Cat cat cat", "cat_id", new int[0]);
+    store.indexTerms();
+    int amazing = store.add("Amazing", "amazing_id", new int[0]);
+
+    assertEquals(List.of(amazing, cats, dogs), rows(store.rankTitles("AMAZING", false, 5)));
+    store.flag(cats, "dont_like");
+    assertEquals(List.of(amazing, dogs), rows(store.rankTitles("amazing!", false, 5)));
+    assertEquals(List.of(cat), rows(store.rankTitles("cats cat", false, 5)));
+    assertEquals(List.of(cat, cats), rows(store.rankTitles("cats cat", true, 5)));
+    assertEquals(List.of(), rows(store.rankTitles("birds", true, 5)));
+  }
+
+  @Test
+  public void testRankedSearchListsBestMatchesFirst() {
+    setInput("No");
+    videoPlayer.searchVideosRanked("cat video", SearchPage.parse(List.of()));
+
+    var lines = getOutputLines();
+    assertEquals("Here are the most relevant results for cat video:", lines[0]);
+    assertEquals("1) Another Cat Video (another_cat_video_id) [#cat #animal]", lines[1]);
+    assertEquals("2) Video about nothing (nothing_video_id) []", lines[2]);
+    assertEquals("3) Amazing Cats (amazing_cats_video_id) [#cat #animal]", lines[3]);
+    assertEquals(6, lines.length, outputStream.toString());
+
+    outputStream.reset();
+    videoPlayer.searchVideosRanked("cat",
+        SearchPage.parse(List.of("AFTER", SearchPage.cursor("cat", 0, 0))));
+    assertEquals("Invalid search options: Ranked results cannot be paged with AFTER",
+        getOutputLines()[0]);
+  }
+
+  @Test
+  public void testRankedSearchWithHugeLimitSelectsOnlyWhatExists() {
+    setInput("No");
+    videoPlayer.searchVideosRanked("cat", SearchPage.parse(List.of("LIMIT", "2000000000")));
+
+    var lines = getOutputLines();
+    assertEquals("Here are the most relevant results for cat:", lines[0]);
+    assertEquals("1) Another Cat Video (another_cat_video_id) [#cat #animal]", lines[1]);
+
+    outputStream.reset();
+    videoPlayer.searchVideosRanked("cat",
+        SearchPage.parse(List.of("OFFSET", "2000000000", "LIMIT", "2000000000")));
+    assertEquals("No search results for cat", getOutputLines()[0]);
+
+    var store = new CatalogStore();
+    int cats = store.add("Amazing Cats", "cats_id", new int[0]);
+    assertEquals(List.of(cats), rows(store.rankTitles("cats", false, Integer.MAX_VALUE)));
+  }
+
+  private static void assertRankingMatchesScoring(CatalogStore store, TermIndex index) {
+    for (String query : List.of("cat", "the", "the cat", "amazing cats zoo", "terms_cat the",
+        "caf\u00e9 life at the zoo", "birds")) {
+      List<String> terms = TermIndex.terms(query);
+      List<Float> expected = new ArrayList<>();
+      for (int row = store.nextLiveRow(0); row >= 0; row = store.nextLiveRow(row + 1)) {
+        float score = index.score(store, row, terms);
+        if (score > 0) {
+          expected.add(score);
+        }
+      }
+      expected.sort((a, b) -> Float.compare(b, a));
+      for (int k : new int[] {1, 10, 100}) {
+        TopK top = new TopK(k);
+        index.search(terms, store::isLive, top);
+        long[] ranked = top.sorted();
+        assertEquals(Math.min(k, expected.size()), ranked.length, query);
+        for (int i = 0; i < ranked.length; i++) {
+          assertEquals(expected.get(i), TermIndex.score(ranked[i]), 1e-4, query);
+          assertEquals(TermIndex.score(ranked[i]),
+              index.score(store, TermIndex.row(ranked[i]), terms), 1e-4, query);
+        }
+      }
+    }
+  }
+
+  private static List<Integer> rows(long[] ranked) {
+    return Arrays.stream(ranked).mapToObj(TermIndex::row).collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,50 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+public class TitleIndexTest {
+
+  @Test
+  public void testIndexedSearchMatchesScan() {
+    var random = new Random(7);
+    var store = RandomCatalog.store(random, 3000, 4);
+    store.indexTitles();
+    assertSearchesMatchScan(store);
+
+    // Extend a fork: new, replaced and removed rows.
+    var fork = RandomCatalog.changedFork(store, random, 500, 4);
+    fork.indexTitles();
+    assertSearchesMatchScan(fork);
+    assertSearchesMatchScan(store);
+  }
+
+  @Test
+  public void testRowsAddedAfterIndexingAreStillFound() {
+    var store = new CatalogStore();
+    store.add("Amazing Cats", "cats_id", new int[0]);
+    store.indexTitles();
+    int dogs = store.add("Amazing Dogs", "dogs_id", new int[0]);
+
+    assertEquals(List.of(0, dogs), search(store, "AMAZING"));
+    assertEquals(List.of(dogs), search(store, "dog"));
+    assertEquals(List.of(), search(store, "amazing birds"));
+  }
+
+  private static void assertSearchesMatchScan(CatalogStore store) {
+    for (String term : List.of("a", "at", "cat", "CATS", "aaa", "aaaaaa", "ing c", "caf\u00e9 ",
+        "the zoo", "xyz", "g ", "life at the")) {
+      assertEquals(RandomCatalog.rowsContaining(store, term), search(store, term), term);
+    }
+  }
+
+  private static List<Integer> search(CatalogStore store, String term) {
+    List<Integer> rows = new ArrayList<>();
+    store.searchTitles(term, rows::add);
+    return rows;
+  }
+}
@@ -1,13 +1,24 @@
 package com.google;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 public class VideoLibraryTest {
 
@@ -23,6 +34,118 @@ public class VideoLibraryTest {
     assertEquals(videoLibrary.getVideos().size(), 5);
   }
 
+  @Test
+  public void testLibraryViewIsLiveAndReadOnly() {
+    var videos = videoLibrary.videos();
+
+    assertEquals(5, videoLibrary.size());
+    assertEquals(5, videos.size());
+    assertEquals(5, java.util.stream.StreamSupport.stream(videos.spliterator(), true).count());
+    assertTrue(videos.contains(videoLibrary.getVideo("nothing_video_id")));
+    assertThrows(UnsupportedOperationException.class,
+        () -> videos.add(videoLibrary.getVideo("nothing_video_id")));
+  }
+
+  @Test
+  public void testSnapshotIsUnaffectedByLaterFlags() {
+    var store = new CatalogStore();
+    int row = store.add("Amazing Cats", "amazing_cats_video_id", new int[0]);
+    var shard = new LocalShard(store, false);
+    var before = shard.snapshot();
+    var video = shard.getVideo("amazing_cats_video_id");
+
+    video.flag("dont_like_cats");
+
+    assertTrue(video.isFlagged());
+    assertTrue(shard.snapshot().isFlagged(row));
+    assertFalse(before.isFlagged(row));
+    video.clearFlag();
+    assertFalse(video.isFlagged());
+  }
+
+  @Test
+  public void testShardedLibraryFindsEveryVideo(@TempDir Path dir) throws IOException {
+    Path catalog = dir.resolve("videos.txt");
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      text.append("Video ").append(i).append(" | video_").append(i).append("_id | #tag\n");
+    }
+    Files.writeString(catalog, text, StandardCharsets.UTF_8);
+    var library = new VideoLibrary(catalog, 4, false);
+
+    int[] perShard = new int[4];
+    for (int i = 0; i < 1000; i++) {
+      String id = "video_" + i + "_id";
+      assertEquals("Video " + i, library.getVideo(id).getTitle());
+      perShard[CatalogStore.shardOf(id, 4)]++;
+    }
+    for (int count : perShard) {
+      assertTrue(count > 150);
+    }
+    assertEquals(1000, library.size());
+    assertEquals(1000, library.videos().parallelStream().distinct().count());
+    assertEquals(1, library.search(video -> video.getTitle().equals("Video 7")).size());
+  }
+
+  @Test
+  public void testShardedLibraryListsVideosByTitle(@TempDir Path dir) throws IOException {
+    Path catalog = dir.resolve("videos.txt");
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 500; i++) {
+      String title = (i % 2 == 0 ? "video " : "Video ") + (i * 7919 % 500);
+      text.append(title).append(" | video_").append(i).append("_id | #tag\n");
+    }
+    Files.writeString(catalog, text, StandardCharsets.UTF_8);
+    var library = new VideoLibrary(catalog, 4, false);
+
+    List<String> expected = new ArrayList<>();
+    for (Video video : library.videos()) {
+      expected.add(video.getTitle().toLowerCase());
+    }
+    expected.sort(null);
+    List<String> titles = new ArrayList<>();
+    for (Video video : library.videosByTitle()) {
+      titles.add(video.getTitle().toLowerCase());
+    }
+    assertEquals(expected, titles);
+
+    List<String> matches = new ArrayList<>();
+    for (Video video : library.searchTitles("video 4", true)) {
+      matches.add(video.getTitle().toLowerCase());
+    }
+    assertEquals(111, matches.size());
+    assertEquals(expected.stream().filter(t -> t.contains("video 4")).collect(Collectors.toList()),
+        matches);
+  }
+
+  @Test
+  public void testCursorPagesConcatenateToFullResults(@TempDir Path dir) throws IOException {
+    Path catalog = dir.resolve("videos.txt");
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 300; i++) {
+      // Many equal titles, so pages must break ties across shards.
+      text.append("Clip ").append(i % 40).append(" | clip_").append(i).append(" | #clip\n");
+    }
+    Files.writeString(catalog, text, StandardCharsets.UTF_8);
+    var library = new VideoLibrary(catalog, 4, false);
+    List<Video> all = library.searchTags("#clip", true);
+    assertEquals(300, all.size());
+
+    List<Video> paged = new ArrayList<>();
+    String cursor = null;
+    while (true) {
+      List<Video> page = library.searchTags("#clip", true, new SearchPage(0, 7, cursor));
+      if (page.isEmpty()) {
+        break;
+      }
+      paged.addAll(page);
+      cursor = library.cursorAfter(page.get(page.size() - 1));
+    }
+    assertEquals(all, paged);
+    assertEquals(all.subList(100, 120),
+        library.searchTitles("clip", true, new SearchPage(100, 20, null)));
+  }
+
   @Test
   public void testLibraryParsesTagsCorrectly() {
     var video = videoLibrary.getVideo("amazing_cats_video_id");
@@ -33,6 +156,16 @@ public class VideoLibraryTest {
     assertEquals(new ArrayList<>(List.of("#cat", "#animal")), video.getTags());
   }
 
+  @Test
+  public void testLibrarySharesTagIdsAcrossVideos() {
+    var cats = videoLibrary.getVideo("amazing_cats_video_id");
+    var dogs = videoLibrary.getVideo("funny_dogs_video_id");
+
+    assertEquals(TagDictionary.lookup("#animal"), cats.getTagId(1));
+    assertEquals(cats.getTagId(1), dogs.getTagId(1));
+    assertEquals("#animal", TagDictionary.tag(dogs.getTagId(1)));
+  }
+
   @Test
   public void testLibraryParsesVideoCorrectlyWithoutTags() {
     var video = videoLibrary.getVideo("nothing_video_id");
@@ -42,4 +175,118 @@ public class VideoLibraryTest {
     assertEquals("nothing_video_id", video.getVideoId());
     assertTrue(video.getTags().isEmpty());
   }
+
+  @Test
+  public void testLibraryParsesCatalogFileWithoutTrailingNewline(@TempDir Path dir)
+      throws IOException {
+    Path catalog = dir.resolve("videos.txt");
+    Files.writeString(catalog,
+        "Caf\u00e9 Tour | cafe_video_id |  #food ,#travel\r\n"
+            + "\n"
+            + "Old Title | dup_video_id | #old\n"
+            + "New Title | dup_video_id |",
+        StandardCharsets.UTF_8);
+    var library = new VideoLibrary(catalog);
+
+    assertEquals(2, library.getVideos().size());
+    var video = library.getVideo("cafe_video_id");
+    assertEquals("Caf\u00e9 Tour", video.getTitle());
+    assertEquals(List.of("#food", "#travel"), video.getTags());
+    assertEquals("New Title", library.getVideo("dup_video_id").getTitle());
+    assertTrue(library.getVideo("dup_video_id").getTags().isEmpty());
+  }
+
+  @Test
+  public void testLibraryLoadsCurrentSnapshot(@TempDir Path dir) throws IOException {
+    Path catalog = dir.resolve("videos.txt");
+    Files.writeString(catalog, "Amazing Cats | amazing_cats_video_id | #cat , #animal\n"
+        + "Video about nothing | nothing_video_id |\n"
+        + "Caf\u00e9 Tour | caf\u00e9_video_id | #food\n", StandardCharsets.UTF_8);
+    CatalogSnapshot.convert(catalog, CatalogSnapshot.snapshotPath(catalog));
+    // Change the text behind the snapshot's back; the snapshot must win.
+    Files.writeString(catalog, "", StandardCharsets.UTF_8);
+    Files.setLastModifiedTime(catalog,
+        Files.getLastModifiedTime(CatalogSnapshot.snapshotPath(catalog)));
+
+    var library = new VideoLibrary(catalog);
+
+    assertEquals(3, library.getVideos().size());
+    assertEquals("Caf\u00e9 Tour", library.getVideo("caf\u00e9_video_id").getTitle());
+    assertEquals(List.of("#cat", "#animal"),
+        library.getVideo("amazing_cats_video_id").getTags());
+    assertTrue(library.getVideo("nothing_video_id").getTags().isEmpty());
+  }
+
+  @Test
+  public void testLibraryIgnoresStaleSnapshot(@TempDir Path dir) throws IOException {
+    Path catalog = dir.resolve("videos.txt");
+    Files.writeString(catalog, "Amazing Cats | amazing_cats_video_id | #cat\n",
+        StandardCharsets.UTF_8);
+    Path snapshot = CatalogSnapshot.snapshotPath(catalog);
+    CatalogSnapshot.convert(catalog, snapshot);
+    Files.writeString(catalog, "Funny Dogs | funny_dogs_video_id | #dog\n",
+        StandardCharsets.UTF_8);
+    Files.setLastModifiedTime(snapshot, java.nio.file.attribute.FileTime.fromMillis(0));
+
+    var library = new VideoLibrary(catalog);
+
+    assertEquals(1, library.getVideos().size());
+    assertNotNull(library.getVideo("funny_dogs_video_id"));
+  }
+
+  @Test
+  public void testReloadKeepsFlagsChangedWhileIndexing(@TempDir Path dir) throws IOException {
+    Path catalog = dir.resolve("videos.txt");
+    int count = 50_000;
+    StringBuilder videos = new StringBuilder();
+    StringBuilder changed = new StringBuilder();
+    for (int i = 0; i < count; i++) {
+      videos.append("Video ").append(i).append(" | id_").append(i).append(" |\n");
+      changed.append("Video ").append(i).append(" v2 | id_").append(i).append(" |\n");
+    }
+    Files.writeString(catalog, videos, StandardCharsets.UTF_8);
+    var library = new VideoLibrary(catalog, 1, false);
+    Files.writeString(catalog, changed, StandardCharsets.UTF_8);
+
+    // Every video changes, so each flag lands before, during or after the reload's indexing.
+    var reload = CompletableFuture.runAsync(() -> {
+      try {
+        library.reload();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    });
+    int flagged = 0;
+    while (!reload.isDone() && flagged < count) {
+      library.getVideo("id_" + flagged++).flag("during");
+    }
+    reload.join();
+
+    assertEquals("Video 0 v2", library.getVideo("id_0").getTitle());
+    for (int i = 0; i < flagged; i++) {
+      assertTrue(library.getVideo("id_" + i).isFlagged(), "id_" + i);
+    }
+  }
+
+  @Test
+  public void testReloadAppliesDeltaAndKeepsFlags(@TempDir Path dir) throws IOException {
+    Path catalog = dir.resolve("videos.txt");
+    Files.writeString(catalog, "Funny Dogs | funny_dogs_video_id | #dog\n"
+        + "Amazing Cats | amazing_cats_video_id | #cat\n"
+        + "Life at Google | life_at_google_video_id | #google\n", StandardCharsets.UTF_8);
+    var library = new VideoLibrary(catalog);
+    library.getVideo("funny_dogs_video_id").flag("dont_like_dogs");
+
+    Files.writeString(catalog, "Funny Dogs | funny_dogs_video_id | #dog\n"
+        + "Amazing Cats Remastered | amazing_cats_video_id | #cat\n"
+        + "Video about nothing | nothing_video_id |\n", StandardCharsets.UTF_8);
+    library.reload();
+
+    assertEquals(3, library.size());
+    assertNull(library.getVideo("life_at_google_video_id"));
+    assertNotNull(library.getVideo("nothing_video_id"));
+    assertEquals("Amazing Cats Remastered",
+        library.getVideo("amazing_cats_video_id").getTitle());
+    assertEquals("dont_like_dogs", library.getVideo("funny_dogs_video_id").getFlagReason());
+  }
 }